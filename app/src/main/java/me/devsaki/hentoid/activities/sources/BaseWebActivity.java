@@ -112,6 +112,7 @@ import me.devsaki.hentoid.util.StringHelper;
 import me.devsaki.hentoid.util.ThemeHelper;
 import me.devsaki.hentoid.util.ToastHelper;
 import me.devsaki.hentoid.util.TooltipHelper;
+import me.devsaki.hentoid.util.UrlSuffixIndex;
 import me.devsaki.hentoid.util.download.ContentQueueManager;
 import me.devsaki.hentoid.util.file.FileHelper;
 import me.devsaki.hentoid.util.file.PermissionHelper;
@@ -207,10 +208,10 @@ public abstract class BaseWebActivity extends BaseActivity implements CustomWebV
     private List<String> blockedTags = Collections.emptyList();
     // Extra images found on the currently viewed Content
     private List<ImageFile> extraImages = Collections.emptyList();
-    // List of URLs of downloaded books for the current site
-    private final List<String> downloadedBooksUrls = new ArrayList<>();
-    // List of URLs of merged books for the current site
-    private final List<String> mergedBooksUrls = new ArrayList<>();
+    // URLs of downloaded books for the current site
+    private volatile UrlSuffixIndex downloadedBooksUrls = new UrlSuffixIndex(Collections.emptyList());
+    // URLs of merged books for the current site
+    private volatile UrlSuffixIndex mergedBooksUrls = new UrlSuffixIndex(Collections.emptyList());
     // List of tags of Preference-browser-blocked tags
     private List<String> prefBlockedTags = new ArrayList<>();
 
@@ -1382,29 +1383,23 @@ public abstract class BaseWebActivity extends BaseActivity implements CustomWebV
     }
 
     private void updateDownloadedBooksUrls() {
-        synchronized (downloadedBooksUrls) {
-            downloadedBooksUrls.clear();
-            downloadedBooksUrls.addAll(
-                    Stream.of(dao.selectAllSourceUrls(getStartSite()))
-                            .map(HttpHelper::simplifyUrl)
-                            .filterNot(String::isEmpty)
-                            .toList()
-            );
-        }
+        downloadedBooksUrls = new UrlSuffixIndex(
+                Stream.of(dao.selectAllSourceUrls(getStartSite()))
+                        .map(HttpHelper::simplifyUrl)
+                        .filterNot(String::isEmpty)
+                        .toList()
+        );
     }
 
     private void updateMergedBooksUrls() {
-        synchronized (mergedBooksUrls) {
-            mergedBooksUrls.clear();
-            mergedBooksUrls.addAll(
-                    Stream.of(dao.selectAllMergedUrls(getStartSite()))
-                            .map(s -> s.replace(getStartSite().getUrl(), ""))
-                            .map(s -> s.replaceAll("\\b|/galleries|/gallery|/g|/entry\\b", "")) //each sites "gallery" path
-                            .map(HttpHelper::simplifyUrl)
-                            .filterNot(String::isEmpty)
-                            .toList()
-            );
-        }
+        mergedBooksUrls = new UrlSuffixIndex(
+                Stream.of(dao.selectAllMergedUrls(getStartSite()))
+                        .map(s -> s.replace(getStartSite().getUrl(), ""))
+                        .map(s -> s.replaceAll("\\b|/galleries|/gallery|/g|/entry\\b", "")) //each sites "gallery" path
+                        .map(HttpHelper::simplifyUrl)
+                        .filterNot(String::isEmpty)
+                        .toList()
+        );
     }
 
     private void updatePrefBlockedTags() {
@@ -1424,7 +1419,13 @@ public abstract class BaseWebActivity extends BaseActivity implements CustomWebV
     @Subscribe(threadMode = ThreadMode.MAIN)
     public void onDownloadEvent(DownloadEvent event) {
         if (event.eventType == DownloadEvent.Type.EV_COMPLETE) {
-            if (webClient.isMarkDownloaded()) updateDownloadedBooksUrls();
+            if (webClient.isMarkDownloaded()) {
+                // Only add the new book instead of reloading the whole list from the DB
+                if (event.content != null && event.content.getSite() == getStartSite()) {
+                    String url = HttpHelper.simplifyUrl(event.content.getUrl());
+                    if (!url.isEmpty()) downloadedBooksUrls.add(url);
+                } else updateDownloadedBooksUrls();
+            }
             if (event.content != null && event.content.equals(currentContent) && event.content.getStatus().equals(StatusContent.DOWNLOADED)) {
                 setActionMode(ActionMode.READ);
             }
@@ -1505,13 +1506,13 @@ public abstract class BaseWebActivity extends BaseActivity implements CustomWebV
     }
 
     @Override
-    public List<String> getAllSiteUrls() {
-        return new ArrayList<>(downloadedBooksUrls); // Work on a copy to avoid any thread-synch issue
+    public UrlSuffixIndex getAllSiteUrls() {
+        return downloadedBooksUrls;
     }
 
     @Override
-    public List<String> getAllMergedBooksUrls() {
-        return new ArrayList<>(mergedBooksUrls);
+    public UrlSuffixIndex getAllMergedBooksUrls() {
+        return mergedBooksUrls;
     }
 
     @Override
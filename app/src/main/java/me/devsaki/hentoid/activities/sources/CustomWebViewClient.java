@@ -70,8 +70,10 @@ import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.StringHelper;
 import me.devsaki.hentoid.util.ToastHelper;
+import me.devsaki.hentoid.util.UrlSuffixIndex;
 import me.devsaki.hentoid.util.file.FileHelper;
 import me.devsaki.hentoid.util.image.ImageHelper;
+import me.devsaki.hentoid.util.network.HtmlRewritingInputStream;
 import me.devsaki.hentoid.util.network.HttpHelper;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
@@ -730,8 +732,10 @@ class CustomWebViewClient extends WebViewClient {
      * Process the given HTML document contained in the given stream :
      * - If set, remove nodes using the given list of CSS selectors to identify them
      * - If set, mark book covers or links matching the given list of Urls
+     * <p>
+     * The document is rewritten on the fly when possible; it is parsed entirely otherwise
      *
-     * @param stream             Stream containing the HTML document to process; will be closed during the process
+     * @param stream             Stream containing the HTML document to process; will be closed once processed
      * @param baseUri            Base URI of the document
      * @param removableElements  CSS selectors of the nodes to remove
      * @param jsContentBlacklist Blacklisted elements to detect script tags to remove
@@ -747,9 +751,19 @@ class CustomWebViewClient extends WebViewClient {
             @Nullable String customCss,
             @Nullable List<String> removableElements,
             @Nullable List<String> jsContentBlacklist,
-            @Nullable List<String> siteUrls,
-            @Nullable List<String> mergedSiteUrls,
+            @Nullable UrlSuffixIndex siteUrls,
+            @Nullable UrlSuffixIndex mergedSiteUrls,
             @Nullable List<String> blockedTags) {
+        // Rewrite the document as it is being read when no DOM is needed
+        // (blocked tags marking and site-specific rewriters need the whole document)
+        boolean isMarkingBlockedTags = blockedTags != null && !blockedTags.isEmpty() && site.getGalleryHeight() != -1;
+        if (null == customHtmlRewriter && !isMarkingBlockedTags && HtmlRewritingInputStream.isSupported(removableElements)) {
+            HtmlRewritingInputStream.BookCardMarking bookCardMarking = null;
+            if (siteUrls != null && mergedSiteUrls != null && (!siteUrls.isEmpty() || !mergedSiteUrls.isEmpty()))
+                bookCardMarking = new HtmlRewritingInputStream.BookCardMarking(siteUrls, mergedSiteUrls, site.getBookCardDepth(), site.getBookCardExcludedParentClasses());
+            return new HtmlRewritingInputStream(stream, baseUri.equals(mainPageUrl) ? customCss : null, removableElements, jsContentBlacklist, bookCardMarking);
+        }
+
         try {
             Document doc = Jsoup.parse(stream, null, baseUri);
 
@@ -817,36 +831,10 @@ class CustomWebViewClient extends WebViewClient {
                 }
 
                 for (Map.Entry<String, Pair<Element, Element>> entry : elements.entrySet()) {
-                    for (String url : siteUrls) {
-                        if (entry.getKey().endsWith(url)) {
-                            Element markedElement = entry.getValue().second; // Linked images have priority over plain links
-                            if (markedElement != null) { // Mark <site.bookCardDepth> levels above the image
-                                Element imgParent = markedElement.parent();
-                                for (int i = 0; i < site.getBookCardDepth() - 1; i++)
-                                    if (imgParent != null) imgParent = imgParent.parent();
-                                if (imgParent != null) markedElement = imgParent;
-                            } else { // Mark plain link
-                                markedElement = entry.getValue().first;
-                            }
-                            markedElement.addClass("watermarked");
-                            break;
-                        }
-                    }
-                    for (String url : mergedSiteUrls) {
-                        if (entry.getKey().endsWith(url)) {
-                            Element markedElement = entry.getValue().second; // Linked images have priority over plain links
-                            if (markedElement != null) { // // Mark <site.bookCardDepth> levels above the image
-                                Element imgParent = markedElement.parent();
-                                for (int i = 0; i < site.getBookCardDepth() - 1; i++)
-                                    if (imgParent != null) imgParent = imgParent.parent();
-                                if (imgParent != null) markedElement = imgParent;
-                            } else { // Mark plain link
-                                markedElement = entry.getValue().first;
-                            }
-                            markedElement.addClass("watermarked-merged");
-                            break;
-                        }
-                    }
+                    if (siteUrls.isSuffixed(entry.getKey()))
+                        markBookCard(entry.getValue(), "watermarked");
+                    if (mergedSiteUrls.isSuffixed(entry.getKey()))
+                        markBookCard(entry.getValue(), "watermarked-merged");
                 }
             }
 
@@ -905,6 +893,25 @@ class CustomWebViewClient extends WebViewClient {
         }
     }
 
+    /**
+     * Mark the given book card with the given CSS class
+     *
+     * @param card     Plain link ("a") and corresponding linked image ("a img"), if any
+     * @param cssClass CSS class to add to the marked element
+     */
+    private void markBookCard(@NonNull Pair<Element, Element> card, @NonNull String cssClass) {
+        Element markedElement = card.second; // Linked images have priority over plain links
+        if (markedElement != null) { // Mark <site.bookCardDepth> levels above the image
+            Element imgParent = markedElement.parent();
+            for (int i = 0; i < site.getBookCardDepth() - 1; i++)
+                if (imgParent != null) imgParent = imgParent.parent();
+            if (imgParent != null) markedElement = imgParent;
+        } else { // Mark plain link
+            markedElement = card.first;
+        }
+        markedElement.addClass(cssClass);
+    }
+
     private boolean containsForbiddenClass(@NonNull Site s, @NonNull Set<String> classNames) {
         Set<String> forbiddenElements = s.getBookCardExcludedParentClasses();
         return Stream.of(classNames).anyMatch(forbiddenElements::contains);
@@ -945,9 +952,9 @@ class CustomWebViewClient extends WebViewClient {
         void onResultFailed();
 
         // GETTERS
-        List<String> getAllSiteUrls();
+        UrlSuffixIndex getAllSiteUrls();
 
-        List<String> getAllMergedBooksUrls();
+        UrlSuffixIndex getAllMergedBooksUrls();
 
         List<String> getPrefBlockedTags();
 
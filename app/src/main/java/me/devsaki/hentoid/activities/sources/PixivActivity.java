@@ -9,7 +9,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.Map;
 
 import io.reactivex.Completable;
@@ -20,6 +19,7 @@ import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.parsers.content.ContentParser;
 import me.devsaki.hentoid.parsers.content.PixivContent;
+import me.devsaki.hentoid.util.UrlSuffixIndex;
 import me.devsaki.hentoid.util.network.HttpHelper;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
@@ -137,8 +137,8 @@ public class PixivActivity extends BaseWebActivity {
         @SuppressWarnings("unused")
         public int isMarkable(String bookId) {
 
-            List<String> downloadedBooks = getAllSiteUrls();
-            List<String> mergedBooks = getAllMergedBooksUrls();
+            UrlSuffixIndex downloadedBooks = getAllSiteUrls();
+            UrlSuffixIndex mergedBooks = getAllMergedBooksUrls();
 
             if (downloadedBooks.contains(bookId))
                 return 1;
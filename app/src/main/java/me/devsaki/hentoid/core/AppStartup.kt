@@ -47,6 +47,9 @@ import java.io.IOException
 typealias BiConsumer<T, U> = (T, U) -> Unit
 typealias Consumer<T> = (T) -> Unit
 
+// Maximum number of pre-launch tasks running at the same time
+private const val PRELAUNCH_PARALLELISM = 4
+
 @Suppress("UNUSED_PARAMETER")
 object AppStartup {
     private var isInitialized = false
@@ -67,7 +70,7 @@ object AppStartup {
             return
         }
 
-        val prelaunchTasks: MutableList<BiConsumer<Context, (Float) -> Unit>> = ArrayList()
+        val prelaunchTasks: MutableList<StartupTask> = ArrayList()
         prelaunchTasks.addAll(getPreLaunchTasks())
         prelaunchTasks.addAll(DatabaseMaintenance.getPreLaunchCleanupTasks())
 
@@ -94,24 +97,17 @@ object AppStartup {
     @OptIn(DelicateCoroutinesApi::class)
     private fun runPrelaunchTasks(
         context: Context,
-        tasks: List<BiConsumer<Context, (Float) -> Unit>>,
+        tasks: List<StartupTask>,
         onMainProgress: (Float) -> Unit,
         onSecondaryProgress: (Float) -> Unit,
         onComplete: () -> Unit
     ) {
         // Yes, we do need this to run on the GlobalScope
         GlobalScope.launch {
-            tasks.forEachIndexed { index, task ->
-                Timber.i("Pre-launch task %s/%s", index + 1, tasks.size)
-                try {
-                    withContext(Dispatchers.IO) {
-                        task.invoke(context, onSecondaryProgress)
-                        onMainProgress(index * 1f / tasks.size)
-                    }
-                } catch (e: Exception) {
-                    Timber.w(e)
-                }
-            }
+            // Independent tasks run concurrently
+            StartupTaskGraph.run(
+                context, tasks, PRELAUNCH_PARALLELISM, onMainProgress, onSecondaryProgress
+            )
             withContext(Dispatchers.Main) {
                 onComplete()
             }
@@ -122,9 +118,12 @@ object AppStartup {
      * Application initialization tasks
      * NB : Heavy operations; must be performed in the background to avoid ANR at startup
      */
-    private fun getPreLaunchTasks(): List<BiConsumer<Context, (Float) -> Unit>> {
+    private fun getPreLaunchTasks(): List<StartupTask> {
         return listOf(
-            this::stopWorkers, this::processAppUpdate, this::loadSiteProperties, this::initUtils
+            StartupTask("stop_workers", task = this::stopWorkers),
+            StartupTask("process_app_update", task = this::processAppUpdate),
+            StartupTask("load_site_properties", task = this::loadSiteProperties),
+            StartupTask("init_utils", task = this::initUtils)
         )
     }
 
@@ -0,0 +1,125 @@
+package me.devsaki.hentoid.core
+
+import android.content.Context
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.time.Instant
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+private const val TRACE_FILE_NAME = "startup_trace.txt"
+
+/**
+ * Startup task, that can run as soon as all the tasks it depends on are complete
+ *
+ * @param name         Unique name of the task
+ * @param dependencies Names of the tasks that have to be complete before this one starts;
+ *                     they must be declared before this one
+ * @param task         Task to run
+ */
+class StartupTask(
+    val name: String,
+    val dependencies: List<String> = emptyList(),
+    val task: BiConsumer<Context, (Float) -> Unit>
+)
+
+/**
+ * Runs startup tasks concurrently, in an order that respects their dependencies,
+ * and records the timing of each task to a trace file inside the app's files folder
+ */
+object StartupTaskGraph {
+
+    private class TaskTrace(
+        val name: String,
+        val startMs: Long,
+        val durationMs: Long,
+        val isSuccess: Boolean
+    )
+
+    /**
+     * Run the given tasks and wait for all of them to complete
+     * NB : A failed task doesn't prevent the tasks depending on it from running
+     *
+     * @param context             Context to use
+     * @param tasks               Tasks to run
+     * @param parallelism         Maximum number of tasks running at the same time
+     * @param onMainProgress      Called each time a task completes, with the proportion of complete tasks
+     * @param onSecondaryProgress Progress emitter given to the tasks
+     */
+    suspend fun run(
+        context: Context,
+        tasks: List<StartupTask>,
+        parallelism: Int,
+        onMainProgress: (Float) -> Unit,
+        onSecondaryProgress: (Float) -> Unit
+    ) {
+        // Dependencies have to be declared first => no cycle is possible
+        val completions = HashMap<String, CompletableDeferred<Unit>>()
+        tasks.forEach { t ->
+            require(!completions.containsKey(t.name)) { "Duplicate startup task ${t.name}" }
+            t.dependencies.forEach {
+                require(completions.containsKey(it)) { "Startup task ${t.name} depends on undeclared task $it" }
+            }
+            completions[t.name] = CompletableDeferred()
+        }
+
+        val permits = Semaphore(parallelism)
+        val nbComplete = AtomicInteger(0)
+        val traces: MutableList<TaskTrace> = Collections.synchronizedList(ArrayList())
+        val start = Instant.now().toEpochMilli()
+        coroutineScope {
+            tasks.forEach { t ->
+                launch(Dispatchers.IO) {
+                    t.dependencies.forEach { completions[it]?.await() }
+                    permits.withPermit {
+                        val taskStart = Instant.now().toEpochMilli()
+                        var isSuccess = true
+                        try {
+                            t.task.invoke(context, onSecondaryProgress)
+                        } catch (e: Exception) {
+                            Timber.w(e)
+                            isSuccess = false
+                        }
+                        val duration = Instant.now().toEpochMilli() - taskStart
+                        traces.add(TaskTrace(t.name, taskStart - start, duration, isSuccess))
+                        Timber.i("Startup task %s : done in %d ms", t.name, duration)
+                    }
+                    completions[t.name]?.complete(Unit)
+                    onMainProgress(nbComplete.incrementAndGet() * 1f / tasks.size)
+                }
+            }
+        }
+        val totalMs = Instant.now().toEpochMilli() - start
+        Timber.i("Startup tasks : %d tasks done in %d ms", tasks.size, totalMs)
+        writeTrace(context, traces, start, totalMs)
+    }
+
+    /**
+     * Write the given traces to the trace file, replacing the traces of the previous startup
+     */
+    private fun writeTrace(context: Context, traces: List<TaskTrace>, start: Long, totalMs: Long) {
+        val sb = StringBuilder()
+        sb.append("Startup at ").append(Instant.ofEpochMilli(start)).append(" : ")
+            .append(totalMs).append(" ms\n")
+        sb.append("task;start (ms);duration (ms);result\n")
+        synchronized(traces) {
+            traces.sortedBy { it.startMs }.forEach {
+                sb.append(it.name).append(';').append(it.startMs).append(';')
+                    .append(it.durationMs).append(';').append(if (it.isSuccess) "OK" else "KO")
+                    .append('\n')
+            }
+        }
+        try {
+            File(context.filesDir, TRACE_FILE_NAME).writeText(sb.toString())
+        } catch (e: IOException) {
+            Timber.w(e)
+        }
+    }
+}
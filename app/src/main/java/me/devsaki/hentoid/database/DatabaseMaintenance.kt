@@ -6,6 +6,7 @@ import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.WorkManager
 import me.devsaki.hentoid.R
 import me.devsaki.hentoid.core.BiConsumer
+import me.devsaki.hentoid.core.StartupTask
 import me.devsaki.hentoid.database.domains.Attribute
 import me.devsaki.hentoid.database.domains.Content
 import me.devsaki.hentoid.database.domains.Group
@@ -20,82 +21,129 @@ import me.devsaki.hentoid.workers.UpdateJsonWorker
 import me.devsaki.hentoid.workers.data.UpdateJsonData
 import timber.log.Timber
 
+// Number of books processed inside a single transaction when the task shows its progress
+private const val TX_BATCH_SIZE = 500
+
 @Suppress("UNUSED_PARAMETER")
 object DatabaseMaintenance {
     /**
      * Clean up and upgrade database
      * NB : Heavy operations; must be performed in the background to avoid ANR at startup
+     * NB2 : Tasks have to be run after AppStartup's "stop_workers" task
      */
-    fun getPreLaunchCleanupTasks(): List<BiConsumer<Context, (Float) -> Unit>> {
+    fun getPreLaunchCleanupTasks(): List<StartupTask> {
+        // All tasks need default values to be set first
+        val defaults = listOf("db_default_properties")
         return listOf(
-            this::setDefaultPropertiesOneShot,
-            this::cleanContent,
-            this::cleanPropertiesOneShot1,
-            this::cleanPropertiesOneShot2,
-            this::cleanPropertiesOneShot3,
-            this::cleanPropertiesOneShot4,
-            this::renameEmptyChapters,
-            this::computeContentSize,
-            this::createGroups,
-            this::computeReadingProgress,
-            this::reattachGroupCovers
+            StartupTask(
+                defaults[0],
+                task = oneShot("default_properties_1", this::setDefaultPropertiesOneShot)
+            ),
+            // Tasks that update books run one after the other, once workers can't update them anymore
+            StartupTask("db_clean_content", defaults + "stop_workers", this::cleanContent),
+            StartupTask(
+                "db_clean_properties_1", listOf("db_clean_content"),
+                oneShot("clean_properties_1", this::cleanPropertiesOneShot1)
+            ),
+            StartupTask(
+                "db_clean_properties_2", listOf("db_clean_properties_1"),
+                oneShot("clean_properties_2", this::cleanPropertiesOneShot2)
+            ),
+            StartupTask(
+                "db_clean_properties_3", listOf("db_clean_properties_2"),
+                oneShot("clean_properties_3", this::cleanPropertiesOneShot3)
+            ),
+            StartupTask(
+                "db_clean_properties_4", listOf("db_clean_properties_3"),
+                oneShot("clean_properties_4", this::cleanPropertiesOneShot4)
+            ),
+            StartupTask(
+                "db_compute_content_size", listOf("db_clean_properties_4"), this::computeContentSize
+            ),
+            StartupTask(
+                "db_compute_reading_progress", listOf("db_compute_content_size"),
+                this::computeReadingProgress
+            ),
+            // Chapters and groups are updated concurrently with books
+            StartupTask("db_rename_empty_chapters", defaults, this::renameEmptyChapters),
+            StartupTask("db_create_groups", defaults, this::createGroups),
+            // Groups created at startup need their cover too
+            StartupTask("db_reattach_group_covers", listOf("db_create_groups"), this::reattachGroupCovers)
         )
     }
 
     fun getPostLaunchCleanupTasks(): List<BiConsumer<Context, (Float) -> Unit>> {
         return listOf(
             this::clearTempContent,
-            this::cleanBookmarksOneShot,
+            oneShot("clean_bookmarks_1", this::cleanBookmarksOneShot),
             this::cleanOrphanAttributes,
             this::refreshJsonForSecondDownloadDate
         )
     }
 
+    /**
+     * Wrap the given task so that it isn't run anymore once it has completed successfully
+     *
+     * @param name Unique name of the task; give it a new name to run it again after modifying it
+     * @param task Task to wrap
+     */
+    private fun oneShot(
+        name: String,
+        task: BiConsumer<Context, (Float) -> Unit>
+    ): BiConsumer<Context, (Float) -> Unit> {
+        return { context, emitter ->
+            if (Preferences.isMaintenanceTaskComplete(name)) {
+                Timber.i("One-shot task %s : already done", name)
+            } else {
+                task.invoke(context, emitter)
+                Preferences.setIsMaintenanceTaskComplete(name, true)
+            }
+        }
+    }
+
     private fun cleanContent(context: Context, emitter: (Float) -> Unit) {
         val db = ObjectBoxDB.getInstance(context)
         try {
-            // Set items that were being downloaded in previous session as paused
-            Timber.i("Updating queue status : start")
-            db.updateContentStatus(StatusContent.DOWNLOADING, StatusContent.PAUSED)
-            Timber.i("Updating queue status : done")
+            // All updates happen inside a single transaction
+            db.runInTx {
+                // Set items that were being downloaded in previous session as paused
+                Timber.i("Updating queue status : start")
+                db.updateContentStatus(StatusContent.DOWNLOADING, StatusContent.PAUSED)
+                Timber.i("Updating queue status : done")
 
-            // Unflag all books marked for deletion
-            Timber.i("Unflag books : start")
-            var contentList = DBHelper.safeFind(db.selectAllFlaggedBooksQ())
-            Timber.i("Unflag books : %s books detected", contentList.size)
-            db.flagContentsForDeletion(contentList, false)
-            Timber.i("Unflag books : done")
+                // Unflag all books marked for deletion
+                Timber.i("Unflag books : start")
+                var contentIds = DBHelper.safeFindIds(db.selectAllFlaggedBooksQ())
+                Timber.i("Unflag books : %s books detected", contentIds.size)
+                db.flagContentsForDeletion(contentIds, false)
+                Timber.i("Unflag books : done")
 
-            // Unflag all books signaled as being processed
-            Timber.i("Unmark books as being processed : start")
-            contentList = DBHelper.safeFind(db.selectAllProcessedBooksQ())
-            Timber.i("Unmark books as being processed : %s books detected", contentList.size)
-            db.markContentsAsBeingProcessed(contentList, false)
-            Timber.i("Unmark books as being processed : done")
+                // Unflag all books signaled as being processed
+                Timber.i("Unmark books as being processed : start")
+                contentIds = DBHelper.safeFindIds(db.selectAllProcessedBooksQ())
+                Timber.i("Unmark books as being processed : %s books detected", contentIds.size)
+                db.markContentsAsBeingProcessed(contentIds, false)
+                Timber.i("Unmark books as being processed : done")
 
-            // Remove empty QueueRecords from the queue (still not sure how they appear in the first place)
-            Timber.i("Removing orphan Queue records : start")
-            val orphanIds = db.selectOrphanQueueRecordIds()
-            Timber.i("Removing orphan Queue records : %s items detected", orphanIds.size)
-            db.deleteQueueRecords(orphanIds)
-            Timber.i("Removing orphan Queue records : done")
+                // Remove empty QueueRecords from the queue (still not sure how they appear in the first place)
+                Timber.i("Removing orphan Queue records : start")
+                val orphanIds = db.selectOrphanQueueRecordIds()
+                Timber.i("Removing orphan Queue records : %s items detected", orphanIds.size)
+                db.deleteQueueRecords(orphanIds)
+                Timber.i("Removing orphan Queue records : done")
 
-            // Add back in the queue isolated DOWNLOADING or PAUSED books that aren't in the queue (since version code 106 / v1.8.0)
-            Timber.i("Moving back isolated items to queue : start")
-            val contents = db.selectContentByStatus(StatusContent.PAUSED)
-            val queueContents = db.selectQueueContents()
-            contents.removeAll(queueContents)
-            Timber.i("Moving back isolated items to queue : %s books detected", contents.size)
-            if (contents.isNotEmpty()) {
-                var queueMaxPos = db.selectMaxQueueOrder().toInt()
-                val max = contents.size
-                var pos = 1f
-                for (c in contents) {
-                    db.insertQueue(c.id, ++queueMaxPos)
-                    emitter(pos++ / max)
+                // Add back in the queue isolated DOWNLOADING or PAUSED books that aren't in the queue (since version code 106 / v1.8.0)
+                Timber.i("Moving back isolated items to queue : start")
+                val queueContentIds = db.selectQueueContentIds().toHashSet()
+                val isolatedIds = db.selectContentIdsByStatus(StatusContent.PAUSED)
+                    .filterNot { queueContentIds.contains(it) }
+                Timber.i("Moving back isolated items to queue : %s books detected", isolatedIds.size)
+                if (isolatedIds.isNotEmpty()) {
+                    db.insertQueue(isolatedIds.toLongArray(), db.selectMaxQueueOrder().toInt() + 1)
+                    emitter(1f)
                 }
+                Timber.i("Moving back isolated items to queue : done")
             }
-            Timber.i("Moving back isolated items to queue : done")
         } finally {
             db.closeThreadResources()
         }
@@ -106,13 +154,15 @@ object DatabaseMaintenance {
         try {
             // Clear temporary books created from browsing a book page without downloading it (since versionCode 60 / v1.3.7)
             Timber.i("Clearing temporary books : start")
-            val contents = db.selectContentByStatus(StatusContent.SAVED)
-            Timber.i("Clearing temporary books : %s books detected", contents.size)
-            val max = contents.size
-            var pos = 1f
-            for (c in contents) {
-                db.deleteContentById(c.id)
-                emitter(pos++ / max)
+            val contentIds = db.selectContentIdsByStatus(StatusContent.SAVED)
+            Timber.i("Clearing temporary books : %s books detected", contentIds.size)
+            val max = contentIds.size
+            var pos = 0f
+            // Each batch is deleted inside a single transaction
+            contentIds.asList().chunked(TX_BATCH_SIZE).forEach { batch ->
+                db.deleteContentById(batch.toLongArray())
+                pos += batch.size
+                emitter(pos / max)
             }
             Timber.i("Clearing temporary books : done")
         } finally {
@@ -129,23 +179,25 @@ object DatabaseMaintenance {
             Timber.i("Upgrading Pururin image hosts : %s books detected", contents.size)
             val max = contents.size
             var pos = 1f
-            for (c in contents) {
-                c.coverImageUrl = c.coverImageUrl.replace(
-                    "api.pururin.to/images/",
-                    "cdn.pururin.to/assets/images/data/"
-                )
-                if (c.imageFiles != null) for (i in c.imageFiles!!) {
-                    db.updateImageFileUrl(
-                        i.setUrl(
-                            i.url.replace(
-                                "api.pururin.to/images/",
-                                "cdn.pururin.to/assets/images/data/"
+            db.runInTx {
+                for (c in contents) {
+                    c.coverImageUrl = c.coverImageUrl.replace(
+                        "api.pururin.to/images/",
+                        "cdn.pururin.to/assets/images/data/"
+                    )
+                    if (c.imageFiles != null) for (i in c.imageFiles!!) {
+                        db.updateImageFileUrl(
+                            i.setUrl(
+                                i.url.replace(
+                                    "api.pururin.to/images/",
+                                    "cdn.pururin.to/assets/images/data/"
+                                )
                             )
                         )
-                    )
+                    }
+                    db.insertContentCore(c)
+                    emitter(pos++ / max)
                 }
-                db.insertContentCore(c)
-                emitter(pos++ / max)
             }
             Timber.i("Upgrading Pururin image hosts : done")
         } finally {
@@ -162,15 +214,17 @@ object DatabaseMaintenance {
             Timber.i("Upgrading Tsumino covers : %s books detected", contents.size)
             val max = contents.size
             var pos = 1f
-            for (c in contents) {
-                var url = c.coverImageUrl.replace(
-                    "www.tsumino.com/Image/Thumb",
-                    "content.tsumino.com/thumbs"
-                )
-                if (!url.endsWith("/1")) url += "/1"
-                c.coverImageUrl = url
-                db.insertContentCore(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    var url = c.coverImageUrl.replace(
+                        "www.tsumino.com/Image/Thumb",
+                        "content.tsumino.com/thumbs"
+                    )
+                    if (!url.endsWith("/1")) url += "/1"
+                    c.coverImageUrl = url
+                    db.insertContentCore(c)
+                    emitter(pos++ / max)
+                }
             }
             Timber.i("Upgrading Tsumino covers : done")
         } finally {
@@ -187,12 +241,14 @@ object DatabaseMaintenance {
             Timber.i("Upgrading Hitomi covers : %s books detected", contents.size)
             val max = contents.size
             var pos = 1f
-            for (c in contents) {
-                val url =
-                    c.coverImageUrl.replace("/smallbigtn/", "/webpbigtn/").replace(".jpg", ".webp")
-                c.coverImageUrl = url
-                db.insertContentCore(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    val url =
+                        c.coverImageUrl.replace("/smallbigtn/", "/webpbigtn/").replace(".jpg", ".webp")
+                    c.coverImageUrl = url
+                    db.insertContentCore(c)
+                    emitter(pos++ / max)
+                }
             }
             Timber.i("Upgrading Hitomi covers : done")
         } finally {
@@ -210,14 +266,16 @@ object DatabaseMaintenance {
             Timber.i("Fixing M18 covers : %s books detected", contents.size)
             val max = contents.size
             var pos = 1f
-            for (c in contents) {
-                val images: MutableList<ImageFile> = c.imageList.toMutableList()
-                val newCover =
-                    ImageFile.newCover(c.coverImageUrl, StatusContent.ONLINE).setContentId(c.id)
-                images.add(0, newCover)
-                images[1].setIsCover(false)
-                db.insertImageFiles(images)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    val images: MutableList<ImageFile> = c.imageList.toMutableList()
+                    val newCover =
+                        ImageFile.newCover(c.coverImageUrl, StatusContent.ONLINE).setContentId(c.id)
+                    images.add(0, newCover)
+                    images[1].setIsCover(false)
+                    db.insertImageFiles(images)
+                    emitter(pos++ / max)
+                }
             }
             Timber.i("Fixing M18 covers : done")
         } finally {
@@ -279,10 +337,12 @@ object DatabaseMaintenance {
             )
             var max = contents.size
             var pos = 1f
-            for (c in contents) {
-                c.isCompleted = false
-                db.updateContentObject(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    c.isCompleted = false
+                    db.updateContentObject(c)
+                    emitter(pos++ / max)
+                }
             }
             contents = db.selectContentWithNullDlModeField()
             Timber.i(
@@ -291,10 +351,12 @@ object DatabaseMaintenance {
             )
             max = contents.size
             pos = 1f
-            for (c in contents) {
-                c.downloadMode = Content.DownloadMode.DOWNLOAD
-                db.updateContentObject(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    c.downloadMode = Content.DownloadMode.DOWNLOAD
+                    db.updateContentObject(c)
+                    emitter(pos++ / max)
+                }
             }
             contents = db.selectContentWithNullMergeField()
             Timber.i(
@@ -303,10 +365,12 @@ object DatabaseMaintenance {
             )
             max = contents.size
             pos = 1f
-            for (c in contents) {
-                c.isManuallyMerged = false
-                db.updateContentObject(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    c.isManuallyMerged = false
+                    db.updateContentObject(c)
+                    emitter(pos++ / max)
+                }
             }
             contents = db.selectContentWithNullDlCompletionDateField()
             Timber.i(
@@ -315,21 +379,25 @@ object DatabaseMaintenance {
             )
             max = contents.size
             pos = 1f
-            for (c in contents) {
-                if (ContentHelper.isInLibrary(c.status)) c.downloadCompletionDate =
-                    c.downloadDate else c.downloadCompletionDate =
-                    0
-                db.updateContentObject(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    if (ContentHelper.isInLibrary(c.status)) c.downloadCompletionDate =
+                        c.downloadDate else c.downloadCompletionDate =
+                        0
+                    db.updateContentObject(c)
+                    emitter(pos++ / max)
+                }
             }
             contents = db.selectContentWithInvalidUploadDate()
             Timber.i("Fixing invalid upload dates : %s items detected", contents.size)
             max = contents.size
             pos = 1f
-            for (c in contents) {
-                c.uploadDate = c.uploadDate * 1000
-                db.updateContentObject(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    c.uploadDate = c.uploadDate * 1000
+                    db.updateContentObject(c)
+                    emitter(pos++ / max)
+                }
             }
             val chapters = db.selectChapterWithNullUploadDate()
             Timber.i(
@@ -358,10 +426,12 @@ object DatabaseMaintenance {
             Timber.i("Computing downloaded content size : %s books detected", contents.size)
             val max = contents.size
             var pos = 1f
-            for (c in contents) {
-                c.computeSize()
-                db.insertContentCore(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    c.computeSize()
+                    db.insertContentCore(c)
+                    emitter(pos++ / max)
+                }
             }
             Timber.i("Computing downloaded content size : done")
         } finally {
@@ -489,13 +559,15 @@ object DatabaseMaintenance {
             // Actual insert is inside its dedicated loop to allow displaying a proper progress bar
             Timber.i("Create non-existing groupings : %s relations to create", bookInsertCount)
             var pos = 1f
-            for (data in toInsert) {
-                db.insertGroup(data.first)
-                data.second?.putGroup(data.first)
-                for ((order, contentId) in data.third.withIndex()) {
-                    val item = GroupItem(contentId, data.first, order)
-                    db.insertGroupItem(item)
-                    emitter(pos++ / bookInsertCount)
+            db.runInTx {
+                for (data in toInsert) {
+                    db.insertGroup(data.first)
+                    data.second?.putGroup(data.first)
+                    for ((order, contentId) in data.third.withIndex()) {
+                        val item = GroupItem(contentId, data.first, order)
+                        db.insertGroupItem(item)
+                        emitter(pos++ / bookInsertCount)
+                    }
                 }
             }
             Timber.i("Create non-existing groupings : done")
@@ -516,10 +588,12 @@ object DatabaseMaintenance {
             )
             val max = contents.size
             var pos = 1f
-            for (c in contents) {
-                c.computeReadProgress()
-                db.insertContentCore(c)
-                emitter(pos++ / max)
+            db.runInTx {
+                for (c in contents) {
+                    c.computeReadProgress()
+                    db.insertContentCore(c)
+                    emitter(pos++ / max)
+                }
             }
             Timber.i("Computing downloaded content read progress : done")
         } finally {
@@ -536,13 +610,15 @@ object DatabaseMaintenance {
             Timber.i("Reattaching group covers : %s groups detected", groups.size)
             val max = groups.size
             var pos = 1f
-            for (g in groups) {
-                val contentIds = g.contentIds
-                if (contentIds.isNotEmpty()) {
-                    g.coverContent.targetId = contentIds[0]
-                    db.insertGroup(g)
+            db.runInTx {
+                for (g in groups) {
+                    val contentIds = g.contentIds
+                    if (contentIds.isNotEmpty()) {
+                        g.coverContent.targetId = contentIds[0]
+                        db.insertGroup(g)
+                    }
+                    emitter(pos++ / max)
                 }
-                emitter(pos++ / max)
             }
             Timber.i("Reattaching group covers : done")
         } finally {
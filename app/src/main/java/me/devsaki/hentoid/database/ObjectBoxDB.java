@@ -15,6 +15,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashSet;
@@ -71,6 +72,7 @@ import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.enums.StorageLocation;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.Helper;
+import me.devsaki.hentoid.util.LongSetHelper;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.RandomSeedSingleton;
 import me.devsaki.hentoid.util.file.ArchiveHelper;
@@ -87,6 +89,9 @@ public class ObjectBoxDB {
 
     private static final long DAY_IN_MILLIS = 1000L * 60 * 60 * 24;
 
+    // Maximum number of books loaded or deleted at once when processing large collections
+    private static final int BATCH_SIZE = 500;
+
     private static ObjectBoxDB instance;
 
     private final BoxStore store;
@@ -221,10 +226,24 @@ public class ObjectBoxDB {
         });
     }
 
+    /**
+     * Run the given task inside a single write transaction
+     * NB : Much faster than letting each operation of the task run its own transaction
+     *
+     * @param task Task to run
+     */
+    void runInTx(@NonNull Runnable task) {
+        store.runInTx(task);
+    }
+
     List<Content> selectContentByStatus(StatusContent status) {
         return selectContentByStatusCodes(new int[]{status.getCode()});
     }
 
+    long[] selectContentIdsByStatus(StatusContent status) {
+        return DBHelper.safeFindIds(store.boxFor(Content.class).query().equal(Content_.status, status.getCode()));
+    }
+
     private List<Content> selectContentByStatusCodes(int[] statusCodes) {
         return DBHelper.safeFind(store.boxFor(Content.class).query().in(Content_.status, statusCodes));
     }
@@ -288,6 +307,41 @@ public class ObjectBoxDB {
         store.boxFor(Content.class).put(contentList);
     }
 
+    /**
+     * Flag the given contents for deletion, loading them by batches
+     * NB : Batches are meant to be updated within a transaction opened by the caller
+     *
+     * @param contentIds IDs of the contents to flag
+     * @param flag       Value of the flag to set
+     */
+    void flagContentsForDeletion(long[] contentIds, boolean flag) {
+        for (int i = 0; i < contentIds.length; i += BATCH_SIZE) {
+            List<Content> contentList = selectContentBatch(contentIds, i);
+            flagContentsForDeletion(contentList, flag);
+        }
+    }
+
+    /**
+     * Mark the given contents as being processed, loading them by batches
+     * NB : Batches are meant to be updated within a transaction opened by the caller
+     *
+     * @param contentIds IDs of the contents to mark
+     * @param flag       Value of the flag to set
+     */
+    void markContentsAsBeingProcessed(long[] contentIds, boolean flag) {
+        for (int i = 0; i < contentIds.length; i += BATCH_SIZE) {
+            List<Content> contentList = selectContentBatch(contentIds, i);
+            markContentsAsBeingProcessed(contentList, flag);
+        }
+    }
+
+    private List<Content> selectContentBatch(long[] contentIds, int from) {
+        List<Content> result = new ArrayList<>();
+        for (Content c : store.boxFor(Content.class).get(Arrays.copyOfRange(contentIds, from, Math.min(from + BATCH_SIZE, contentIds.length))))
+            if (c != null) result.add(c);
+        return result;
+    }
+
     void deleteContentById(long contentId) {
         deleteContentById(new long[]{contentId});
     }
@@ -299,6 +353,12 @@ public class ObjectBoxDB {
      * @param contentId IDs of the contents to be removed from the DB
      */
     void deleteContentById(long[] contentId) {
+        // Batches are deleted one transaction at a time to avoid holding the write lock too long
+        for (int i = 0; i < contentId.length; i += BATCH_SIZE)
+            deleteContentBatchById(Arrays.copyOfRange(contentId, i, Math.min(i + BATCH_SIZE, contentId.length)));
+    }
+
+    private void deleteContentBatchById(long[] contentId) {
         Box<ErrorRecord> errorBox = store.boxFor(ErrorRecord.class);
         Box<ImageFile> imageFileBox = store.boxFor(ImageFile.class);
         Box<Chapter> chapterBox = store.boxFor(Chapter.class);
@@ -306,45 +366,45 @@ public class ObjectBoxDB {
         Box<GroupItem> groupItemBox = store.boxFor(GroupItem.class);
         Box<Group> groupBox = store.boxFor(Group.class);
 
-        for (long id : contentId) {
-            Content c = contentBox.get(id);
-            if (c != null) {
-                store.runInTx(() -> {
-                    if (c.getImageFiles() != null) {
-                        imageFileBox.remove(c.getImageFiles());
-                        c.getImageFiles().clear();                                      // Clear links to all imageFiles
-                    }
+        // Single transaction for the whole batch
+        store.runInTx(() -> {
+            for (long id : contentId) {
+                Content c = contentBox.get(id);
+                if (c == null) continue;
+                if (c.getImageFiles() != null) {
+                    imageFileBox.remove(c.getImageFiles());
+                    c.getImageFiles().clear();                                      // Clear links to all imageFiles
+                }
 
-                    if (c.getChapters() != null) {
-                        chapterBox.remove(c.getChapters());
-                        c.getChapters().clear();                                      // Clear links to all chapters
-                    }
+                if (c.getChapters() != null) {
+                    chapterBox.remove(c.getChapters());
+                    c.getChapters().clear();                                      // Clear links to all chapters
+                }
 
-                    if (c.getErrorLog() != null) {
-                        errorBox.remove(c.getErrorLog());
-                        c.getErrorLog().clear();                                    // Clear links to all errorRecords
-                    }
+                if (c.getErrorLog() != null) {
+                    errorBox.remove(c.getErrorLog());
+                    c.getErrorLog().clear();                                    // Clear links to all errorRecords
+                }
 
-                    // Clear links to all attributes
-                    // NB : Properly removing all attributes here is too costly, especially on large collections
-                    // It's done by calling cleanupOrphanAttributes
-                    c.getAttributes().clear();
-
-                    // Delete corresponding groupItem
-                    List<GroupItem> groupItems = DBHelper.safeFind(groupItemBox.query().equal(GroupItem_.contentId, id));
-                    for (GroupItem groupItem : groupItems) {
-                        // If we're not in the Custom grouping and it's the only item of its group, delete the group
-                        Group g = groupItem.group.getTarget();
-                        if (g != null && !g.grouping.equals(Grouping.CUSTOM) && g.items.size() < 2)
-                            groupBox.remove(g);
-                        // Delete the item
-                        groupItemBox.remove(groupItem);
-                    }
+                // Clear links to all attributes
+                // NB : Properly removing all attributes here is too costly, especially on large collections
+                // It's done by calling cleanupOrphanAttributes
+                c.getAttributes().clear();
+
+                // Delete corresponding groupItem
+                List<GroupItem> groupItems = DBHelper.safeFind(groupItemBox.query().equal(GroupItem_.contentId, id));
+                for (GroupItem groupItem : groupItems) {
+                    // If we're not in the Custom grouping and it's the only item of its group, delete the group
+                    Group g = groupItem.group.getTarget();
+                    if (g != null && !g.grouping.equals(Grouping.CUSTOM) && g.items.size() < 2)
+                        groupBox.remove(g);
+                    // Delete the item
+                    groupItemBox.remove(groupItem);
+                }
 
-                    contentBox.remove(c);                                           // Remove the content itself
-                });
+                contentBox.remove(c);                                           // Remove the content itself
             }
-        }
+        });
     }
 
     /**
@@ -396,10 +456,29 @@ public class ObjectBoxDB {
         }
     }
 
+    long[] selectQueueContentIds() {
+        try (Query<QueueRecord> qrc = store.boxFor(QueueRecord.class).query().build()) {
+            return qrc.property(QueueRecord_.contentId).findLongs();
+        }
+    }
+
     void insertQueue(long contentId, int order) {
         store.boxFor(QueueRecord.class).put(new QueueRecord(contentId, order));
     }
 
+    /**
+     * Add the given contents at the end of the queue, in the given order
+     *
+     * @param contentIds IDs of the contents to add
+     * @param startOrder Order of the first content to add
+     */
+    void insertQueue(long[] contentIds, int startOrder) {
+        List<QueueRecord> records = new ArrayList<>(contentIds.length);
+        int order = startOrder;
+        for (long id : contentIds) records.add(new QueueRecord(id, order++));
+        store.boxFor(QueueRecord.class).put(records);
+    }
+
     void updateQueue(@NonNull final List<QueueRecord> queue) {
         Box<QueueRecord> queueRecordBox = store.boxFor(QueueRecord.class);
         queueRecordBox.put(queue);
@@ -492,23 +571,13 @@ public class ObjectBoxDB {
 
             // Find all content positively matching the given attributes
             // TODO... but the attrs are already negative ^^"
+            // Extract their sites directly from the DB without loading the whole content
             QueryBuilder<Content> query = store.boxFor(Content.class).query();
             query.in(Content_.status, libraryStatus);
             query.in(Content_.id, filteredBooks);
-            List<Content> content = DBHelper.safeFind(query);
-
-            // Extract sites from them
-            Map<Site, List<Content>> contentPerSite = Stream.of(content).collect(Collectors.groupingBy(Content::getSite));
-            Set<Long> filteredSiteCodes = new HashSet<>();
-            if (contentPerSite != null) {
-                for (Map.Entry<Site, List<Content>> entry : contentPerSite.entrySet()) {
-                    Site site = entry.getKey();
-                    filteredSiteCodes.add((long) site.getCode());
-                }
+            try (Query<Content> q = query.build()) {
+                return LongSetHelper.fromArray(q.property(Content_.site).findLongs());
             }
-            List<Long> result = new ArrayList<>(filteredSiteCodes);
-
-            return Helper.getPrimitiveArrayFromList(result);
         } else {
             long[] result = new long[attrs.size()];
             if (!attrs.isEmpty()) {
@@ -910,46 +979,46 @@ public class ObjectBoxDB {
 
         // Prepare first iteration for exclusion mode
         // If first tag is to be excluded, start with the whole database and _remove_ IDs (inverse logic)
-        List<Long> idsFull = Collections.emptyList();
+        long[] idsFull = new long[0];
         if (!attrs.isEmpty() && attrs.get(0).isExcluded()) {
             final QueryBuilder<Content> contentFromAttributesQueryBuilder1 = store.boxFor(Content.class).query();
             contentFromAttributesQueryBuilder1.in(Content_.status, libraryStatus);
-            idsFull = Helper.getListFromPrimitiveArray(DBHelper.safeFindIds(contentFromAttributesQueryBuilder1));
+            idsFull = LongSetHelper.fromArray(DBHelper.safeFindIds(contentFromAttributesQueryBuilder1));
         }
 
         // Cumulative query loop
         // Each iteration restricts the results of the next because advanced search uses an AND logic
-        List<Long> results = Collections.emptyList();
+        // NB : IDs are handled as sorted sets to keep each step linear
+        long[] results = new long[0];
         long[] ids;
         try {
+            boolean first = true;
             for (Attribute attr : attrs) {
                 if (attr.getType().equals(AttributeType.SOURCE)) {
                     ids = contentFromSourceQuery.setParameter(Content_.site, attr.getId()).findIds();
                 } else {
                     ids = contentFromAttributesQuery.setParameter(Attribute_.type, attr.getType().getCode()).setParameter(Attribute_.name, attr.getName()).findIds();
                 }
-                if (results.isEmpty()) { // First iteration
-                    results = Helper.getListFromPrimitiveArray(ids);
-
+                ids = LongSetHelper.fromArray(ids);
+                if (first) { // First iteration
                     // If first tag is to be excluded, start trimming results
-                    if (attr.isExcluded()) {
-                        idsFull.removeAll(results);
-                        results = idsFull;
-                    }
+                    results = attr.isExcluded() ? LongSetHelper.subtract(idsFull, ids) : ids;
+                    first = false;
                 } else {
                     // Filter results with newly found IDs (only common IDs should stay)
-                    List<Long> idsAsList = Helper.getListFromPrimitiveArray(ids);
                     // Remove ids that fit the attribute from results
-                    if (attr.isExcluded()) results.removeAll(idsAsList);
-                    else results.retainAll(idsAsList); // Careful with retainAll performance
+                    if (attr.isExcluded()) results = LongSetHelper.subtract(results, ids);
+                    else results = LongSetHelper.intersect(results, ids);
                 }
+                // No need to go further; AND logic won't bring anything back
+                if (0 == results.length) break;
             }
         } finally {
             if (!useCachedAttrQuery) contentFromAttributesQuery.close();
             if (!useCachedSourceQuery) contentFromSourceQuery.close();
         }
 
-        return Helper.getPrimitiveArrayFromList(results);
+        return results;
     }
 
     private void filterWithPageFavs(QueryBuilder<Content> builder) {
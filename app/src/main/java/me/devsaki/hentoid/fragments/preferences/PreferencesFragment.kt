@@ -115,6 +115,9 @@ class PreferencesFragment : PreferenceFragmentCompat(),
 
             Preferences.Key.EXTERNAL_LIBRARY_URI -> onExternalFolderChanged()
             Preferences.Key.BROWSER_DNS_OVER_HTTPS -> onDoHChanged()
+            Preferences.Key.DL_SPEED_CAP -> DownloadSpeedLimiter.setSpeedLimitKbps(
+                DownloadSpeedLimiter.prefsSpeedCapToKbps(Preferences.getDlSpeedCap())
+            )
         }
     }
 
@@ -140,11 +143,6 @@ class PreferencesFragment : PreferenceFragmentCompat(),
                 true
             }
 
-            Preferences.Key.DL_SPEED_CAP -> {
-                DownloadSpeedLimiter.setSpeedLimitKbps(Preferences.getDlSpeedCap())
-                true
-            }
-
             Preferences.Key.BROWSER_CLEAR_COOKIES -> {
                 onClearCookies()
                 true
@@ -0,0 +1,116 @@
+package me.devsaki.hentoid.parsers.images;
+
+import static me.devsaki.hentoid.util.network.HttpHelper.getOnlineDocument;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.Pair;
+
+import org.jsoup.nodes.Document;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.devsaki.hentoid.enums.Site;
+
+/**
+ * Fetches a list of online documents (e.g. gallery index pages, chapter pages) using concurrent requests,
+ * and hands them over one by one in the order of the list, as soon as each of them is available
+ * <p>
+ * The number of concurrent requests is capped by the parallel download cap of the site;
+ * requests are spaced out according to its requests cap per second
+ */
+final class DocumentFetcher {
+
+    // Maximum number of concurrent requests when the site doesn't define any cap
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    interface HaltSignal {
+        boolean isHalted();
+    }
+
+    interface DocumentHandler {
+        /**
+         * Process the document at the given index
+         *
+         * @param index Index of the document inside the list of URLs to fetch
+         * @param doc   Fetched document; null if the server returned no content
+         */
+        void onDocument(int index, @Nullable Document doc) throws IOException;
+    }
+
+    private DocumentFetcher() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Fetch the documents at the given URLs
+     *
+     * @param urls    URLs of the documents to fetch
+     * @param headers Headers to use when fetching documents
+     * @param site    Site the documents belong to
+     * @param halt    Signal to stop fetching documents
+     * @param handler Handler to call for each fetched document, in the order of the given URLs
+     * @throws IOException If any document couldn't be fetched; documents following it aren't handed over
+     */
+    static void fetch(
+            @NonNull List<String> urls,
+            @NonNull List<Pair<String, String>> headers,
+            @NonNull Site site,
+            @NonNull HaltSignal halt,
+            @NonNull DocumentHandler handler) throws IOException {
+        if (urls.isEmpty()) return;
+
+        int maxConcurrentRequests = (site.getParallelDownloadCap() > 0) ? site.getParallelDownloadCap() : DEFAULT_MAX_CONCURRENT_REQUESTS;
+        maxConcurrentRequests = Math.min(maxConcurrentRequests, urls.size());
+        long minRequestIntervalMs = (site.getRequestsCapPerSecond() > 0) ? 1000L / site.getRequestsCapPerSecond() : 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentRequests);
+        Deque<Future<Document>> requests = new ArrayDeque<>();
+        try {
+            int nextRequestIndex = 0;
+            long lastRequestTime = 0;
+            for (int i = 0; i < urls.size(); i++) {
+                // Keep as many requests in flight as allowed, starting from the document to hand over
+                while (nextRequestIndex < urls.size() && nextRequestIndex < i + maxConcurrentRequests && !halt.isHalted()) {
+                    if (minRequestIntervalMs > 0) {
+                        long waitMs = lastRequestTime + minRequestIntervalMs - System.currentTimeMillis();
+                        if (waitMs > 0) Thread.sleep(waitMs);
+                        lastRequestTime = System.currentTimeMillis();
+                    }
+                    String url = urls.get(nextRequestIndex++);
+                    requests.add(executor.submit(() -> getOnlineDocument(url, headers, site.useHentoidAgent(), site.useWebviewAgent())));
+                }
+                if (halt.isHalted()) return;
+
+                Future<Document> request = requests.poll();
+                if (null == request) return;
+                handler.onDocument(i, getDocument(request));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching documents");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Nullable
+    private static Document getDocument(@NonNull Future<Document> request) throws IOException, InterruptedException {
+        try {
+            return request.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+}
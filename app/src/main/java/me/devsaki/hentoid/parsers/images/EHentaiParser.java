@@ -97,6 +97,15 @@ public class EHentaiParser implements ImageListParser {
     }
 
     public List<ImageFile> parseImageList(@NonNull Content content) throws Exception {
+        return parseImageListImpl(content, null);
+    }
+
+    @Override
+    public List<ImageFile> parseImageList(@NonNull Content content, @NonNull PageListener listener) throws Exception {
+        return parseImageListImpl(content, listener);
+    }
+
+    private List<ImageFile> parseImageListImpl(@NonNull Content content, @Nullable PageListener listener) throws Exception {
         EventBus.getDefault().register(this);
 
         List<ImageFile> result = Collections.emptyList();
@@ -136,10 +145,10 @@ public class EHentaiParser implements ImageListParser {
                     try {
                         result = loadMpv(mpvUrl, headers, useHentoidAgent, useWebviewAgent, progress);
                     } catch (EmptyResultException e) {
-                        result = loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent, progress);
+                        result = loadClassic(content, galleryDoc, headers, progress, listener);
                     }
                 } else {
-                    result = loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent, progress);
+                    result = loadClassic(content, galleryDoc, headers, progress, listener);
                 }
             }
             progress.complete();
@@ -207,10 +216,14 @@ public class EHentaiParser implements ImageListParser {
             @NonNull Content content,
             @NonNull final Document galleryDoc,
             @NonNull final List<Pair<String, String>> headers,
-            boolean useHentoidAgent,
-            boolean useWebviewAgent,
-            @NonNull ParseProgress progress) throws IOException {
+            @NonNull ParseProgress progress,
+            @Nullable PageListener pageListener) throws IOException {
         List<ImageFile> result = new ArrayList<>();
+        // Pages are handed over before all of them are known
+        // => only do that when the gallery announces its number of pages, so that their names are padded
+        // the same way as when the complete list is returned
+        int nbPages = content.getQtyPages();
+        PageListener listener = (nbPages > 0) ? pageListener : null;
 
         // A.1- Detect the number of pages of the gallery
         Elements elements = galleryDoc.select("table.ptt a");
@@ -223,15 +236,21 @@ public class EHentaiParser implements ImageListParser {
 
         // 2- Browse the gallery and fetch the URL for every page (since all of them have a different temporary key...)
         List<String> pageUrls = new ArrayList<>();
+        List<ImageFile> pages = new ArrayList<>();
 
         fetchPageUrls(galleryDoc, pageUrls);
+        if (listener != null) addPages(pageUrls, pages, nbPages, listener);
 
         if (nbGalleryPages > 1) {
-            for (int i = 1; i < nbGalleryPages && !progress.isProcessHalted(); i++) {
-                Document pageDoc = getOnlineDocument(content.getGalleryUrl() + "/?p=" + i, headers, useHentoidAgent, useWebviewAgent);
+            List<String> galleryPageUrls = new ArrayList<>();
+            for (int i = 1; i < nbGalleryPages; i++)
+                galleryPageUrls.add(content.getGalleryUrl() + "/?p=" + i);
+            // Gallery pages are requested concurrently, but processed in order
+            DocumentFetcher.fetch(galleryPageUrls, headers, content.getSite(), progress::isProcessHalted, (index, pageDoc) -> {
                 if (pageDoc != null) fetchPageUrls(pageDoc, pageUrls);
+                if (listener != null) addPages(pageUrls, pages, nbPages, listener);
                 progress.advance();
-            }
+            });
         }
 
         // 3- Open all pages and
@@ -239,14 +258,32 @@ public class EHentaiParser implements ImageListParser {
         //    - grab the alternate URL of the "Click here if the image fails loading" link
         result.add(ImageFile.newCover(content.getCoverImageUrl(), StatusContent.SAVED));
 
-        int order = 1;
-        for (String pageUrl : pageUrls) {
-            result.add(ImageFile.fromPageUrl(order++, pageUrl, StatusContent.SAVED, pageUrls.size()));
-        }
+        if (null == listener) addPages(pageUrls, pages, pageUrls.size(), null);
+        result.addAll(pages);
 
         return result;
     }
 
+    /**
+     * Create the pages of the given page URLs that haven't been created yet
+     *
+     * @param pageUrls URLs of all the pages found so far
+     * @param pages    Pages created so far; new pages are added to it
+     * @param maxPages Maximum number of pages of the book
+     * @param listener Listener to notify of the new pages; null if none
+     */
+    private static void addPages(
+            @NonNull List<String> pageUrls,
+            @NonNull List<ImageFile> pages,
+            int maxPages,
+            @Nullable PageListener listener) {
+        List<ImageFile> newPages = new ArrayList<>();
+        for (int i = pages.size(); i < pageUrls.size(); i++)
+            newPages.add(ImageFile.fromPageUrl(i + 1, pageUrls.get(i), StatusContent.SAVED, maxPages));
+        pages.addAll(newPages);
+        if (listener != null && !newPages.isEmpty()) listener.onPagesParsed(newPages);
+    }
+
     static void fetchPageUrls(@Nonnull Document doc, List<String> pageUrls) {
         Elements imageLinks = doc.select(".gdtm a"); // Normal thumbs
         if (imageLinks.isEmpty())
@@ -109,10 +109,12 @@ public class EdoujinParser extends BaseImageListParser {
         int imgOffset = ParseHelper.getMaxImageOrder(storedChapters);
 
         // 2. Open each chapter URL and get the image data until all images are found
-        for (Chapter chp : extraChapters) {
-            doc = getOnlineDocument(chp.getUrl(), headers, Site.EDOUJIN.useHentoidAgent(), Site.EDOUJIN.useWebviewAgent());
-            if (doc != null) {
-                List<Element> scripts = doc.select("script");
+        // Chapters are requested concurrently, but processed in order
+        List<String> chapterUrls = Stream.of(extraChapters).map(Chapter::getUrl).toList();
+        DocumentFetcher.fetch(chapterUrls, headers, Site.EDOUJIN, processHalted::get, (index, chapterDoc) -> {
+            Chapter chp = extraChapters.get(index);
+            if (chapterDoc != null) {
+                List<Element> scripts = chapterDoc.select("script");
                 EdoujinInfo info = getDataFromScripts(scripts);
                 if (info != null) {
                     List<String> imageUrls = info.getImages();
@@ -123,9 +125,8 @@ public class EdoujinParser extends BaseImageListParser {
             } else {
                 Timber.i("Chapter parsing failed for %s : no response", chp.getUrl());
             }
-            if (processHalted.get()) break;
-            progressPlus();
-        }
+            if (!processHalted.get()) progressPlus();
+        });
         // If the process has been halted manually, the result is incomplete and should not be returned as is
         if (processHalted.get()) throw new PreparationInterruptedException();
 
@@ -44,6 +44,15 @@ public class ExHentaiParser implements ImageListParser {
     }
 
     public List<ImageFile> parseImageList(@NonNull Content content) throws Exception {
+        return parseImageListImpl(content, null);
+    }
+
+    @Override
+    public List<ImageFile> parseImageList(@NonNull Content content, @NonNull PageListener listener) throws Exception {
+        return parseImageListImpl(content, listener);
+    }
+
+    private List<ImageFile> parseImageListImpl(@NonNull Content content, @Nullable PageListener listener) throws Exception {
         EventBus.getDefault().register(this);
 
         List<ImageFile> result = Collections.emptyList();
@@ -80,10 +89,10 @@ public class ExHentaiParser implements ImageListParser {
                     try {
                         result = EHentaiParser.loadMpv(mpvUrl, headers, useHentoidAgent, useWebviewAgent, progress);
                     } catch (EmptyResultException e) {
-                        result = EHentaiParser.loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent, progress);
+                        result = EHentaiParser.loadClassic(content, galleryDoc, headers, progress, listener);
                     }
                 } else {
-                    result = EHentaiParser.loadClassic(content, galleryDoc, headers, useHentoidAgent, useWebviewAgent, progress);
+                    result = EHentaiParser.loadClassic(content, galleryDoc, headers, progress, listener);
                 }
             }
             progress.complete();
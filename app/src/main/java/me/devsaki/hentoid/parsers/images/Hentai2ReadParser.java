@@ -99,10 +99,12 @@ public class Hentai2ReadParser extends BaseImageListParser {
         int imgOffset = ParseHelper.getMaxImageOrder(storedChapters);
 
         // 2. Open each chapter URL and get the image data until all images are found
-        for (Chapter chp : extraChapters) {
-            doc = getOnlineDocument(chp.getUrl(), headers, Site.HENTAI2READ.useHentoidAgent(), Site.HENTAI2READ.useWebviewAgent());
-            if (doc != null) {
-                List<Element> scripts = doc.select("script");
+        // Chapters are requested concurrently, but processed in order
+        List<String> chapterUrls = Stream.of(extraChapters).map(Chapter::getUrl).toList();
+        DocumentFetcher.fetch(chapterUrls, headers, Site.HENTAI2READ, processHalted::get, (index, chapterDoc) -> {
+            Chapter chp = extraChapters.get(index);
+            if (chapterDoc != null) {
+                List<Element> scripts = chapterDoc.select("script");
                 H2RInfo info = getDataFromScripts(scripts);
                 if (info != null) {
                     List<String> imageUrls = Stream.of(info.images).map(s -> IMAGE_PATH + s).toList();
@@ -113,9 +115,8 @@ public class Hentai2ReadParser extends BaseImageListParser {
             } else {
                 Timber.i("Chapter parsing failed for %s : no response", chp.getUrl());
             }
-            if (processHalted.get()) break;
-            progressPlus();
-        }
+            if (!processHalted.get()) progressPlus();
+        });
         // If the process has been halted manually, the result is incomplete and should not be returned as is
         if (processHalted.get()) throw new PreparationInterruptedException();
 
@@ -18,8 +18,32 @@ import me.devsaki.hentoid.util.exception.EmptyResultException;
 import me.devsaki.hentoid.util.exception.LimitReachedException;
 
 public interface ImageListParser {
+
+    /**
+     * Listener notified of the pages of a book as soon as they are parsed
+     */
+    interface PageListener {
+        /**
+         * @param images Pages that have just been parsed; they are part of the final list of pages too
+         */
+        void onPagesParsed(@NonNull List<ImageFile> images);
+    }
+
     List<ImageFile> parseImageList(@NonNull Content content) throws Exception;
 
+    /**
+     * Parse the pages of the given book, notifying the given listener as soon as pages are parsed
+     * NB : The returned list contains all pages, including those the listener has been notified of.
+     * Parsers that can't parse pages incrementally don't notify the listener at all.
+     *
+     * @param content  Book to parse the pages of
+     * @param listener Listener to notify of parsed pages
+     * @return All pages of the given book
+     */
+    default List<ImageFile> parseImageList(@NonNull Content content, @NonNull PageListener listener) throws Exception {
+        return parseImageList(content);
+    }
+
     List<ImageFile> parseImageList(@NonNull Content onlineContent, @NonNull Content storedContent) throws Exception;
 
     ImmutablePair<String, Optional<String>> parseImagePage(@NonNull String url, @NonNull List<Pair<String, String>> requestHeaders) throws IOException, LimitReachedException, EmptyResultException;
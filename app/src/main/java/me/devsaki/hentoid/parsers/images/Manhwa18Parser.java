@@ -93,9 +93,13 @@ public class Manhwa18Parser extends BaseImageListParser {
         for (Chapter chp : extraChapters) {
             chp.setOrder(++storedOrderOffset);
             if (chp.getUploadDate() > 0) minEpoch = Math.min(minEpoch, chp.getUploadDate());
-            doc = getOnlineDocument(chp.getUrl(), headers, Site.MANHWA18.useHentoidAgent(), Site.MANHWA18.useWebviewAgent());
-            if (doc != null) {
-                List<Element> images = doc.select("#chapter-content img");
+        }
+        // Chapters are requested concurrently, but processed in order
+        List<String> chapterUrls = Stream.of(extraChapters).map(Chapter::getUrl).toList();
+        DocumentFetcher.fetch(chapterUrls, headers, Site.MANHWA18, processHalted::get, (index, chapterDoc) -> {
+            Chapter chp = extraChapters.get(index);
+            if (chapterDoc != null) {
+                List<Element> images = chapterDoc.select("#chapter-content img");
                 List<String> imageUrls = Stream.of(images).map(ParseHelper::getImgSrc).toList();
                 if (!imageUrls.isEmpty())
                     result.addAll(ParseHelper.urlsToImageFiles(imageUrls, imgOffset + result.size() + 1, StatusContent.SAVED, 1000, chp));
@@ -104,9 +108,8 @@ public class Manhwa18Parser extends BaseImageListParser {
             } else {
                 Timber.i("Chapter parsing failed for %s : no response", chp.getUrl());
             }
-            if (processHalted.get()) break;
-            progressPlus();
-        }
+            if (!processHalted.get()) progressPlus();
+        });
         // If the process has been halted manually, the result is incomplete and should not be returned as is
         if (processHalted.get()) throw new PreparationInterruptedException();
 
@@ -111,12 +111,14 @@ public class ManhwaParser extends BaseImageListParser {
         int imgOffset = ParseHelper.getMaxImageOrder(storedChapters);
 
         // 2- Open each chapter URL and get the image data until all images are found
+        // Chapters are requested concurrently, but processed in order
         int storedOrderOffset = ParseHelper.getMaxChapterOrder(storedChapters);
-        for (Chapter chp : extraChapters) {
-            chp.setOrder(++storedOrderOffset);
-            doc = getOnlineDocument(chp.getUrl(), headers, Site.MANHWA.useHentoidAgent(), Site.MANHWA.useWebviewAgent());
-            if (doc != null) {
-                List<Element> images = doc.select(".reading-content img");
+        List<String> chapterUrls = Stream.of(extraChapters).map(Chapter::getUrl).toList();
+        DocumentFetcher.fetch(chapterUrls, headers, Site.MANHWA, processHalted::get, (index, chapterDoc) -> {
+            Chapter chp = extraChapters.get(index);
+            chp.setOrder(storedOrderOffset + index + 1);
+            if (chapterDoc != null) {
+                List<Element> images = chapterDoc.select(".reading-content img");
                 List<String> urls = new ArrayList<>();
                 for (Element e : images) {
                     String url = ParseHelper.getImgSrc(e);
@@ -129,9 +131,8 @@ public class ManhwaParser extends BaseImageListParser {
             } else {
                 Timber.w("Chapter parsing failed for %s : no response", chp.getUrl());
             }
-            if (processHalted.get()) break;
-            progressPlus();
-        }
+            if (!processHalted.get()) progressPlus();
+        });
         // If the process has been halted manually, the result is incomplete and should not be returned as is
         if (processHalted.get()) throw new PreparationInterruptedException();
 
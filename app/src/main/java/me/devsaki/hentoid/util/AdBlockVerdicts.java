@@ -0,0 +1,148 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Verdicts of the adblocker's inspection of grey-listed files, persisted across app launches
+ * <p>
+ * Verdicts are stored in a journal file, one line per verdict : "B|A timestamp key"
+ * (B = blocked; A = allowed); the latest line of a given key wins.
+ * The journal is compacted when it contains too many outdated lines.
+ */
+class AdBlockVerdicts {
+
+    // Minimum number of outdated journal lines before the journal is compacted
+    private static final int JOURNAL_COMPACT_THRESHOLD = 500;
+
+    static class Verdict {
+        final boolean isBlocked;
+        final long timestamp;
+
+        Verdict(boolean isBlocked, long timestamp) {
+            this.isBlocked = isBlocked;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final File journalFile;
+    private final long ttlMs;
+    // Entries are ordered from oldest to newest
+    private final Map<Long, Verdict> verdicts;
+
+    private boolean isLoaded = false;
+    private int journalLines = 0;
+
+
+    /**
+     * @param journalFile File to persist the verdicts to
+     * @param ttlMs       Time after which verdicts are considered outdated, in milliseconds
+     * @param maxEntries  Maximum number of verdicts to keep; the oldest ones are forgotten first
+     */
+    AdBlockVerdicts(@NonNull File journalFile, long ttlMs, int maxEntries) {
+        this.journalFile = journalFile;
+        this.ttlMs = ttlMs;
+        verdicts = new MaxSizeHashMap<>(maxEntries);
+    }
+
+    /**
+     * Get the verdict of the given key
+     *
+     * @param key Key to get the verdict for
+     * @return Verdict of the given key; null if none
+     */
+    @Nullable
+    synchronized Verdict get(long key) {
+        load();
+        return verdicts.get(key);
+    }
+
+    /**
+     * Indicate whether the given verdict is outdated and should be renewed
+     *
+     * @param verdict Verdict to test
+     * @return True if the given verdict is outdated
+     */
+    boolean isOutdated(@NonNull Verdict verdict) {
+        return System.currentTimeMillis() - verdict.timestamp > ttlMs;
+    }
+
+    /**
+     * Set the verdict of the given key
+     *
+     * @param key       Key to set the verdict for
+     * @param isBlocked True if the corresponding file is blocked; false if it's allowed
+     */
+    synchronized void put(long key, boolean isBlocked) {
+        put(key, isBlocked, System.currentTimeMillis());
+    }
+
+    synchronized void put(long key, boolean isBlocked, long timestamp) {
+        load();
+        // Re-insert to keep entries ordered by age
+        verdicts.remove(key);
+        verdicts.put(key, new Verdict(isBlocked, timestamp));
+        if (journalLines - verdicts.size() > JOURNAL_COMPACT_THRESHOLD) {
+            rewriteJournal();
+        } else {
+            try (Writer writer = new BufferedWriter(new FileWriter(journalFile, true))) {
+                writer.write(formatLine(key, isBlocked, timestamp));
+                journalLines++;
+            } catch (IOException e) {
+                Timber.w(e);
+            }
+        }
+    }
+
+    private void load() {
+        if (isLoaded) return;
+        isLoaded = true;
+        if (!journalFile.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journalLines++;
+                String[] parts = line.split(" ");
+                if (parts.length != 3) continue;
+                try {
+                    long timestamp = Long.parseLong(parts[1]);
+                    long key = Long.parseLong(parts[2]);
+                    verdicts.remove(key);
+                    verdicts.put(key, new Verdict(parts[0].equals("B"), timestamp));
+                } catch (NumberFormatException e) {
+                    // Corrupted line; ignore it
+                }
+            }
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+    }
+
+    private void rewriteJournal() {
+        File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(tmpFile))) {
+            for (Map.Entry<Long, Verdict> entry : verdicts.entrySet())
+                writer.write(formatLine(entry.getKey(), entry.getValue().isBlocked, entry.getValue().timestamp));
+        } catch (IOException e) {
+            Timber.w(e);
+            return;
+        }
+        if (tmpFile.renameTo(journalFile)) journalLines = verdicts.size();
+        else Timber.w("Couldn't replace %s", journalFile.getAbsolutePath());
+    }
+
+    private static String formatLine(long key, boolean isBlocked, long timestamp) {
+        return (isBlocked ? "B " : "A ") + timestamp + " " + key + "\n";
+    }
+}
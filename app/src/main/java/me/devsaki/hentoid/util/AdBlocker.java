@@ -1,21 +1,28 @@
 package me.devsaki.hentoid.util;
 
 import android.os.Looper;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.util.Pair;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
+import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.BuildConfig;
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.core.HentoidApp;
@@ -28,24 +35,78 @@ import timber.log.Timber;
 public class AdBlocker {
     private final Site site;
 
+    // Time after which grey file verdicts are renewed
+    private static final long GREY_FILE_VERDICT_TTL_MS = 3 * 24 * 60 * 60 * 1000L;
+
+    // Backreferences can't be used once patterns are combined into a single one
+    private static final Pattern BACKREFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+
     // List of blocked URLs (ads or annoying images) -- will be replaced by a blank stream
     // Universal lists (applied to all sites)
-    private static final Set<String> universalUrlBlacklist = new HashSet<>();
-    private static final Set<String> universalUrlWhitelist = new HashSet<>();
+    private static final SubstringMatcher universalUrlBlacklist;
+    private static final SubstringMatcher universalUrlWhitelist;
     // Local lists (applied to current site)
-    private final Set<String> localUrlBlacklist = Collections.synchronizedSet(new HashSet<>());
-    private final Set<String> localUrlWhitelist = Collections.synchronizedSet(new HashSet<>());
-    private final Set<Pattern> jsUrlPatternWhitelist = Collections.synchronizedSet(new HashSet<>());
-    private final Set<String> jsContentBlacklist = Collections.synchronizedSet(new HashSet<>());
+    // NB : Lists are compiled into matchers each time they are modified, for the matchers to be used without locking
+    private final Set<String> localUrlBlacklist = new HashSet<>();
+    private final Set<String> localUrlWhitelist = new HashSet<>();
+    private final Set<String> jsUrlPatternWhitelist = new HashSet<>();
+    private volatile SubstringMatcher localUrlBlacklistMatcher = SubstringMatcher.EMPTY;
+    private volatile SubstringMatcher localUrlWhitelistMatcher = SubstringMatcher.EMPTY;
+    private volatile JsUrlPatterns jsUrlPatternWhitelistMatcher = new JsUrlPatterns(Collections.emptyList());
+    private final Set<String> jsContentBlacklist = new HashSet<>();
+    private volatile SubstringMatcher jsContentBlacklistMatcher = SubstringMatcher.EMPTY;
+    // Hash of the contents of jsContentBlacklist, for verdicts to be invalidated when it changes
+    private volatile long jsContentBlacklistSignature = 0;
+    // Cleaned-up URLs of the grey files that have been inspected and allowed; matched exactly
+    private final Set<String> allowedGreyFileUrls = ConcurrentHashMap.newKeySet();
 
-    private final Set<String> jsBlacklistCache = Collections.synchronizedSet(new HashSet<>());
+    // Verdicts of the inspection of grey files, shared by all sites
+    private static final AdBlockVerdicts greyFileVerdicts = new AdBlockVerdicts(
+            new File(HentoidApp.Companion.getInstance().getCacheDir(), "adblock_verdicts"),
+            GREY_FILE_VERDICT_TTL_MS,
+            5000);
+    // Keys of the verdicts being renewed
+    private final Set<Long> pendingInspections = Collections.synchronizedSet(new HashSet<>());
 
 
     static {
         String[] appUrlBlacklist = HentoidApp.Companion.getInstance().getResources().getStringArray(R.array.blocked_domains);
-        universalUrlBlacklist.addAll(Arrays.asList(appUrlBlacklist));
+        universalUrlBlacklist = new SubstringMatcher(Arrays.asList(appUrlBlacklist));
         String[] appUrlWhitelist = HentoidApp.Companion.getInstance().getResources().getStringArray(R.array.allowed_domains);
-        universalUrlWhitelist.addAll(Arrays.asList(appUrlWhitelist));
+        universalUrlWhitelist = new SubstringMatcher(Arrays.asList(appUrlWhitelist));
+    }
+
+    /**
+     * Javascript files URL whitelist, compiled into as few patterns as possible
+     */
+    private static class JsUrlPatterns {
+        // All patterns that can be combined, as a single pattern; null if none
+        private final Pattern combined;
+        // Patterns that can't be combined
+        private final Pattern[] others;
+        private final int size;
+
+        JsUrlPatterns(@NonNull Collection<String> patterns) {
+            StringBuilder sb = new StringBuilder();
+            List<Pattern> otherList = new ArrayList<>();
+            for (String p : patterns) {
+                if (BACKREFERENCE.matcher(p).find()) {
+                    otherList.add(Pattern.compile(p));
+                } else {
+                    if (sb.length() > 0) sb.append('|');
+                    sb.append("(?:").append(p).append(')');
+                }
+            }
+            combined = (sb.length() > 0) ? Pattern.compile(sb.toString()) : null;
+            others = otherList.toArray(new Pattern[0]);
+            size = patterns.size();
+        }
+
+        boolean matches(@NonNull String url) {
+            if (combined != null && combined.matcher(url).find()) return true;
+            for (Pattern p : others) if (p.matcher(url).find()) return true;
+            return false;
+        }
     }
 
 
@@ -61,20 +122,14 @@ public class AdBlocker {
      */
     private boolean isUrlBlacklisted(@NonNull String url) {
         // First search into the local list...
-        synchronized (localUrlBlacklist) {
-            for (String s : localUrlBlacklist) {
-                if (url.contains(s)) {
-                    if (BuildConfig.DEBUG) Timber.v("Blacklisted URL blocked (local) : %s", url);
-                    return true;
-                }
-            }
+        if (localUrlBlacklistMatcher.matches(url)) {
+            if (BuildConfig.DEBUG) Timber.v("Blacklisted URL blocked (local) : %s", url);
+            return true;
         }
         // ...then into the universal list
-        for (String s : universalUrlBlacklist) {
-            if (url.contains(s)) {
-                if (BuildConfig.DEBUG) Timber.v("Blacklisted URL blocked (global) : %s", url);
-                return true;
-            }
+        if (universalUrlBlacklist.matches(url)) {
+            if (BuildConfig.DEBUG) Timber.v("Blacklisted URL blocked (global) : %s", url);
+            return true;
         }
         return false;
     }
@@ -86,31 +141,25 @@ public class AdBlocker {
      * @return True if URL is whitelisted according to current filters; false if not
      */
     private boolean isUrlWhitelisted(@NonNull String url) {
-        // First search into the local simple list...
-        synchronized (localUrlWhitelist) {
-            for (String s : localUrlWhitelist) {
-                if (url.contains(s)) {
-                    if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (local) : %s", url);
-                    return true;
-                }
-            }
+        // First look for the exact URL among the inspected grey files...
+        if (allowedGreyFileUrls.contains(url)) {
+            if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (inspected) : %s", url);
+            return true;
+        }
+        // ...then search into the local simple list...
+        if (localUrlWhitelistMatcher.matches(url)) {
+            if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (local) : %s", url);
+            return true;
         }
         // ...then into the global simple list...
-        for (String s : universalUrlWhitelist) {
-            if (url.contains(s)) {
-                if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (global) : %s", url);
-                return true;
-            }
+        if (universalUrlWhitelist.matches(url)) {
+            if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (global) : %s", url);
+            return true;
         }
         // ...then into the js pattern list (more costly)
-        synchronized (jsUrlPatternWhitelist) {
-            for (Pattern p : jsUrlPatternWhitelist) {
-                Matcher matcher = p.matcher(url);
-                if (matcher.find()) {
-                    if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (pattern) : %s", url);
-                    return true;
-                }
-            }
+        if (jsUrlPatternWhitelistMatcher.matches(url)) {
+            if (BuildConfig.DEBUG) Timber.v("Whitelisted URL (pattern) : %s", url);
+            return true;
         }
         return false;
     }
@@ -121,7 +170,10 @@ public class AdBlocker {
      * @param filter Filter to addAll to local blacklist
      */
     public void addToUrlBlacklist(String... filter) {
-        Collections.addAll(localUrlBlacklist, filter);
+        synchronized (localUrlBlacklist) {
+            if (Collections.addAll(localUrlBlacklist, filter))
+                localUrlBlacklistMatcher = new SubstringMatcher(localUrlBlacklist);
+        }
     }
 
     /**
@@ -130,7 +182,10 @@ public class AdBlocker {
      * @param filter Filter to addAll to local whitelist
      */
     public void addToJsUrlWhitelist(String... filter) {
-        Collections.addAll(localUrlWhitelist, filter);
+        synchronized (localUrlWhitelist) {
+            if (Collections.addAll(localUrlWhitelist, filter))
+                localUrlWhitelistMatcher = new SubstringMatcher(localUrlWhitelist);
+        }
     }
 
     /**
@@ -139,7 +194,11 @@ public class AdBlocker {
      * @param pattern Pattern to add
      */
     public void addJsUrlPatternWhitelist(@NonNull final String pattern) {
-        jsUrlPatternWhitelist.add(Pattern.compile(pattern));
+        Pattern.compile(pattern); // Fail fast on invalid patterns
+        synchronized (jsUrlPatternWhitelist) {
+            if (jsUrlPatternWhitelist.add(pattern))
+                jsUrlPatternWhitelistMatcher = new JsUrlPatterns(jsUrlPatternWhitelist);
+        }
     }
 
     /**
@@ -148,7 +207,14 @@ public class AdBlocker {
      * @param sequence Sequence to add to the Javascript content blacklist
      */
     public void addJsContentBlacklist(@NonNull final String sequence) {
-        jsContentBlacklist.add(sequence);
+        synchronized (jsContentBlacklist) {
+            if (jsContentBlacklist.add(sequence.toLowerCase(Locale.ROOT))) {
+                jsContentBlacklistMatcher = new SubstringMatcher(jsContentBlacklist);
+                List<String> sorted = new ArrayList<>(jsContentBlacklist);
+                Collections.sort(sorted);
+                jsContentBlacklistSignature = Helper.hash64(TextUtils.join("\n", sorted).getBytes(StandardCharsets.UTF_8));
+            }
+        }
     }
 
     /**
@@ -164,13 +230,8 @@ public class AdBlocker {
         // 1- Accept whitelisted JS files
         if (isUrlWhitelisted(cleanUrl)) return false;
 
-        // 2- Process usual blacklist and cached dynamic blacklist
+        // 2- Process usual blacklist
         if (isUrlBlacklisted(cleanUrl)) return true;
-        if (jsBlacklistCache.contains(cleanUrl)) {
-            if (BuildConfig.DEBUG)
-                Timber.v("Blacklisted file BLOCKED (jsBlacklistCache) : %s", cleanUrl);
-            return true;
-        }
 
         // 3- Accept non-JS files that are not blacklisted
         String extension = HttpHelper.getExtensionFromUri(cleanUrl);
@@ -178,48 +239,82 @@ public class AdBlocker {
         if (!isJs) return false;
 
         // If no grey list has been defined...
-        if (jsContentBlacklist.isEmpty()) {
+        if (jsContentBlacklistMatcher.isEmpty()) {
             // ...be lenient if there's no local whitelist set (vanilla adblocker); block instead as it has not been explicitly whitelisted
-            return (localUrlWhitelist.size() + jsUrlPatternWhitelist.size() > 0);
+            return (localUrlWhitelistMatcher.size() + jsUrlPatternWhitelistMatcher.size > 0);
         }
 
-
-        // 4- If a grey list has been defined, block them if they _contain_ keywords
-        if (Looper.getMainLooper().getThread() != Thread.currentThread()) { // No network call on UI thread
-            Timber.d(">> examining grey file : %s", url);
-            try {
-                List<Pair<String, String>> requestHeadersList = HttpHelper.webkitRequestHeadersToOkHttpHeaders(headers, url);
-                Response response = HttpHelper.getOnlineResourceFast(url, requestHeadersList, site.useMobileAgent(), site.useHentoidAgent(), site.useWebviewAgent());
-                if (response.code() >= 400) {
-                    Timber.d(">> grey file KO (%d) : %s", response.code(), url);
-                    return false; // Better safe than sorry
-                }
-
-                ResponseBody body = response.body();
-                if (null == body) throw new IOException("Empty body");
-                Timber.d(">> grey file downloaded : %s", url);
-
-                String jsBody = body.string().toLowerCase();
-                synchronized (jsContentBlacklist) {
-                    for (String s : jsContentBlacklist)
-                        if (jsBody.contains(s)) {
-                            Timber.d(">> grey file %s BLOCKED", url);
-                            jsBlacklistCache.add(cleanUrl);
-                            return true;
-                        }
-                }
-            } catch (IOException e) {
-                Timber.d(e, ">> I/O issue while retrieving %s", url);
-            } catch (IllegalArgumentException iae) {
-                Timber.e(iae);
-                return true; // Avoid feeding malformed URLs to Chromium on older Androids
+        // 4- If a grey list has been defined, use the latest verdict, if any...
+        long verdictKey = getVerdictKey(cleanUrl);
+        AdBlockVerdicts.Verdict verdict = greyFileVerdicts.get(verdictKey);
+        if (verdict != null) {
+            if (BuildConfig.DEBUG)
+                Timber.v("Grey file %s (cached verdict) : %s", verdict.isBlocked ? "BLOCKED" : "ALLOWED", cleanUrl);
+            // Renew outdated verdicts without waiting for them
+            if (greyFileVerdicts.isOutdated(verdict) && pendingInspections.add(verdictKey)) {
+                Schedulers.io().scheduleDirect(() -> {
+                    try {
+                        inspectGreyFile(url, cleanUrl, headers, verdictKey);
+                    } finally {
+                        pendingInspections.remove(verdictKey);
+                    }
+                });
             }
-            // Don't whitelist the site root as it will auto-whitelist every file hosted there
-            if (!cleanUrl.equals(site.getUrl().toLowerCase())) addToJsUrlWhitelist(cleanUrl);
-            Timber.d(">> grey file %s ALLOWED", url);
+            return verdict.isBlocked;
         }
 
+        // ...or block them if they _contain_ keywords
+        if (Looper.getMainLooper().getThread() != Thread.currentThread()) // No network call on UI thread
+            return inspectGreyFile(url, cleanUrl, headers, verdictKey);
+
         // Accept non-blocked (=grey) JS files
         return false;
     }
+
+    /**
+     * Download the given grey file and block it if it contains any grey-listed keyword
+     * NB : The file is scanned as it is being downloaded; the download stops as soon as a keyword is found
+     *
+     * @param url        Url of the file to inspect
+     * @param cleanUrl   Cleaned-up Url of the file to inspect
+     * @param headers    HTTP request headers to use
+     * @param verdictKey Key to store the verdict with
+     * @return True if the file is blocked; false if not
+     */
+    private boolean inspectGreyFile(@NonNull final String url, @NonNull final String cleanUrl, @Nullable final Map<String, String> headers, long verdictKey) {
+        Timber.d(">> examining grey file : %s", url);
+        List<Pair<String, String>> requestHeadersList = HttpHelper.webkitRequestHeadersToOkHttpHeaders(headers, url);
+        try (Response response = HttpHelper.getOnlineResourceFast(url, requestHeadersList, site.useMobileAgent(), site.useHentoidAgent(), site.useWebviewAgent())) {
+            if (response.code() >= 400) {
+                Timber.d(">> grey file KO (%d) : %s", response.code(), url);
+                return false; // Better safe than sorry
+            }
+
+            ResponseBody body = response.body();
+            if (null == body) throw new IOException("Empty body");
+
+            if (jsContentBlacklistMatcher.matches(body.charStream(), true)) {
+                Timber.d(">> grey file %s BLOCKED", url);
+                greyFileVerdicts.put(verdictKey, true);
+                return true;
+            }
+            greyFileVerdicts.put(verdictKey, false);
+        } catch (IOException e) {
+            Timber.d(e, ">> I/O issue while retrieving %s", url);
+        } catch (IllegalArgumentException iae) {
+            Timber.e(iae);
+            return true; // Avoid feeding malformed URLs to Chromium on older Androids
+        }
+        // Don't whitelist the site root as it will auto-whitelist every file hosted there
+        if (!cleanUrl.equals(site.getUrl().toLowerCase())) allowedGreyFileUrls.add(cleanUrl);
+        Timber.d(">> grey file %s ALLOWED", url);
+        return false;
+    }
+
+    /**
+     * @return Key of the verdict of the given grey file for the current site and grey list
+     */
+    private long getVerdictKey(@NonNull final String cleanUrl) {
+        return Helper.hash64((site.getCode() + "|" + jsContentBlacklistSignature + "|" + cleanUrl).getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -42,8 +42,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -88,7 +90,6 @@ import me.devsaki.hentoid.util.network.CloudflareHelper;
 import me.devsaki.hentoid.util.network.HttpHelper;
 import me.devsaki.hentoid.util.network.WebkitPackageHelper;
 import me.devsaki.hentoid.util.string_similarity.Cosine;
-import me.devsaki.hentoid.util.string_similarity.StringSimilarity;
 import me.devsaki.hentoid.workers.PurgeWorker;
 import me.devsaki.hentoid.workers.data.DeleteData;
 import okhttp3.Response;
@@ -1307,6 +1308,22 @@ public final class ContentHelper {
      * @return List of pages with original URLs and file name
      */
     public static List<ImageFile> fetchImageURLs(@NonNull Content content, @NonNull StatusContent targetImageStatus) throws Exception {
+        return fetchImageURLs(content, targetImageStatus, null);
+    }
+
+    /**
+     * Query source to fetch all image file names and URLs of a given book,
+     * notifying the given listener as soon as pages are fetched (if the source's parser allows it)
+     *
+     * @param content           Book whose pages to retrieve
+     * @param targetImageStatus Target status to set on the fetched images
+     * @param listener          Listener to notify of fetched pages, ready to be stored; null if none
+     * @return List of pages with original URLs and file name, including those the listener has been notified of
+     */
+    public static List<ImageFile> fetchImageURLs(
+            @NonNull Content content,
+            @NonNull StatusContent targetImageStatus,
+            @Nullable ImageListParser.PageListener listener) throws Exception {
         List<ImageFile> imgs;
 
         // If content doesn't have any download parameters, get them from the cookie manager
@@ -1322,14 +1339,39 @@ public final class ContentHelper {
 
         // Use ImageListParser to query the source
         ImageListParser parser = ContentParserFactory.getInstance().getImageListParser(content);
-        imgs = parser.parseImageList(content);
+        // Pages the listener has been notified of
+        Set<ImageFile> notifiedImgs = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (null == listener) imgs = parser.parseImageList(content);
+        else imgs = parser.parseImageList(content, pages -> {
+            prepareFetchedImages(content, pages, targetImageStatus);
+            notifiedImgs.addAll(pages);
+            listener.onPagesParsed(pages);
+        });
 
         // If no images found, or just the cover, image detection has failed
         if (imgs.isEmpty() || (1 == imgs.size() && imgs.get(0).isCover()))
             throw new EmptyResultException();
 
+        if (notifiedImgs.isEmpty()) prepareFetchedImages(content, imgs, targetImageStatus);
+        else
+            prepareFetchedImages(content, Stream.of(imgs).filterNot(notifiedImgs::contains).toList(), targetImageStatus);
+
+        return imgs;
+    }
+
+    /**
+     * Prepare the given freshly fetched pages of the given book to be stored
+     *
+     * @param content           Book the pages belong to
+     * @param imgs              Fetched pages
+     * @param targetImageStatus Target status to set on the fetched pages
+     */
+    private static void prepareFetchedImages(
+            @NonNull Content content,
+            @NonNull List<ImageFile> imgs,
+            @NonNull StatusContent targetImageStatus) {
         // Add the content's download params to the images only if they have missing information
-        contentDownloadParamsStr = content.getDownloadParams();
+        String contentDownloadParamsStr = content.getDownloadParams();
         if (contentDownloadParamsStr != null && contentDownloadParamsStr.length() > 2) {
             Map<String, String> contentDownloadParams = ContentHelper.parseDownloadParams(contentDownloadParamsStr);
             for (ImageFile i : imgs) {
@@ -1355,8 +1397,6 @@ public final class ContentHelper {
             img.setStatus(targetImageStatus);
             img.setContentId(content.getId());
         }
-
-        return imgs;
     }
 
     /**
@@ -1603,7 +1643,7 @@ public final class ContentHelper {
 
         // Refine by running the actual duplicate detection algorithm against the rough candidates
         List<DuplicateEntry> entries = new ArrayList<>();
-        StringSimilarity cosine = new Cosine();
+        Cosine cosine = new Cosine();
         DuplicateHelper.DuplicateCandidate reference = new DuplicateHelper.DuplicateCandidate(content, useTitle, useArtist, useLanguage, useCover, true, pHash);
         List<DuplicateHelper.DuplicateCandidate> candidates = Stream.of(roughCandidates).map(c -> new DuplicateHelper.DuplicateCandidate(c, useTitle, useArtist, useLanguage, useCover, true, Long.MIN_VALUE)).toList();
         for (DuplicateHelper.DuplicateCandidate candidate : candidates) {
@@ -0,0 +1,276 @@
+package me.devsaki.hentoid.util
+
+import me.devsaki.hentoid.util.DuplicateHelper.DuplicateCandidate
+import me.devsaki.hentoid.util.image.ImagePHash
+import java.util.Arrays
+
+/**
+ * Candidate generation stage for duplicate detection
+ *
+ * Only returns pairs that can reach the thresholds used by DuplicateHelper.processContent
+ * at the given sensitivity, so that running the full scoring on these pairs yields the same
+ * results as running it on every possible pair
+ *  - Titles : exact prefix filtering on shingle profiles (a pair can only reach the cosine
+ *  threshold if it shares a shingle within the rarest shingles of each title)
+ *  - Covers : multi-index hashing on the 64-bit pHash (if two hashes are within distance d,
+ *  at least one of their 16-bit blocks is within distance d/4)
+ */
+class DuplicateCandidateIndex(
+    private val library: List<DuplicateCandidate>,
+    private val useTitle: Boolean,
+    private val useCover: Boolean,
+    sensitivity: Int
+) {
+    companion object {
+        private const val BLOCKS = 4
+        private const val BLOCK_BITS = 16
+        private const val BLOCK_VALUES = 1 shl BLOCK_BITS
+
+        // Safety margin against rounding errors when computing the prefix
+        private const val EPSILON = 1e-6
+
+        private fun isValidHash(hash: Long): Boolean {
+            return hash != 0L && hash != Long.MIN_VALUE
+        }
+
+        private fun getBlock(hash: Long, block: Int): Int {
+            return ((hash ushr (block * BLOCK_BITS)) and (BLOCK_VALUES - 1).toLong()).toInt()
+        }
+    }
+
+    private val coverMaxDistance = DuplicateHelper.getCoverMaxDistance(sensitivity)
+    private val textThreshold = DuplicateHelper.getTextThreshold(sensitivity)
+
+    // Per-thread buffers to allow querying candidates from multiple workers
+    private val workspaces = ThreadLocal.withInitial { Workspace(library.size) }
+
+    // Title index
+    // Features of each title, sorted by ascending document frequency
+    private lateinit var titleFeatures: Array<IntArray>
+    private lateinit var titlePostingOffsets: IntArray
+    private lateinit var titlePostings: IntArray
+
+    // Titles that can only match when strictly identical (no shingle to compare)
+    private val exactTitles = HashMap<String, MutableList<Int>>()
+
+    // Cover index
+    private lateinit var coverOffsets: Array<IntArray>
+    private lateinit var coverPostings: Array<IntArray>
+
+    init {
+        if (useTitle) buildTitleIndex()
+        else if (useCover) buildCoverIndex()
+    }
+
+    private fun buildTitleIndex() {
+        // Map shingles to feature IDs and count their document frequency
+        var nbShingles = 0
+        library.forEach { nbShingles += it.titleProfile.size() }
+        val allShingles = LongArray(nbShingles)
+        nbShingles = 0
+        library.forEachIndexed { index, candidate ->
+            val profile = candidate.titleProfile
+            if (profile.isEmpty || candidate.titleCleanup.length < profile.k)
+                exactTitles.getOrPut(candidate.titleCleanup) { ArrayList() }.add(index)
+            else for (i in 0 until profile.size()) allShingles[nbShingles++] = profile.getShingle(i)
+        }
+        allShingles.sort(0, nbShingles)
+        var nbFeatures = 0
+        for (i in 0 until nbShingles) {
+            if (0 == i || allShingles[i] != allShingles[i - 1]) allShingles[nbFeatures++] = allShingles[i]
+        }
+        val dictionary = allShingles.copyOf(nbFeatures)
+        val frequencies = IntArray(nbFeatures)
+        val profiles = Array(library.size) { index ->
+            val profile = library[index].titleProfile
+            if (profile.isEmpty || library[index].titleCleanup.length < profile.k) IntArray(0)
+            else IntArray(profile.size()) { Arrays.binarySearch(dictionary, profile.getShingle(it)) }
+                .also { ids -> ids.forEach { frequencies[it]++ } }
+        }
+
+        // Rank features from the rarest to the most common
+        val byRarity = (0 until nbFeatures).sortedWith(
+            compareBy<Int> { frequencies[it] }.thenBy { it }
+        )
+        val ranks = IntArray(nbFeatures)
+        byRarity.forEachIndexed { rank, id -> ranks[id] = rank }
+
+        // Compute each title's prefix : if two titles share no feature within their prefixes,
+        // their cosine similarity can't reach the threshold
+        val prefixLengths = IntArray(library.size)
+        val postingCounts = IntArray(nbFeatures + 1)
+        titleFeatures = Array(library.size) { index ->
+            val ids = profiles[index]
+            val profile = library[index].titleProfile
+            val features = LongArray(ids.size)
+            var normSq = 0.0
+            ids.forEachIndexed { i, id ->
+                val count = profile.getCount(i)
+                // Rank in the upper bits, count in the lower bits
+                features[i] = (ranks[id].toLong() shl 32) or count.toLong()
+                normSq += count.toDouble() * count
+            }
+            features.sort()
+            val maxSuffix = (textThreshold - EPSILON) * (textThreshold - EPSILON) * normSq
+            var suffixSq = normSq
+            var prefix = 0
+            while (prefix < features.size && suffixSq >= maxSuffix) {
+                val count = (features[prefix] and 0xFFFFFFFFL).toDouble()
+                suffixSq -= count * count
+                prefix++
+            }
+            prefixLengths[index] = prefix
+            IntArray(features.size) { (features[it] ushr 32).toInt() }.also {
+                for (p in 0 until prefix) postingCounts[it[p] + 1]++
+            }
+        }
+
+        // Build the inverted index of prefixes
+        for (i in 1 until postingCounts.size) postingCounts[i] += postingCounts[i - 1]
+        titlePostingOffsets = postingCounts.copyOf()
+        titlePostings = IntArray(postingCounts.last())
+        titleFeatures.forEachIndexed { index, features ->
+            for (p in 0 until prefixLengths[index]) {
+                titlePostings[postingCounts[features[p]]++] = index
+            }
+        }
+    }
+
+    private fun buildCoverIndex() {
+        coverOffsets = Array(BLOCKS) { IntArray(BLOCK_VALUES + 1) }
+        coverPostings = Array(BLOCKS) { IntArray(0) }
+        var nbHashes = 0
+        library.forEach {
+            if (isValidHash(it.coverHash)) {
+                nbHashes++
+                for (b in 0 until BLOCKS) coverOffsets[b][getBlock(it.coverHash, b) + 1]++
+            }
+        }
+        for (b in 0 until BLOCKS) {
+            val offsets = coverOffsets[b]
+            for (i in 1 until offsets.size) offsets[i] += offsets[i - 1]
+            val cursors = offsets.copyOf()
+            val postings = IntArray(nbHashes)
+            library.forEachIndexed { index, candidate ->
+                if (isValidHash(candidate.coverHash))
+                    postings[cursors[getBlock(candidate.coverHash, b)]++] = index
+            }
+            coverPostings[b] = postings
+        }
+    }
+
+    /**
+     * Get the indexes of the library entries located after the given reference
+     * that may be duplicates of it, in ascending order
+     *
+     * @param referenceIndex Index of the reference entry within the library
+     * @return Indexes of the entries to compare the reference with, in ascending order
+     */
+    fun getCandidates(referenceIndex: Int): IntArray {
+        val reference = library[referenceIndex]
+        // Unhashed covers are skipped by the scoring
+        if (useCover && 0L == reference.coverHash) return IntArray(0)
+
+        val workspace = workspaces.get()!!
+        var nbResults = 0
+        if (useTitle) {
+            val exactMatches = exactTitles[reference.titleCleanup]
+            if (exactMatches != null) {
+                for (j in exactMatches) {
+                    if (j > referenceIndex && isCoverCompatible(reference, library[j]))
+                        nbResults = workspace.collect(referenceIndex, j, nbResults)
+                }
+            }
+            for (feature in titleFeatures[referenceIndex]) {
+                for (p in titlePostingOffsets[feature] until titlePostingOffsets[feature + 1]) {
+                    val j = titlePostings[p]
+                    if (j > referenceIndex && workspace.stamps[j] != referenceIndex && isCoverCompatible(
+                            reference,
+                            library[j]
+                        )
+                    ) nbResults = workspace.collect(referenceIndex, j, nbResults)
+                }
+            }
+        } else if (useCover && isValidHash(reference.coverHash)) {
+            val radius = coverMaxDistance / BLOCKS
+            for (b in 0 until BLOCKS) {
+                nbResults = probeCoverBlock(
+                    workspace,
+                    referenceIndex,
+                    b,
+                    getBlock(reference.coverHash, b),
+                    radius,
+                    0,
+                    nbResults
+                )
+            }
+        }
+
+        val result = workspace.buffer.copyOf(nbResults)
+        Arrays.sort(result)
+        return result
+    }
+
+    private fun isCoverCompatible(
+        reference: DuplicateCandidate,
+        candidate: DuplicateCandidate
+    ): Boolean {
+        if (!useCover) return true
+        if (0L == candidate.coverHash) return false
+        // Unhashable covers don't count in the score
+        if (!isValidHash(reference.coverHash) || !isValidHash(candidate.coverHash)) return true
+        return ImagePHash.distance(reference.coverHash, candidate.coverHash) <= coverMaxDistance
+    }
+
+    /**
+     * Collect all valid cover hashes whose given block is within the given radius of the given value,
+     * by recursively flipping the bits of the value starting from the given bit
+     */
+    private fun probeCoverBlock(
+        workspace: Workspace,
+        referenceIndex: Int,
+        block: Int,
+        value: Int,
+        radius: Int,
+        startBit: Int,
+        nbResults: Int
+    ): Int {
+        var result = nbResults
+        val offsets = coverOffsets[block]
+        val postings = coverPostings[block]
+        val referenceHash = library[referenceIndex].coverHash
+        for (p in offsets[value] until offsets[value + 1]) {
+            val j = postings[p]
+            if (j > referenceIndex && workspace.stamps[j] != referenceIndex
+                && ImagePHash.distance(referenceHash, library[j].coverHash) <= coverMaxDistance
+            ) result = workspace.collect(referenceIndex, j, result)
+        }
+        if (radius > 0) {
+            for (bit in startBit until BLOCK_BITS) {
+                result = probeCoverBlock(
+                    workspace,
+                    referenceIndex,
+                    block,
+                    value xor (1 shl bit),
+                    radius - 1,
+                    bit + 1,
+                    result
+                )
+            }
+        }
+        return result
+    }
+
+    private class Workspace(size: Int) {
+        // Marks the candidates already collected for the current reference
+        val stamps = IntArray(size) { -1 }
+        val buffer = IntArray(size)
+
+        fun collect(referenceIndex: Int, candidateIndex: Int, nbResults: Int): Int {
+            if (stamps[candidateIndex] == referenceIndex) return nbResults
+            stamps[candidateIndex] = referenceIndex
+            buffer[nbResults] = candidateIndex
+            return nbResults + 1
+        }
+    }
+}
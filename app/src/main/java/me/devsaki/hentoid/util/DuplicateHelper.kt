@@ -12,7 +12,8 @@ import me.devsaki.hentoid.enums.AttributeType
 import me.devsaki.hentoid.util.file.FileHelper
 import me.devsaki.hentoid.util.image.ImageHelper
 import me.devsaki.hentoid.util.image.ImagePHash
-import me.devsaki.hentoid.util.string_similarity.StringSimilarity
+import me.devsaki.hentoid.util.string_similarity.Cosine
+import me.devsaki.hentoid.util.string_similarity.ShingleProfile
 import org.apache.commons.lang3.tuple.ImmutableTriple
 import timber.log.Timber
 import java.io.IOException
@@ -29,6 +30,9 @@ object DuplicateHelper {
     private val TOTAL_THRESHOLDS = doubleArrayOf(0.8, 0.85, 0.9)
     private const val COVER_WORK_RESOLUTION = 48
 
+    // Used to precompute title profiles; comparators must use the same shingle length
+    private val TITLE_SHINGLER = Cosine()
+
     private val TITLE_CHAPTER_WORDS = listOf(
         "chapter",
         "chap",
@@ -74,6 +78,23 @@ object DuplicateHelper {
     )
 
 
+    /**
+     * Maximum Hamming distance between two cover hashes for them to reach
+     * the cover similarity threshold of the given sensitivity
+     */
+    fun getCoverMaxDistance(sensitivity: Int): Int {
+        var result = 0
+        while (result < java.lang.Long.SIZE && (java.lang.Long.SIZE - result - 1) * 1f / java.lang.Long.SIZE >= COVER_THRESHOLDS[sensitivity]) result++
+        return result
+    }
+
+    /**
+     * Minimum title similarity for a title score to be taken into account at the given sensitivity
+     */
+    fun getTextThreshold(sensitivity: Int): Double {
+        return TEXT_THRESHOLDS[sensitivity]
+    }
+
     fun getHashEngine(): ImagePHash {
         return getHashEngine(COVER_WORK_RESOLUTION)
     }
@@ -179,7 +200,7 @@ object DuplicateHelper {
         useSameLanguage: Boolean,
         ignoreChapters: Boolean,
         sensitivity: Int,
-        textComparator: StringSimilarity
+        textComparator: Cosine
     ): DuplicateEntry? {
         var titleScore = -1f
         var coverScore = -1f
@@ -250,21 +271,24 @@ object DuplicateHelper {
     }
 
     private fun computeTitleScore(
-        textComparator: StringSimilarity,
+        textComparator: Cosine,
         reference: DuplicateCandidate,
         candidate: DuplicateCandidate,
         ignoreChapters: Boolean,
         sensitivity: Int
     ): Float {
         val similarity1 =
-            textComparator.similarity(reference.titleCleanup, candidate.titleCleanup)
+            textComparator.similarity(reference.titleProfile, candidate.titleProfile)
         if (ignoreChapters) {
             // Perfect match
             if (similarity1 > 0.995) return similarity1.toFloat()
             // Other cases : check if both titles are chapters or sequels
             return if (similarity1 > TEXT_THRESHOLDS[sensitivity]) {
                 val similarity2 =
-                    textComparator.similarity(reference.titleNoDigits, candidate.titleNoDigits)
+                    textComparator.similarity(
+                        reference.titleNoDigitsProfile,
+                        candidate.titleNoDigitsProfile
+                    )
                 // Cleaned up versions are identical
                 // => most probably a chapter variant
                 if (similarity2 > similarity1 && similarity2 > 0.995)
@@ -362,6 +386,10 @@ object DuplicateHelper {
         val minChapterBound: Int
         val maxChapterBound: Int
 
+        // Precomputed shingle profiles, to avoid computing them again for each comparison
+        val titleProfile: ShingleProfile = TITLE_SHINGLER.getShingleProfile(titleCleanup)
+        val titleNoDigitsProfile: ShingleProfile
+
         init {
             if (useTitle && ignoreChapters) {
                 val sanitizeResult = sanitizeTitle(titleCleanup)
@@ -373,6 +401,7 @@ object DuplicateHelper {
                 minChapterBound = -1
                 maxChapterBound = -1
             }
+            titleNoDigitsProfile = TITLE_SHINGLER.getShingleProfile(titleNoDigits)
         }
     }
 }
\ No newline at end of file
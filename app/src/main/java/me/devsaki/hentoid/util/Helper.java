@@ -31,8 +31,6 @@ import com.google.android.material.slider.LabelFormatter;
 import com.google.android.material.slider.Slider;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -67,6 +65,7 @@ import me.devsaki.hentoid.enums.AttributeType;
 import me.devsaki.hentoid.enums.StorageLocation;
 import me.devsaki.hentoid.json.JsonContentCollection;
 import me.devsaki.hentoid.util.file.FileHelper;
+import me.devsaki.hentoid.util.file.InputStreamTee;
 import timber.log.Timber;
 
 /**
@@ -187,23 +186,14 @@ public final class Helper {
 
     /**
      * Duplicate the given InputStream as many times as given
+     * NB : Duplicates share a single buffer and read the given stream on demand; they can be read concurrently
      *
-     * @param stream           Initial InputStream to duplicate
+     * @param stream           Initial InputStream to duplicate; will be closed once entirely read or once all duplicates are closed
      * @param numberDuplicates Number of duplicates to create
      * @return List containing the given number of duplicated InputStreams
-     * @throws IOException If anything goes wrong during the duplication
      */
-    public static List<InputStream> duplicateInputStream(@Nonnull InputStream stream, int numberDuplicates) throws IOException {
-        List<InputStream> result = new ArrayList<>();
-
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            copy(stream, baos);
-
-            for (int i = 0; i < numberDuplicates; i++)
-                result.add(new ByteArrayInputStream(baos.toByteArray()));
-        }
-
-        return result;
+    public static List<InputStream> duplicateInputStream(@Nonnull InputStream stream, int numberDuplicates) {
+        return InputStreamTee.split(stream, numberDuplicates);
     }
 
     /**
@@ -0,0 +1,76 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Set operations on primitive long sets, represented as sorted arrays of distinct values
+ * <p>
+ * All operations run in linear time and don't box any value
+ */
+public final class LongSetHelper {
+
+    private LongSetHelper() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Build a set from the given values
+     *
+     * @param values Values to build the set from, in any order, duplicates allowed
+     * @return Sorted array of the distinct given values; the given array is left untouched
+     */
+    public static long[] fromArray(@NonNull long[] values) {
+        if (0 == values.length) return values;
+        long[] result = Arrays.copyOf(values, values.length);
+        Arrays.sort(result);
+        int size = 1;
+        for (int i = 1; i < result.length; i++) {
+            if (result[i] != result[size - 1]) result[size++] = result[i];
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Compute the intersection of the given sets
+     *
+     * @param a First set (sorted, distinct values)
+     * @param b Second set (sorted, distinct values)
+     * @return Set of the values that are in both given sets
+     */
+    public static long[] intersect(@NonNull long[] a, @NonNull long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Compute the difference between the given sets
+     *
+     * @param a Set to remove values from (sorted, distinct values)
+     * @param b Set of the values to remove (sorted, distinct values)
+     * @return Set of the values of a that aren't in b
+     */
+    public static long[] subtract(@NonNull long[] a, @NonNull long[] b) {
+        long[] result = new long[a.length];
+        int size = 0;
+        int j = 0;
+        for (long value : a) {
+            while (j < b.length && b[j] < value) j++;
+            if (j >= b.length || b[j] != value) result[size++] = value;
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+}
@@ -79,6 +79,8 @@ public final class Preferences {
         result.remove(Key.LAST_KNOWN_APP_VERSION_CODE);
         result.remove(Key.REFRESH_JSON_1_DONE);
         result.remove(Settings.Key.LOCK_TYPE);
+        for (String key : Stream.of(result.keySet()).filter(k -> k.startsWith(Key.MAINTENANCE_DONE_PREFIX)).toList())
+            result.remove(key);
 
         return result;
     }
@@ -138,6 +140,14 @@ public final class Preferences {
         sharedPreferences.edit().putBoolean(Key.REFRESH_JSON_1_DONE, value).apply();
     }
 
+    public static boolean isMaintenanceTaskComplete(@NonNull String taskName) {
+        return getBoolPref(Key.MAINTENANCE_DONE_PREFIX + taskName, false);
+    }
+
+    public static void setIsMaintenanceTaskComplete(@NonNull String taskName, boolean value) {
+        sharedPreferences.edit().putBoolean(Key.MAINTENANCE_DONE_PREFIX + taskName, value).apply();
+    }
+
     public static boolean isAnalyticsEnabled() {
         return getBoolPref(Key.ANALYTICS_PREFERENCE, true);
     }
@@ -848,6 +858,7 @@ public final class Preferences {
         public static final String DELETE_ALL_EXCEPT_FAVS = "pref_delete_all_except_favs";
         static final String WELCOME_DONE = "pref_welcome_done";
         static final String REFRESH_JSON_1_DONE = "refresh_json_1_done";
+        static final String MAINTENANCE_DONE_PREFIX = "maintenance_done_";
         static final String VERSION_KEY = "prefs_version";
         public static final String FORCE_ENGLISH = "force_english";
         public static final String LIBRARY_DISPLAY = "pref_library_display";
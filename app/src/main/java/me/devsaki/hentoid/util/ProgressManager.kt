@@ -3,10 +3,12 @@ package me.devsaki.hentoid.util
 class ProgressManager(private val nbSteps: Int) {
     private val steps = HashMap<String, Float>()
 
+    @Synchronized
     fun setProgress(step: String, progress: Float) {
         steps[step] = progress
     }
 
+    @Synchronized
     fun getGlobalProgress(): Float {
         return steps.values.sum() / nbSteps
     }
@@ -56,6 +56,9 @@ object Settings {
     // READER
     var colorDepth: Int by IntSetting(Key.READER_COLOR_DEPTH, 0)
 
+    // CACHE
+    var diskCacheSizeLimitMb: Int by IntSetting("DISK_CACHE_SIZE_LIMIT_MB", 50)
+
 
     // Public Helpers
 
@@ -0,0 +1,170 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import me.devsaki.hentoid.util.file.FileHelper;
+
+/**
+ * Immutable multi-pattern substring matcher (Aho-Corasick automaton)
+ * <p>
+ * Tells if a text contains any of the patterns it has been built with, in a single pass
+ * over the text, whatever the number of patterns. Same results as calling String.contains
+ * with every pattern, one after the other.
+ * <p>
+ * Thread-safe, as it can't be modified once built
+ */
+public final class SubstringMatcher {
+
+    public static final SubstringMatcher EMPTY = new SubstringMatcher(new ArrayList<>());
+
+    // Characters used by the patterns, in ascending order
+    private final char[] alphabet;
+    // Index of each ASCII character inside the alphabet, plus 1; 0 if not in the alphabet
+    private final int[] asciiSymbols = new int[128];
+    // Number of symbols = size of the alphabet, plus 1 for all characters outside of it
+    private final int nbSymbols;
+    // Transitions of the automaton : node reached from node N with symbol S is at N * nbSymbols + S
+    private final int[] transitions;
+    // True if reaching the node means a pattern has been found
+    private final boolean[] terminals;
+    private final int nbPatterns;
+
+    public SubstringMatcher(@NonNull Collection<String> patterns) {
+        // Build the trie of all patterns
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> trieTerminals = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        trieTerminals.add(false);
+        TreeSet<Character> chars = new TreeSet<>();
+        for (String pattern : patterns) {
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                chars.add(pattern.charAt(i));
+                Integer next = trie.get(node).get(pattern.charAt(i));
+                if (null == next) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    trieTerminals.add(false);
+                    trie.get(node).put(pattern.charAt(i), next);
+                }
+                node = next;
+            }
+            trieTerminals.set(node, true);
+        }
+        nbPatterns = patterns.size();
+
+        alphabet = new char[chars.size()];
+        int index = 0;
+        for (char c : chars) {
+            alphabet[index++] = c;
+            if (c < asciiSymbols.length) asciiSymbols[c] = index;
+        }
+        nbSymbols = alphabet.length + 1;
+
+        // Turn the trie into a complete automaton, breadth-first, using failure links
+        // (failure link of a node = node of the longest proper suffix that is also in the trie)
+        int nbNodes = trie.size();
+        transitions = new int[nbNodes * nbSymbols];
+        terminals = new boolean[nbNodes];
+        int[] failures = new int[nbNodes];
+        for (int node = 0; node < nbNodes; node++) terminals[node] = trieTerminals.get(node);
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            Map<Character, Integer> children = trie.get(node);
+            for (int symbol = 1; symbol < nbSymbols; symbol++) {
+                Integer child = children.get(alphabet[symbol - 1]);
+                int failureTarget = (0 == node) ? 0 : transitions[failures[node] * nbSymbols + symbol];
+                if (null == child) {
+                    transitions[node * nbSymbols + symbol] = failureTarget;
+                } else {
+                    transitions[node * nbSymbols + symbol] = child;
+                    failures[child] = failureTarget;
+                    // A node also matches whatever its failure node matches
+                    if (terminals[failureTarget]) terminals[child] = true;
+                    queue.add(child);
+                }
+            }
+            // Characters outside of the alphabet always lead back to the root (0)
+        }
+    }
+
+    /**
+     * @return Symbol corresponding to the given character
+     */
+    private int symbol(char c) {
+        if (c < asciiSymbols.length) return asciiSymbols[c];
+        int index = Arrays.binarySearch(alphabet, c);
+        return (index < 0) ? 0 : index + 1;
+    }
+
+    /**
+     * Indicate whether the given text contains any of the patterns of the matcher
+     *
+     * @param text Text to search into
+     * @return True if the given text contains at least one of the patterns of the matcher
+     */
+    public boolean matches(@NonNull String text) {
+        if (terminals[0]) return true; // Empty pattern
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = next(node, text.charAt(i));
+            if (terminals[node]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicate whether the text given by the given Reader contains any of the patterns of the matcher
+     * NB : Reading stops as soon as a pattern has been found
+     *
+     * @param reader     Reader to search into
+     * @param ignoreCase True to search into the lowercased text (patterns are then expected to be lowercase)
+     * @return True if the given text contains at least one of the patterns of the matcher
+     * @throws IOException If anything goes wrong while reading
+     */
+    public boolean matches(@NonNull Reader reader, boolean ignoreCase) throws IOException {
+        if (terminals[0]) return true; // Empty pattern
+        char[] buffer = new char[FileHelper.FILE_IO_BUFFER_SIZE];
+        int node = 0;
+        int read;
+        while ((read = reader.read(buffer)) > -1) {
+            for (int i = 0; i < read; i++) {
+                node = next(node, ignoreCase ? Character.toLowerCase(buffer[i]) : buffer[i]);
+                if (terminals[node]) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Node reached from the given node when reading the given character
+     */
+    private int next(int node, char c) {
+        return transitions[node * nbSymbols + symbol(c)];
+    }
+
+    /**
+     * @return Number of patterns the matcher has been built with
+     */
+    public int size() {
+        return nbPatterns;
+    }
+
+    public boolean isEmpty() {
+        return 0 == nbPatterns;
+    }
+}
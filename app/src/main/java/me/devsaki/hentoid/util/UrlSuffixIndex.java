@@ -0,0 +1,96 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of URLs that can tell in a few hash lookups if a given URL ends with any of them
+ * <p>
+ * Same results as calling String.endsWith with every indexed URL, one after the other,
+ * without the cost growing with the number of indexed URLs : only the suffixes of the given URL
+ * whose length matches the length of an indexed URL are looked up.
+ * <p>
+ * Thread-safe; URLs can be added while the index is being queried
+ */
+public final class UrlSuffixIndex {
+
+    private final Set<String> urls = ConcurrentHashMap.newKeySet();
+    // Distinct lengths of the indexed URLs, in ascending order
+    private volatile int[] lengths = new int[0];
+
+    public UrlSuffixIndex(@NonNull Collection<String> urls) {
+        addAll(urls);
+    }
+
+    /**
+     * Add the given URL to the index
+     *
+     * @param url URL to add
+     */
+    public void add(@NonNull String url) {
+        addAll(Collections.singletonList(url));
+    }
+
+    /**
+     * Add the given URLs to the index
+     *
+     * @param urls URLs to add
+     */
+    public void addAll(@NonNull Collection<String> urls) {
+        synchronized (this) {
+            int[] newLengths = lengths;
+            for (String url : urls) {
+                int index = Arrays.binarySearch(newLengths, url.length());
+                if (index < 0) {
+                    index = -index - 1;
+                    int[] inserted = new int[newLengths.length + 1];
+                    System.arraycopy(newLengths, 0, inserted, 0, index);
+                    inserted[index] = url.length();
+                    System.arraycopy(newLengths, index, inserted, index + 1, newLengths.length - index);
+                    newLengths = inserted;
+                }
+            }
+            // Publish lengths before URLs, so that any visible URL can be found
+            lengths = newLengths;
+            this.urls.addAll(urls);
+        }
+    }
+
+    /**
+     * Indicate whether the given URL is indexed
+     *
+     * @param url URL to look for
+     * @return True if the given URL is indexed
+     */
+    public boolean contains(@NonNull String url) {
+        return urls.contains(url);
+    }
+
+    /**
+     * Indicate whether the given URL ends with any of the indexed URLs
+     *
+     * @param url URL to test
+     * @return True if the given URL ends with at least one of the indexed URLs
+     */
+    public boolean isSuffixed(@NonNull String url) {
+        int urlLength = url.length();
+        for (int length : lengths) {
+            if (length > urlLength) break;
+            if (urls.contains(url.substring(urlLength - length))) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return urls.size();
+    }
+
+    public boolean isEmpty() {
+        return urls.isEmpty();
+    }
+}
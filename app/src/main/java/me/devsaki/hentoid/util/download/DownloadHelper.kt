@@ -48,13 +48,22 @@ object DownloadHelper {
         forceMimeType: String? = null,
         failFast: Boolean = true,
         resourceId: Int,
+        bandwidthFlow: DownloadSpeedLimiter.Flow = DownloadSpeedLimiter.DEFAULT_FLOW,
         notifyProgress: Consumer<Float>? = null
     ): Pair<Uri, String> {
-        return downloadToFile(
-            context, site, rawUrl, requestHeaders,
-            fileCreator = { _, _ -> DiskCache.createFile(cacheKey) },
-            interruptDownload, forceMimeType, failFast, resourceId, notifyProgress
-        )
+        val result = try {
+            downloadToFile(
+                context, site, rawUrl, requestHeaders,
+                fileCreator = { _, _ -> DiskCache.createFile(cacheKey) },
+                interruptDownload, forceMimeType, failFast, resourceId, bandwidthFlow, notifyProgress
+            )
+        } catch (e: Exception) {
+            // Don't keep the partially written file
+            DiskCache.abortFile(cacheKey)
+            throw e
+        }
+        DiskCache.commitFile(result.first)
+        return result
     }
 
     @Throws(
@@ -74,6 +83,7 @@ object DownloadHelper {
         forceMimeType: String? = null,
         failFast: Boolean = true,
         resourceId: Int,
+        bandwidthFlow: DownloadSpeedLimiter.Flow = DownloadSpeedLimiter.DEFAULT_FLOW,
         notifyProgress: Consumer<Float>? = null
     ): Pair<Uri, String> {
         return downloadToFile(
@@ -81,7 +91,7 @@ object DownloadHelper {
             fileCreator = { ctx, mimeType ->
                 createFile(ctx, targetFolderUri, targetFileName, mimeType)
             },
-            interruptDownload, forceMimeType, failFast, resourceId, notifyProgress
+            interruptDownload, forceMimeType, failFast, resourceId, bandwidthFlow, notifyProgress
         )
     }
 
@@ -96,6 +106,7 @@ object DownloadHelper {
      * @param forceMimeType     Forced mime-type of the downloaded resource (null for auto-set)
      * @param failFast          True for a shorter read timeout; false for a regular, patient download
      * @param resourceId        ID of the corresponding resource (for logging purposes only)
+     * @param bandwidthFlow     Flow the downloaded bytes are accounted to when the download speed is capped
      * @param notifyProgress    Consumer called with the download progress %
      * @return Pair containing
      * - Left : Uri of downloaded file
@@ -117,6 +128,7 @@ object DownloadHelper {
         forceMimeType: String? = null,
         failFast: Boolean = true,
         resourceId: Int,
+        bandwidthFlow: DownloadSpeedLimiter.Flow = DownloadSpeedLimiter.DEFAULT_FLOW,
         notifyProgress: Consumer<Float>? = null
     ): Pair<Uri, String> {
         Helper.assertNonUiThread()
@@ -187,7 +199,7 @@ object DownloadHelper {
                         out!!.write(buffer, 0, len)
                         if (notifyProgress != null && 0 == iteration % notificationResolution)
                             notifyProgress.invoke(processed * 100f / size)
-                        take(len.toLong())
+                        take(len.toLong(), bandwidthFlow)
                     }
                 }
                 // End of download
@@ -1,27 +1,41 @@
 package me.devsaki.hentoid.util.download
 
 import io.github.bucket4j.Bandwidth
-import io.github.bucket4j.BlockingBucket
 import io.github.bucket4j.Bucket
 import io.github.bucket4j.Refill
+import kotlinx.coroutines.delay
 import java.time.Duration
+import java.util.concurrent.TimeUnit
 
 
 object DownloadRateLimiter {
-    private var bucket: BlockingBucket? = null
+    @Volatile
+    private var bucket: Bucket? = null
 
     fun setRateLimit(perSecond: Long) {
         bucket = if (perSecond <= 0) null
         else {
             val limit = Bandwidth.classic(perSecond, Refill.intervally(1, Duration.ofSeconds(1)))
-            Bucket.builder().addLimit(limit).build().asBlocking()
+            Bucket.builder().addLimit(limit).build()
         }
     }
 
+    /**
+     * Take one token, blocking the calling thread until it is available
+     */
     fun take(): Boolean {
-        if (null == bucket) return true
-
-        bucket?.consume(1)
+        bucket?.asBlocking()?.consume(1)
         return true
     }
-}
\ No newline at end of file
+
+    /**
+     * Take one token, suspending the calling coroutine until it is available
+     */
+    suspend fun acquire() {
+        while (true) {
+            val probe = bucket?.tryConsumeAndReturnRemaining(1) ?: return
+            if (probe.isConsumed) return
+            delay(TimeUnit.NANOSECONDS.toMillis(probe.nanosToWaitForRefill).coerceAtLeast(1))
+        }
+    }
+}
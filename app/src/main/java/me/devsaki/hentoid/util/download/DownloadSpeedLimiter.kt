@@ -1,30 +1,126 @@
 package me.devsaki.hentoid.util.download
 
-import io.github.bucket4j.Bandwidth
-import io.github.bucket4j.BlockingBucket
-import io.github.bucket4j.Bucket
 import me.devsaki.hentoid.util.Preferences
-import java.time.Duration
+import java.util.PriorityQueue
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.max
+import kotlin.math.min
 
+/**
+ * Download bandwidth shaper
+ *
+ * Downloaded bytes are taken from a token bucket refilled at the speed limit, which allows bursts
+ * of up to one second of transfer (e.g. small pages are downloaded at full speed).
+ *
+ * When the bucket runs dry, competing flows (e.g. books being downloaded, reader prefetches)
+ * are served according to their weight, using start-time fair queueing
+ */
 object DownloadSpeedLimiter {
-    private var bucket: BlockingBucket? = null
+
+    /**
+     * Flow of downloaded bytes; flows with a higher weight get a higher share of the bandwidth
+     */
+    class Flow(val key: String, val weight: Int = 1)
+
+    val DEFAULT_FLOW = Flow("default")
+
+    // Interactive downloads are served before background downloads
+    val READER_FLOW = Flow("reader", 4)
+
+    fun contentFlow(contentId: Long): Flow {
+        return Flow("content-$contentId")
+    }
+
+    private class Waiter(val startTag: Double, val sequence: Long)
+
+    private val lock = ReentrantLock()
+    private val condition = lock.newCondition()
+
+    // Speed limit (bytes per second); 0 = unlimited
+    @Volatile
+    private var bytesPerSecond = 0L
+    private var tokens = 0.0
+    private var lastRefillNanos = 0L
+
+    // Virtual time of the fair queue = start tag of the latest served chunk
+    private var virtualTime = 0.0
+
+    // Key = flow key; value = finish tag of the latest chunk of the flow
+    private val finishTags = HashMap<String, Double>()
+    private val waiters = PriorityQueue(compareBy<Waiter> { it.startTag }.thenBy { it.sequence })
+    private var sequence = 0L
 
     fun setSpeedLimitKbps(kbps: Int) {
-        bucket = if (kbps <= 0) null
-        else {
-            val limit = Bandwidth.simple(
-                kbps * 1000L,
-                Duration.ofSeconds(1)
-            )
-            Bucket.builder().addLimit(limit).build().asBlocking()
+        lock.withLock {
+            bytesPerSecond = if (kbps <= 0) 0 else kbps * 1000L
+            tokens = bytesPerSecond.toDouble()
+            lastRefillNanos = System.nanoTime()
+            virtualTime = 0.0
+            finishTags.clear()
+            condition.signalAll()
         }
     }
 
-    fun take(bytes: Long): Boolean {
-        if (null == bucket) return true
+    /**
+     * Take the given number of downloaded bytes from the bandwidth of the given flow,
+     * blocking the calling thread until they are available
+     *
+     * @param bytes Number of bytes that have just been downloaded
+     * @param flow  Flow the bytes belong to
+     */
+    fun take(bytes: Long, flow: Flow = DEFAULT_FLOW): Boolean {
+        if (bytesPerSecond <= 0 || bytes <= 0) return true
+
+        lock.withLock {
+            val startTag = max(virtualTime, finishTags[flow.key] ?: 0.0)
+            finishTags[flow.key] = startTag + bytes.toDouble() / flow.weight
+            val waiter = Waiter(startTag, sequence++)
+            waiters.add(waiter)
+            try {
+                while (bytesPerSecond > 0) {
+                    refill()
+                    // Chunks larger than the bucket go through once it's full, leaving it in debt
+                    val needed = min(bytes, bytesPerSecond).toDouble()
+                    val isNext = waiters.peek() === waiter
+                    if (isNext && tokens >= needed) {
+                        tokens -= bytes
+                        virtualTime = startTag
+                        cleanupFlows()
+                        return true
+                    }
+                    // Waiters that aren't next are woken up when the waiter before them is served
+                    val waitNanos =
+                        if (isNext) ((needed - tokens) * 1e9 / bytesPerSecond).toLong() else 1e9.toLong()
+                    condition.awaitNanos(max(1, waitNanos))
+                }
+                return true
+            } finally {
+                waiters.remove(waiter)
+                condition.signalAll()
+            }
+        }
+    }
+
+    /**
+     * NB : Must be called under lock
+     */
+    private fun refill() {
+        val now = System.nanoTime()
+        tokens = min(
+            bytesPerSecond.toDouble(),
+            tokens + (now - lastRefillNanos) * bytesPerSecond / 1e9
+        )
+        lastRefillNanos = now
+    }
 
-        bucket?.consume(bytes)
-        return true
+    /**
+     * Forget idle flows, i.e. flows whose latest chunk has already been served
+     * NB : Must be called under lock
+     */
+    private fun cleanupFlows() {
+        val iterator = finishTags.values.iterator()
+        while (iterator.hasNext()) if (iterator.next() <= virtualTime) iterator.remove()
     }
 
     fun prefsSpeedCapToKbps(value: Int): Int {
@@ -36,4 +132,4 @@ object DownloadSpeedLimiter {
             else -> -1
         }
     }
-}
\ No newline at end of file
+}
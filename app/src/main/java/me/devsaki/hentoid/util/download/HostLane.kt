@@ -0,0 +1,123 @@
+package me.devsaki.hentoid.util.download
+
+import java.util.ArrayDeque
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Download lane of a single host, with its own waiting requests and its own
+ * number of allowed parallel requests
+ *
+ * The number of allowed parallel requests adapts to the host's behaviour (AIMD) :
+ *  - Additive increase when requests succeed at a steady latency while the lane is saturated
+ *  - Multiplicative decrease when the host throttles (HTTP 429 / 503) or when latency rises
+ *
+ * NB : Not thread-safe; calls must be synchronized by the caller
+ */
+class HostLane(val host: String, initialLimit: Int) {
+    companion object {
+        // Limit reduction factor when the host throttles requests
+        private const val THROTTLE_DECREASE = 0.5
+
+        // Limit reduction factor when the host's latency rises
+        private const val LATENCY_DECREASE = 0.75
+
+        // Latency above which the host is considered congested, relatively to its baseline latency
+        private const val LATENCY_TOLERANCE = 2.0
+
+        // Weight of the latest sample in the average latency
+        private const val LATENCY_SMOOTHING = 0.2
+
+        // Relative raise of the baseline latency at each sample, to forget stale baselines
+        private const val BASELINE_DRIFT = 1.02
+    }
+
+    // Requests waiting to be executed
+    val waitingRequests = ArrayDeque<RequestOrder>()
+
+    // Number of requests being currently executed
+    var nbActiveRequests = 0
+        private set
+
+    // Maximum number of allowed parallel requests
+    var ceiling = max(1, initialLimit)
+        private set
+
+    private var limit = ceiling.toDouble()
+    private var avgLatency = -1.0
+    private var baselineLatency = -1.0
+
+    // Timestamp of the last limit decrease; only requests started after that can trigger a new one
+    private var lastDecrease = 0L
+
+    /**
+     * Number of parallel requests currently allowed on this lane
+     */
+    val nbAllowedRequests: Int
+        get() = max(1, limit.toInt())
+
+    fun hasFreeSlot(): Boolean {
+        return nbActiveRequests < nbAllowedRequests
+    }
+
+    /**
+     * Set the maximum number of allowed parallel requests
+     */
+    fun setCeiling(value: Int) {
+        ceiling = max(1, value)
+        limit = min(limit, ceiling.toDouble())
+    }
+
+    fun onRequestStarted() {
+        nbActiveRequests++
+    }
+
+    /**
+     * Release the slot of a request that has been discarded, without learning anything from it
+     */
+    fun onRequestDiscarded() {
+        if (nbActiveRequests > 0) nbActiveRequests--
+    }
+
+    /**
+     * Adapt the lane to a successful request
+     *
+     * @param startTime Timestamp the request has been started at
+     * @param now       Current timestamp
+     */
+    fun onRequestSuccess(startTime: Long, now: Long) {
+        val wasSaturated = nbActiveRequests >= nbAllowedRequests
+        onRequestDiscarded()
+        val latency = (now - startTime).toDouble()
+        avgLatency = if (avgLatency < 0) latency
+        else avgLatency * (1 - LATENCY_SMOOTHING) + latency * LATENCY_SMOOTHING
+        baselineLatency = if (baselineLatency < 0) avgLatency
+        else min(avgLatency, baselineLatency * BASELINE_DRIFT)
+
+        if (avgLatency > baselineLatency * LATENCY_TOLERANCE) {
+            decrease(LATENCY_DECREASE, startTime, now)
+        } else if (wasSaturated) {
+            // Widen the lane by one request per "round" of allowed requests
+            limit = min(ceiling.toDouble(), limit + 1.0 / limit)
+        }
+    }
+
+    /**
+     * Adapt the lane to a failed request
+     *
+     * @param startTime  Timestamp the request has been started at
+     * @param now        Current timestamp
+     * @param statusCode HTTP status code of the failed request; 0 if none
+     */
+    fun onRequestError(startTime: Long, now: Long, statusCode: Int) {
+        onRequestDiscarded()
+        if (429 == statusCode || 503 == statusCode) decrease(THROTTLE_DECREASE, startTime, now)
+    }
+
+    private fun decrease(factor: Double, startTime: Long, now: Long) {
+        // Requests started before the last decrease were sent at the previous rate and don't count
+        if (startTime < lastDecrease) return
+        limit = max(1.0, limit * factor)
+        lastDecrease = now
+    }
+}
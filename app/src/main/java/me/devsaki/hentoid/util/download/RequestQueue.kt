@@ -61,7 +61,8 @@ class RequestQueue(
                     requestOrder.targetDir,
                     requestOrder.fileName,
                     requestOrder.pageIndex,
-                    requestOrder.killSwitch
+                    requestOrder.killSwitch,
+                    DownloadSpeedLimiter.contentFlow(requestOrder.img.contentId)
                 )
             }
             handleSuccess(requestOrder, res)
@@ -123,6 +124,7 @@ class RequestQueue(
      * @param pageIndex    Index of the picture to download
      * @param targetFolder Folder to download to
      * @param killSwitch   Switch to interrupt the download
+     * @param flow         Bandwidth flow to account the download to
      * @return Optional triple with
      * - The page index
      * - The Uri of the downloaded file
@@ -138,7 +140,8 @@ class RequestQueue(
         targetFolder: DocumentFile,
         targetFileNameNoExt: String,
         pageIndex: Int,
-        killSwitch: AtomicBoolean
+        killSwitch: AtomicBoolean,
+        flow: DownloadSpeedLimiter.Flow
     ): Optional<ImmutableTriple<Int, Uri, String>> {
         Helper.assertNonUiThread()
 
@@ -161,7 +164,8 @@ class RequestQueue(
             killSwitch,
             null,
             false,
-            pageIndex
+            pageIndex,
+            flow
         )
 
         val targetFileUri = result.first
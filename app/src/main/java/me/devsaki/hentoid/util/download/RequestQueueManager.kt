@@ -6,20 +6,25 @@ import android.net.Uri
 import com.google.firebase.crashlytics.FirebaseCrashlytics
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.launch
 import me.devsaki.hentoid.core.BiConsumer
 import me.devsaki.hentoid.core.HentoidApp
-import me.devsaki.hentoid.util.Helper
+import me.devsaki.hentoid.enums.Site
 import me.devsaki.hentoid.util.Preferences
 import me.devsaki.hentoid.util.network.OkHttpClientSingleton
 import timber.log.Timber
-import java.util.Collections
-import java.util.LinkedList
+import java.time.Instant
+import java.util.EnumMap
 import kotlin.math.ceil
 import kotlin.math.min
 
 /**
  * Manager class for image download queue
+ *
+ * Requests are dispatched through one lane per host, each lane adapting its own number of
+ * parallel requests to the host's behaviour (see HostLane)
  */
 class RequestQueueManager private constructor(
     context: Context,
@@ -28,23 +33,51 @@ class RequestQueueManager private constructor(
 ) {
     private var mRequestQueue: RequestQueue? = null
 
-    // Maximum number of allowed parallel download threads (-1 = not capped)
-    var downloadThreadCap = -1
-        private set
-
-    // Actual number of allowed parallel download threads
+    // Number of allowed parallel download threads, all hosts together
     private var downloadThreadCount = 0
 
-    // Requests waiting to be executed
-    private val waitingRequestQueue = LinkedList<RequestOrder>()
+    // Download lanes, one per host
+    // Lanes (and what they learnt about their host) are kept until the manager is reset
+    private val lanes = LinkedHashMap<String, HostLane>()
+
+    // Requests being currently executed, with the timestamp they have been started at
+    // NB : Includes requests that have been dispatched but haven't been picked by a worker yet
+    private val activeRequests = HashMap<RequestOrder, Long>()
+
+    // Requests that have actually been picked by a worker and are being executed
+    private val executingRequests = HashSet<RequestOrder>()
+
+    // Executing requests interrupted by a queue reset, to be executed again once their interrupted execution has ended
+    private val interruptedRequests = HashSet<RequestOrder>()
+
+    // Number of requests being currently executed per site
+    private val activeRequestsPerSite = EnumMap<Site, Int>(Site::class.java)
+
+    // Index of the lane to look into first when dispatching requests, for fairness between hosts
+    private var nextLaneIndex = 0
+
+    // Requests that have been dispatched and are waiting for a worker to execute them
+    private val readyRequests = Channel<RequestOrder>(Channel.UNLIMITED)
 
-    // Requests being currently executed
-    private val activeRequests: MutableSet<RequestOrder> = Collections.synchronizedSet(HashSet())
+    // Scope of the workers executing the requests
+    private val workerScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
 
 
     init {
         downloadThreadCount = getPreferredThreadCount(context)
         init(resetActiveRequests = false, cancelQueue = true)
+        // The number of workers bounds the number of requests that can be executed at the same time
+        repeat(downloadThreadCount) {
+            workerScope.launch {
+                for (order in readyRequests) {
+                    try {
+                        executeRequest(order)
+                    } catch (e: Exception) {
+                        Timber.e(e)
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -65,33 +98,21 @@ class RequestQueueManager private constructor(
         start()
     }
 
-    /**
-     * Initialize the request queue
-     *
-     * @param ctx         Context to use
-     * @param nbDlThreads Number of parallel downloads to use; -1 to use automated recommendation
-     * @param cancelQueue True if queued requests should be canceled; false if it should be kept intact
-     */
-    fun initUsingDownloadThreadCount(ctx: Context, nbDlThreads: Int, cancelQueue: Boolean) {
-        downloadThreadCap = nbDlThreads
-        downloadThreadCount = nbDlThreads
-        if (-1 == downloadThreadCap) downloadThreadCount = getPreferredThreadCount(ctx)
-        init(false, cancelQueue)
-    }
-
     /**
      * Reset the entire queue
      *
      * @param resetOkHttp If true, also reset the underlying OkHttp connections
      */
     fun resetRequestQueue(resetOkHttp: Boolean) {
-        init(true, cancelQueue = false, resetOkHttp = resetOkHttp)
-        // Requeue interrupted requests
-        synchronized(activeRequests) {
-            Timber.d("resetRequestQueue :: Requeuing %d requests", activeRequests.size)
-            for (order in activeRequests)
-                CoroutineScope(Dispatchers.Default).launch { executeRequest(order, false) }
+        // Flag executing requests before stopping them, so that their interruption doesn't release their slot
+        // NB : They are requeued by their worker once their interrupted execution has ended (see executeRequest);
+        // dispatched requests that haven't been picked by a worker yet are executed on the new queue as they are
+        synchronized(lanes) {
+            Timber.d("resetRequestQueue :: Requeuing %d requests", executingRequests.size)
+            interruptedRequests.addAll(executingRequests)
+            mRequestQueue?.stop()
         }
+        init(true, cancelQueue = false, resetOkHttp = resetOkHttp)
         refill()
     }
 
@@ -100,8 +121,15 @@ class RequestQueueManager private constructor(
      */
     fun cancelQueue() {
         mRequestQueue?.stop()
-        synchronized(waitingRequestQueue) { waitingRequestQueue.clear() }
-        synchronized(activeRequests) { activeRequests.clear() }
+        synchronized(lanes) {
+            lanes.values.forEach { lane ->
+                lane.waitingRequests.clear()
+                while (lane.nbActiveRequests > 0) lane.onRequestDiscarded()
+            }
+            activeRequests.clear()
+            activeRequestsPerSite.clear()
+            interruptedRequests.clear()
+        }
         Timber.d("RequestQueue ::: canceled")
     }
 
@@ -116,111 +144,193 @@ class RequestQueueManager private constructor(
      * @param order Request to add to the queue
      */
     fun queueRequest(order: RequestOrder) {
-        CoroutineScope(Dispatchers.Default).launch {
-            if (isNewRequestAllowed()) executeRequest(order) else {
-                synchronized(waitingRequestQueue) {
-                    waitingRequestQueue.add(order)
-                    Timber.d(
-                        "Waiting requests queue ::: added new request - current total %d",
-                        waitingRequestQueue.size
-                    )
-                }
-            }
+        synchronized(lanes) {
+            getLane(order).waitingRequests.add(order)
+            Timber.d(
+                "Waiting requests queue ::: added new request - current total %d",
+                nbWaitingRequests
+            )
         }
+        refill()
+    }
+
+    /**
+     * Get the lane of the host of the given request; create it if it doesn't exist
+     * NB : Must be called under lock
+     */
+    private fun getLane(order: RequestOrder): HostLane {
+        val host = Uri.parse(order.url).host ?: ""
+        val ceiling = getLaneCeiling(order.site)
+        val lane = lanes.getOrPut(host) { HostLane(host, ceiling) }
+        // Site caps may change when site settings are updated
+        if (lane.ceiling != ceiling) lane.setCeiling(ceiling)
+        return lane
     }
 
     /**
-     * Indicates whether a new request can be executed or not
-     * NB : This call might _block_ the calling thread according to the current download rate limit
+     * Maximum number of allowed parallel requests for a host of the given site
      */
-    private fun isNewRequestAllowed(): Boolean {
-        val remainingSlots = downloadThreadCount - nbActiveRequests
-        if (remainingSlots < 1) return false
-        return true
+    private fun getLaneCeiling(site: Site): Int {
+        return if (site.parallelDownloadCap > 0) min(downloadThreadCount, site.parallelDownloadCap)
+        else downloadThreadCount
+    }
+
+    /**
+     * Indicates whether a new request can be executed on the given lane or not
+     * NB : Must be called under lock
+     */
+    private fun isNewRequestAllowed(lane: HostLane, order: RequestOrder): Boolean {
+        if (activeRequests.size >= downloadThreadCount) return false
+        if (!lane.hasFreeSlot()) return false
+        // Don't spread the threads over too many hosts
+        if (0 == lane.nbActiveRequests && lanes.values.count { it.nbActiveRequests > 0 } >= MAX_PARALLEL_HOSTS) return false
+        // The site's cap applies to all its hosts together
+        val siteCap = order.site.parallelDownloadCap
+        return siteCap < 1 || (activeRequestsPerSite[order.site] ?: 0) < siteCap
     }
 
     /**
      * Refill the queue with the allowed number of requests
+     * NB : Doesn't wait for anything; requests that can't be executed yet stay in their lane
+     * until a slot is released
      */
     private fun refill() {
-        if (nbActiveRequests < downloadThreadCount) {
-            CoroutineScope(Dispatchers.Default).launch {
-                try {
-                    doRefill()
-                } catch (e: Exception) {
-                    Timber.e(e)
+        val toExecute = ArrayList<RequestOrder>()
+        synchronized(lanes) {
+            val now = Instant.now().toEpochMilli()
+            // Go through lanes in turn, taking one request at a time from each of them
+            var dispatched: Boolean
+            do {
+                dispatched = false
+                val laneList = lanes.values.toList()
+                for (i in laneList.indices) {
+                    val lane = laneList[(nextLaneIndex + i) % laneList.size]
+                    val order = lane.waitingRequests.peekFirst() ?: continue
+                    if (!isNewRequestAllowed(lane, order)) continue
+                    lane.waitingRequests.removeFirst()
+                    lane.onRequestStarted()
+                    activeRequests[order] = now
+                    activeRequestsPerSite[order.site] = (activeRequestsPerSite[order.site] ?: 0) + 1
+                    toExecute.add(order)
+                    dispatched = true
                 }
-            }
+                if (laneList.isNotEmpty()) nextLaneIndex = (nextLaneIndex + 1) % laneList.size
+            } while (dispatched)
         }
+        toExecute.forEach { readyRequests.trySend(it) }
     }
 
     /**
-     * Refill the queue with the allowed number of requests
+     * Execute the given request order at the given timestamp
+     * NB : if we're here, that means all quota checks have already passed
+     *
+     * @param order Request order to execute
      */
-    private suspend fun doRefill() {
-        var newRequestAllowed = isNewRequestAllowed()
-        while (!newRequestAllowed && 0 == nbActiveRequests) { // Dry queue
-            Helper.pause(250)
-            newRequestAllowed = isNewRequestAllowed()
+    private suspend fun executeRequest(order: RequestOrder) {
+        val queue = mRequestQueue ?: return
+        synchronized(lanes) {
+            // Request has been canceled while waiting for a worker
+            if (!activeRequests.containsKey(order)) return
+            executingRequests.add(order)
         }
-        if (newRequestAllowed) {
-            val o: RequestOrder?
-            synchronized(waitingRequestQueue) {
-                o = if (!waitingRequestQueue.isEmpty()) waitingRequestQueue.removeFirst()
-                else null
+        var isExecuted = false
+        try {
+            if (queue.active) {
+                DownloadRateLimiter.acquire()
+                // Latency is measured from the actual start of the request
+                synchronized(lanes) {
+                    if (activeRequests.containsKey(order)) activeRequests[order] =
+                        Instant.now().toEpochMilli()
+                }
+                isExecuted = true
+                queue.executeRequest(HentoidApp.getInstance(), order)
             }
-            o?.let { executeRequest(it) }
+        } finally {
+            onRequestExecuted(order, queue, isExecuted)
         }
     }
 
     /**
-     * Execute the given request order at the given timestamp
-     * NB : if we're here, that means all quota checks have already passed
+     * Release the given request from its worker, and requeue it if its execution has been interrupted by a queue reset
+     * NB : Success and error handlers have already been called at this point, if the request has been executed at all
      *
-     * @param order Request order to execute
+     * @param order      Request whose execution has ended
+     * @param queue      Queue the request has been executed with
+     * @param isExecuted True if the request has been given to the queue; false if the queue was stopped already
      */
-    private suspend fun executeRequest(order: RequestOrder, insert: Boolean = true) {
-        mRequestQueue?.let {
-            if (!it.active) return
-            if (insert) synchronized(activeRequests) { activeRequests.add(order) }
-            DownloadRateLimiter.take()
-            it.executeRequest(HentoidApp.getInstance(), order)
-            synchronized(waitingRequestQueue) {
-                Timber.d(
-                    "Requests queue ::: request executed for host %s - current total (%d active + %d waiting)",
-                    Uri.parse(order.url).host,
-                    nbActiveRequests,
-                    waitingRequestQueue.size
-                )
+    private fun onRequestExecuted(order: RequestOrder, queue: RequestQueue, isExecuted: Boolean) {
+        var requeue = false
+        var discard = false
+        synchronized(lanes) {
+            executingRequests.remove(order)
+            val isInterrupted = interruptedRequests.remove(order)
+            if (activeRequests.containsKey(order)) {
+                if (isInterrupted || (!isExecuted && mRequestQueue !== queue)) {
+                    // Execute again on the new queue, keeping the request's slot
+                    order.killSwitch.set(false)
+                    activeRequests[order] = Instant.now().toEpochMilli()
+                    requeue = true
+                } else if (!isExecuted) {
+                    // Queue has been stopped for good
+                    discard = true
+                }
             }
+            Timber.d(
+                "Requests queue ::: request executed for host %s - current total (%d active + %d waiting)",
+                Uri.parse(order.url).host,
+                activeRequests.size,
+                nbWaitingRequests
+            )
         }
+        if (requeue) readyRequests.trySend(order)
+        else if (discard) onRequestCompleted(order, false)
     }
 
     /**
      * Generic handler called when a request is completed
      *
-     * @param request Completed request
+     * @param request    Completed request
+     * @param success    True if the request has succeeded
+     * @param statusCode HTTP status code of the failed request; 0 if none
      */
-    private fun onRequestCompleted(request: RequestOrder) {
-        synchronized(activeRequests) {
-            activeRequests.remove(request)
+    private fun onRequestCompleted(request: RequestOrder, success: Boolean, statusCode: Int = 0) {
+        synchronized(lanes) {
+            // Requests that have been canceled in the meantime don't hold any slot anymore
+            val startTime = activeRequests.remove(request) ?: return@synchronized
+            val nbSiteRequests = (activeRequestsPerSite[request.site] ?: 1) - 1
+            if (nbSiteRequests > 0) activeRequestsPerSite[request.site] = nbSiteRequests
+            else activeRequestsPerSite.remove(request.site)
+            val lane = getLane(request)
+            val now = Instant.now().toEpochMilli()
+            if (success) lane.onRequestSuccess(startTime, now)
+            else if (statusCode > 0) lane.onRequestError(startTime, now, statusCode)
+            else lane.onRequestDiscarded()
             Timber.v(
-                "Global requests queue ::: request removed for host %s - current total %s",
-                Uri.parse(request.url).host,
-                nbActiveRequests
+                "Global requests queue ::: request removed for host %s - current total %s (host allows %d)",
+                lane.host,
+                activeRequests.size,
+                lane.nbAllowedRequests
             )
         }
-
-        if (!waitingRequestQueue.isEmpty()) refill()
+        refill()
     }
 
     private fun onRequestSuccess(request: RequestOrder, resultFileUri: Uri) {
-        onRequestCompleted(request)
+        // Request has completed before the queue reset could interrupt it => no need to execute it again
+        synchronized(lanes) { interruptedRequests.remove(request) }
+        onRequestCompleted(request, true)
         onSuccess.invoke(request, resultFileUri)
     }
 
     private fun onRequestError(request: RequestOrder, err: RequestOrder.NetworkError) {
-        onRequestCompleted(request)
+        // Request interrupted by a queue reset => keep its slot; it's executed again on the new queue
+        synchronized(lanes) {
+            if (interruptedRequests.contains(request)) {
+                Timber.d("Downloader : %s interrupted by queue reset; requeuing", request.url)
+                return
+            }
+        }
+        onRequestCompleted(request, false, err.statusCode)
         // Don't propagate interruptions
         if (err.type != RequestOrder.NetworkErrorType.INTERRUPTED) onError.invoke(request, err)
         else Timber.d("Downloader : Interruption detected for %s : %s", request.url, err.message)
@@ -231,10 +341,11 @@ class RequestQueueManager private constructor(
         Timber.d("Downloader : Settings download rate limit to %d/s", value)
     }
 
-    private val nbActiveRequests: Int
-        get() {
-            synchronized(activeRequests) { return activeRequests.size }
-        }
+    /**
+     * NB : Must be called under lock
+     */
+    private val nbWaitingRequests: Int
+        get() = lanes.values.sumOf { it.waitingRequests.size }
 
     /**
      * Return the number of parallel downloads (download thread count) chosen by the user
@@ -279,6 +390,9 @@ class RequestQueueManager private constructor(
     }
 
     companion object {
+        // Maximum number of hosts that can be downloaded from at the same time
+        private const val MAX_PARALLEL_HOSTS = 3
+
         @Volatile
         private var instance: RequestQueueManager? = null
 
@@ -13,6 +13,7 @@ import net.sf.sevenzipjbinding.ExtractAskMode
 import net.sf.sevenzipjbinding.ExtractOperationResult
 import net.sf.sevenzipjbinding.IArchiveExtractCallback
 import net.sf.sevenzipjbinding.IArchiveOpenCallback
+import net.sf.sevenzipjbinding.IInArchive
 import net.sf.sevenzipjbinding.IInStream
 import net.sf.sevenzipjbinding.ISeekableStream
 import net.sf.sevenzipjbinding.ISequentialOutStream
@@ -74,6 +75,14 @@ object ArchiveHelper {
 
     private const val BUFFER = 32 * 1024
 
+    // Maximum number of archives kept open
+    private const val MAX_OPEN_ARCHIVES = 3
+
+    // Archives kept open for their entries to be extracted without having to scan them again
+    // (e.g. while a book is being read)
+    // Key = archive Uri; entries are ordered from least to most recently used
+    private val openArchives = LinkedHashMap<String, OpenArchive>(0, 0.75f, true)
+
 
     fun getSupportedExtensions(): Set<String> {
         return SUPPORTED_EXTENSIONS
@@ -179,6 +188,10 @@ object ArchiveHelper {
         return result
     }
 
+    /**
+     * Extract the given entries from the given archive file to the app's disk cache
+     * NB : The archive is kept open for subsequent calls to be faster, until [closeArchives] is called
+     */
     @Throws(IOException::class)
     fun extractArchiveEntriesCached(
         context: Context,
@@ -188,12 +201,27 @@ object ArchiveHelper {
         onExtract: ((String, Uri) -> Unit)? = null,
         onComplete: (() -> Unit)? = null
     ) {
-        return extractArchiveEntries(
-            context, uri,
-            fileCreator = { targetFileName -> File(DiskCache.createFile(targetFileName).path!!) },
-            fileFinder = { targetFileName -> DiskCache.getFile(targetFileName) },
-            entriesToExtract, interrupt, onExtract, onComplete
-        )
+        val createdFileNames = HashSet<String>()
+        try {
+            return extractArchiveEntries(
+                context, uri,
+                fileCreator = { targetFileName ->
+                    createdFileNames.add(targetFileName)
+                    File(DiskCache.createFile(targetFileName).path!!)
+                },
+                fileFinder = { targetFileName -> DiskCache.getFile(targetFileName) },
+                entriesToExtract, interrupt,
+                { identifier, fileUri ->
+                    DiskCache.commitFile(fileUri)
+                    onExtract?.invoke(identifier, fileUri)
+                },
+                onComplete,
+                keepOpen = true
+            )
+        } finally {
+            // Discard the entries that haven't been extracted completely
+            createdFileNames.forEach { DiskCache.abortFile(it) }
+        }
     }
 
     @Throws(IOException::class)
@@ -230,17 +258,14 @@ object ArchiveHelper {
             entriesToExtract, null,
             callback, null
         )
-        // Hard cap to 4 seconds
-        val delay = 250
-        var nbPauses = 0
-        while (result.size < entriesToExtract.size && nbPauses++ < 4000 / delay) {
-            Helper.pause(delay)
-        }
+        // Extraction is over at that point; entries that couldn't be found are simply missing
         return result
     }
 
     /**
      * Extract the given entries from the given archive file
+     * NB : This call returns once extraction is over; onComplete is called right before it returns,
+     * including when none of the given entries could be found
      *
      * @param context          Context to be used
      * @param uri              Uri of the archive file to extract from
@@ -249,6 +274,7 @@ object ArchiveHelper {
      * @param entriesToExtract List of entries to extract; null to extract everything
      *      left = relative paths to the archive root
      *      right = internal identifier of the resource to extract (for remapping purposes)
+     * @param keepOpen         True to keep the archive open after extraction
      * @throws IOException If something horrible happens during I/O
      */
     @Throws(IOException::class)
@@ -260,40 +286,35 @@ object ArchiveHelper {
         entriesToExtract: List<Pair<String, String>>?,
         interrupt: AtomicBoolean?,
         onExtract: ((String, Uri) -> Unit)?,
-        onComplete: (() -> Unit)?
+        onComplete: (() -> Unit)?,
+        keepOpen: Boolean = false
     ) {
         Helper.assertNonUiThread()
-        var format: ArchiveFormat?
-        FileHelper.getInputStream(context, uri).use { fi ->
-            val header = ByteArray(8)
-            if (fi.read(header) < header.size) return
-            format = getTypeFromArchiveHeader(header)
-        }
-        if (null == format) return
         val fileNames: MutableMap<Int, String> = HashMap()
         val identifiers: MutableMap<Int, String> = HashMap()
 
         // TODO handle the case where the extracted elements would saturate disk space
         try {
-            DocumentFileRandomInStream(context, uri).use { stream ->
-                SevenZip.openInArchive(format, stream).use { inArchive ->
-                    val itemCount = inArchive.numberOfItems
-                    for (archiveIndex in 0 until itemCount) {
-                        val fileName = inArchive.getStringProperty(archiveIndex, PropID.PATH)
-                        // Selective extraction
-                        if (entriesToExtract != null) {
-                            for (entry in entriesToExtract) {
-                                if (entry.first.equals(fileName, ignoreCase = true)) {
-                                    // TL;DR - We don't care about folders
-                                    // If we were coding an all-purpose extractor we would have to create folders
-                                    // But Hentoid just wants to extract a bunch of files in one single place !
-                                    fileNames[archiveIndex] = fileName.replace(File.separator, "_")
-                                    identifiers[archiveIndex] = entry.second
-                                    break
-                                }
-                            }
-                        } else {
-                            fileNames[archiveIndex] = fileName.replace(File.separator, "_")
+            val openArchive = acquireArchive(context, uri, keepOpen) ?: return
+            try {
+                // An archive can't be read by multiple threads at once
+                synchronized(openArchive) {
+                    // Selective extraction
+                    if (entriesToExtract != null) {
+                        for (entry in entriesToExtract) {
+                            val archiveIndex =
+                                openArchive.entryIndexes[entry.first.lowercase()] ?: continue
+                            if (fileNames.containsKey(archiveIndex)) continue
+                            // TL;DR - We don't care about folders
+                            // If we were coding an all-purpose extractor we would have to create folders
+                            // But Hentoid just wants to extract a bunch of files in one single place !
+                            fileNames[archiveIndex] =
+                                openArchive.paths[archiveIndex].replace(File.separator, "_")
+                            identifiers[archiveIndex] = entry.second
+                        }
+                    } else {
+                        openArchive.paths.forEachIndexed { archiveIndex, path ->
+                            fileNames[archiveIndex] = path.replace(File.separator, "_")
                         }
                     }
                     val callback =
@@ -306,10 +327,17 @@ object ArchiveHelper {
                             onExtract,
                             onComplete
                         )
+                    // Nothing to extract => signal completion right away
+                    if (fileNames.isEmpty()) {
+                        onComplete?.invoke()
+                        return
+                    }
                     val indexes =
                         Helper.getPrimitiveArrayFromSet(fileNames.keys)
-                    inArchive.extract(indexes, false, callback)
+                    openArchive.archive.extract(indexes, false, callback)
                 }
+            } finally {
+                releaseArchive(openArchive)
             }
         } catch (e: SevenZipException) {
             Timber.w(e)
@@ -317,6 +345,99 @@ object ArchiveHelper {
         }
     }
 
+    /**
+     * Get the given archive, opening it if it isn't already open
+     * NB : [releaseArchive] has to be called once the archive isn't used anymore
+     *
+     * @param context  Context to be used
+     * @param uri      Uri of the archive file to open
+     * @param keepOpen True to keep the archive open after it has been released
+     * @return Open archive; null if the file is not a supported archive
+     */
+    @Throws(IOException::class, SevenZipException::class)
+    private fun acquireArchive(context: Context, uri: Uri, keepOpen: Boolean): OpenArchive? {
+        val key = uri.toString()
+        synchronized(openArchives) {
+            openArchives[key]?.let {
+                it.users++
+                return it
+            }
+        }
+
+        var format: ArchiveFormat?
+        FileHelper.getInputStream(context, uri).use { fi ->
+            val header = ByteArray(8)
+            if (fi.read(header) < header.size) return null
+            format = getTypeFromArchiveHeader(header)
+        }
+        if (null == format) return null
+        val stream = DocumentFileRandomInStream(context, uri)
+        var inArchive: IInArchive? = null
+        val result = try {
+            inArchive = SevenZip.openInArchive(format, stream)
+            OpenArchive(stream, inArchive)
+        } catch (e: SevenZipException) {
+            inArchive?.close()
+            stream.close()
+            throw e
+        }
+        result.users++
+        if (!keepOpen) return result
+
+        val victims = ArrayList<OpenArchive>()
+        val existing = synchronized(openArchives) {
+            // Another thread may have opened the same archive in the meantime
+            val existing = openArchives[key]
+            if (existing != null) {
+                existing.users++
+            } else {
+                result.isKept = true
+                openArchives[key] = result
+                val iterator = openArchives.values.iterator()
+                while (openArchives.size > MAX_OPEN_ARCHIVES && iterator.hasNext()) {
+                    val eldest = iterator.next()
+                    iterator.remove()
+                    eldest.isKept = false
+                    if (0 == eldest.users) victims.add(eldest)
+                }
+            }
+            existing
+        }
+        victims.forEach { it.close() }
+        if (existing != null) {
+            result.close()
+            return existing
+        }
+        return result
+    }
+
+    /**
+     * Release the given archive, closing it if it isn't kept open
+     */
+    private fun releaseArchive(archive: OpenArchive) {
+        val isClosable = synchronized(openArchives) {
+            archive.users--
+            0 == archive.users && !archive.isKept
+        }
+        if (isClosable) archive.close()
+    }
+
+    /**
+     * Close all archives that have been kept open
+     * NB : Archives that are being extracted are closed once extraction is over
+     */
+    fun closeArchives() {
+        val victims = ArrayList<OpenArchive>()
+        synchronized(openArchives) {
+            openArchives.values.forEach {
+                it.isKept = false
+                if (0 == it.users) victims.add(it)
+            }
+            openArchives.clear()
+        }
+        victims.forEach { it.close() }
+    }
+
     // ================= ZIP FILE CREATION
     /**
      * Add the given file to the given ZipOutputStream
@@ -377,6 +498,43 @@ object ArchiveHelper {
     // Describes an entry inside an archive
     data class ArchiveEntry(val path: String, val size: Long)
 
+    /**
+     * Open archive, along with the index of its entries
+     */
+    private class OpenArchive(
+        private val stream: DocumentFileRandomInStream,
+        val archive: IInArchive
+    ) {
+        // Path of each entry, by index
+        val paths: Array<String>
+
+        // Key = lowercase entry path; value = entry index
+        val entryIndexes: Map<String, Int>
+
+        // Number of extractions in progress; guarded by openArchives
+        var users = 0
+
+        // True if the archive is kept open once released; guarded by openArchives
+        var isKept = false
+
+        init {
+            paths = Array(archive.numberOfItems) { archive.getStringProperty(it, PropID.PATH) }
+            val indexes = HashMap<String, Int>(paths.size)
+            // Only the 1st entry with a given path is kept
+            paths.forEachIndexed { index, path -> indexes.getOrPut(path.lowercase()) { index } }
+            entryIndexes = indexes
+        }
+
+        fun close() {
+            try {
+                archive.close()
+                stream.close()
+            } catch (e: Exception) {
+                Timber.w(e)
+            }
+        }
+    }
+
     private class ArchiveOpenCallback : IArchiveOpenCallback {
         override fun setTotal(files: Long?, bytes: Long?) {
             Timber.v("Archive open, total work: $files files, $bytes bytes")
@@ -428,22 +586,37 @@ object ArchiveHelper {
             if (position + seekDelta > streamSize) position = streamSize
             if (seekDelta != 0L) {
                 try {
-                    if (seekDelta < 0) {
-                        // "skip" can only go forward, so we have to start over
-                        openUri()
-                        skipNBytes(position + seekDelta)
-                    } else {
-                        skipNBytes(seekDelta)
+                    // Jump directly to the target position when the file allows it
+                    if (!setChannelPosition(position + seekDelta)) {
+                        if (seekDelta < 0) {
+                            // "skip" can only go forward, so we have to start over
+                            openUri()
+                            skipNBytes(position + seekDelta)
+                        } else {
+                            skipNBytes(seekDelta)
+                        }
                     }
                 } catch (e: IOException) {
                     throw SevenZipException(e)
                 }
             }
             position += seekDelta
-            Timber.d("position : $position")
             return position
         }
 
+        /**
+         * Set the position of the underlying file channel
+         *
+         * @return True if the position has been set; false if the underlying file can't be positioned
+         */
+        private fun setChannelPosition(newPosition: Long): Boolean {
+            return try {
+                stream?.channel?.position(newPosition) != null
+            } catch (e: IOException) {
+                false
+            }
+        }
+
         // Taken from Java14's InputStream
         // as basic skip is limited by the size of its buffer
         @Throws(IOException::class)
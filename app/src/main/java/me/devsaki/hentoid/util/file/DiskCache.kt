@@ -2,31 +2,52 @@ package me.devsaki.hentoid.util.file
 
 import android.content.Context
 import android.net.Uri
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import me.devsaki.hentoid.BuildConfig
 import me.devsaki.hentoid.util.Helper
+import me.devsaki.hentoid.util.Settings
 import timber.log.Timber
+import java.io.BufferedWriter
 import java.io.File
+import java.io.FileWriter
 import java.io.IOException
-import java.time.Instant
 
 /**
  * The app's disk-based cache
+ *
+ * Entries are persisted across app launches using a journal file stored inside the cache folder,
+ * which lists the operations made on the cache :
+ *  - D key : entry has been created and its file is being written
+ *  - C size key : entry's file has been written completely
+ *  - R key : entry has been read
+ *  - X key : entry has been removed
+ *
+ * Entries that are still being written can't be looked up; they are discarded if their file
+ * can't be written, or on next launch if the app stops before they are complete
  */
 object DiskCache {
     private const val FOLDER_NAME = "disk_cache"
-    private const val SIZE_LIMIT_DEBUG = 50 * 1024 * 1024 // 50MB
-    private const val SIZE_LIMIT_PRODUCTION = 50 * 1024 * 1024 // 50MB
-    private val SIZE_LIMIT = if (BuildConfig.DEBUG) SIZE_LIMIT_DEBUG else SIZE_LIMIT_PRODUCTION
+    private const val JOURNAL_NAME = "journal"
+    private const val JOURNAL_HEADER = "hentoid-disk-cache 1"
 
-    // Key = URL
-    // Value.left = timestamp of last access
-    // Value.right = Uri of file
-    private val entries = HashMap<String, Pair<Long, Uri>>()
-    private var lastPurge = Instant.now().toEpochMilli()
+    // Minimum number of redundant journal lines before the journal is compacted
+    private const val JOURNAL_COMPACT_THRESHOLD = 2000
+
+    private class Entry(val file: File) {
+        // Size of the entry's file; -1 while it's being written
+        var size = -1L
+    }
+
+    // Key = cache key
+    // Entries are ordered from least to most recently used
+    private val entries = LinkedHashMap<String, Entry>(0, 0.75f, true)
+
+    // Key = file name; value = cache key of entries that are being written
+    private val pendingEntries = HashMap<String, String>()
+
+    private var usedStorage = 0L
+    private var sizeLimit = 0L
+
+    private var journal: BufferedWriter? = null
+    private var journalLines = 0
 
     private lateinit var folder: File
 
@@ -34,69 +55,231 @@ object DiskCache {
         Helper.assertNonUiThread()
         folder = FileHelper.getOrCreateCacheFolder(context, FOLDER_NAME)
             ?: throw IOException("Couldn't initialize cache folder $FOLDER_NAME")
-        if (!folder.deleteRecursively()) Timber.w("Couldn't empty cache folder $FOLDER_NAME")
-        folder = FileHelper.getOrCreateCacheFolder(context, FOLDER_NAME)
-            ?: throw IOException("Couldn't initialize cache folder $FOLDER_NAME")
+        sizeLimit = Settings.diskCacheSizeLimitMb * 1024L * 1024L
+        val victims: List<File>
         synchronized(entries) {
+            closeJournal()
             entries.clear()
-        }
-    }
-
-    private fun purgeIfNeeded() {
-        // Avoid straining the system
-        if (Instant.now().toEpochMilli() - lastPurge < 1000) return
-
-        CoroutineScope(Dispatchers.Default).launch {
-            val sortedEntries: MutableList<MutableMap.MutableEntry<String, Pair<Long, Uri>>> by lazy {
-                entries.entries.sortedBy { e -> e.value.first }.toMutableList()
-            }
-            withContext(Dispatchers.IO) {
-                var storageTaken = getUsedStorage()
-                while (storageTaken > SIZE_LIMIT) {
-                    if (sortedEntries.isEmpty()) break
-                    val oldestEntry = sortedEntries[0]
-                    synchronized(entries) {
-                        Timber.d("Disk cache : removing %s", oldestEntry.key)
-                        entries.remove(oldestEntry.key)
-                    }
-                    FileHelper.legacyFileFromUri(oldestEntry.value.second)?.let {
-                        storageTaken -= it.length()
-                        it.delete()
-                    }
-                    sortedEntries.removeAt(0)
-                }
-                lastPurge = Instant.now().toEpochMilli()
+            pendingEntries.clear()
+            usedStorage = 0
+            readJournal()
+            // Delete files that aren't tracked anymore (e.g. partially written files)
+            val trackedFiles = entries.values.mapTo(HashSet()) { it.file.name }
+            folder.listFiles()?.forEach {
+                if (it.name != JOURNAL_NAME && !trackedFiles.contains(it.name)) it.delete()
             }
+            victims = evict()
+            rewriteJournal()
         }
+        victims.forEach { it.delete() }
+        Timber.d("Disk cache : %d entries loaded (%d bytes)", entries.size, usedStorage)
     }
 
-    private fun getUsedStorage(): Long {
+    /**
+     * Remove all entries from the cache
+     */
+    fun clear(context: Context) {
         Helper.assertNonUiThread()
-        var result = 0L
-        folder.listFiles()?.forEach {
-            result += it.length()
+        if (!this::folder.isInitialized) init(context)
+        synchronized(entries) {
+            closeJournal()
+            if (!folder.deleteRecursively()) Timber.w("Couldn't empty cache folder $FOLDER_NAME")
+            folder = FileHelper.getOrCreateCacheFolder(context, FOLDER_NAME)
+                ?: throw IOException("Couldn't initialize cache folder $FOLDER_NAME")
+            entries.clear()
+            pendingEntries.clear()
+            usedStorage = 0
+            rewriteJournal()
         }
-        return result
     }
 
     fun createFile(key: String): Uri {
         Helper.assertNonUiThread()
         val targetFile = File(folder, Helper.hash64(key.encodeToByteArray()).toString())
         if (!targetFile.exists() && !targetFile.createNewFile()) throw IOException("Couldn't create file for key $key in cache folder $FOLDER_NAME")
-        val result = Uri.fromFile(targetFile)
         synchronized(entries) {
-            entries[key] = Pair(Instant.now().toEpochMilli(), result)
+            entries.remove(key)?.let { if (it.size > 0) usedStorage -= it.size }
+            entries[key] = Entry(targetFile)
+            pendingEntries[targetFile.name] = key
+            writeJournal("D $key", false)
         }
-        purgeIfNeeded()
-        return result
+        return Uri.fromFile(targetFile)
+    }
+
+    /**
+     * Signal the file of the entry at the given Uri has been written completely
+     * and is to be taken into account in the cache size
+     */
+    fun commitFile(uri: Uri) {
+        val file = FileHelper.legacyFileFromUri(uri) ?: return
+        val length = file.length()
+        val victims: List<File>
+        synchronized(entries) {
+            val key = pendingEntries.remove(file.name) ?: return
+            val entry = entries[key] ?: return
+            entry.size = length
+            usedStorage += length
+            writeJournal("C $length $key", true)
+            victims = evict()
+        }
+        victims.forEach { it.delete() }
+    }
+
+    /**
+     * Discard the entry of the given key if its file hasn't been written completely
+     * (e.g. because writing it has failed)
+     */
+    fun abortFile(key: String) {
+        val file: File
+        synchronized(entries) {
+            val entry = entries[key] ?: return
+            if (entry.size > -1) return
+            removeEntry(key)
+            file = entry.file
+        }
+        file.delete()
     }
 
     fun getFile(key: String): Uri? {
         synchronized(entries) {
+            // Also changes the position of the entry as it has just been asked for
             val entry = entries[key] ?: return null
-            // Change timestamp of existing entry as it has just been asked for
-            entries[key] = Pair(Instant.now().toEpochMilli(), entry.second)
-            return entry.second
+            // Entry is still being written
+            if (entry.size < 0) return null
+            // Files may have been removed by the system
+            if (!entry.file.exists()) {
+                removeEntry(key)
+                return null
+            }
+            writeJournal("R $key", false)
+            return Uri.fromFile(entry.file)
+        }
+    }
+
+    /**
+     * Remove least recently used entries until the cache fits its size limit
+     * NB : Must be called under lock; files to delete are returned to be deleted outside of it
+     *
+     * @return Files of the removed entries
+     */
+    private fun evict(): List<File> {
+        if (usedStorage <= sizeLimit) return emptyList()
+        val result = ArrayList<File>()
+        val iterator = entries.entries.iterator()
+        while (usedStorage > sizeLimit && iterator.hasNext()) {
+            val entry = iterator.next()
+            // Don't remove entries that are being written
+            if (entry.value.size < 0) continue
+            Timber.d("Disk cache : removing %s", entry.key)
+            iterator.remove()
+            usedStorage -= entry.value.size
+            result.add(entry.value.file)
+            writeJournal("X ${entry.key}", usedStorage <= sizeLimit || !iterator.hasNext())
+        }
+        return result
+    }
+
+    private fun removeEntry(key: String) {
+        val entry = entries.remove(key) ?: return
+        if (entry.size > 0) usedStorage -= entry.size
+        else pendingEntries.remove(entry.file.name)
+        writeJournal("X $key", true)
+    }
+
+    private fun readJournal() {
+        val journalFile = File(folder, JOURNAL_NAME)
+        if (!journalFile.exists()) return
+        try {
+            journalFile.bufferedReader().use { reader ->
+                if (reader.readLine() != JOURNAL_HEADER) return
+                reader.forEachLine { line -> readJournalLine(line) }
+            }
+        } catch (e: IOException) {
+            Timber.w(e)
+        }
+        // Discard entries that haven't been written completely
+        val iterator = entries.entries.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().value.size < 0) iterator.remove()
+        }
+    }
+
+    private fun readJournalLine(line: String) {
+        if (line.length < 3 || line[1] != ' ') return
+        when (line[0]) {
+            'D' -> {
+                val key = line.substring(2)
+                entries.remove(key)?.let { if (it.size > 0) usedStorage -= it.size }
+                entries[key] = Entry(File(folder, Helper.hash64(key.encodeToByteArray()).toString()))
+            }
+
+            'C' -> {
+                val separator = line.indexOf(' ', 2)
+                if (separator < 0) return
+                val size = line.substring(2, separator).toLongOrNull() ?: return
+                val entry = entries[line.substring(separator + 1)] ?: return
+                if (entry.size > 0) usedStorage -= entry.size
+                entry.size = size
+                usedStorage += size
+            }
+
+            'R' -> entries[line.substring(2)]
+            'X' -> entries.remove(line.substring(2))?.let { if (it.size > 0) usedStorage -= it.size }
+        }
+        journalLines++
+    }
+
+    /**
+     * Write a new journal containing only the current entries, from least to most recently used
+     * NB : Must be called under lock
+     */
+    private fun rewriteJournal() {
+        closeJournal()
+        val journalFile = File(folder, JOURNAL_NAME)
+        val tmpFile = File(folder, "$JOURNAL_NAME.tmp")
+        try {
+            BufferedWriter(FileWriter(tmpFile)).use { writer ->
+                writer.write(JOURNAL_HEADER)
+                writer.newLine()
+                entries.forEach { (key, entry) ->
+                    if (key.contains('\n') || key.contains('\r')) return@forEach
+                    writer.write(if (entry.size < 0) "D $key" else "C ${entry.size} $key")
+                    writer.newLine()
+                }
+            }
+            if (!tmpFile.renameTo(journalFile)) throw IOException("Couldn't replace cache journal")
+            journalLines = entries.size
+            journal = BufferedWriter(FileWriter(journalFile, true))
+        } catch (e: IOException) {
+            Timber.w(e)
+        }
+    }
+
+    /**
+     * NB : Must be called under lock
+     */
+    private fun writeJournal(line: String, flush: Boolean) {
+        // Keys with line breaks can't be journaled; they'll just be dropped on next launch
+        if (line.contains('\n') || line.contains('\r')) return
+        val writer = journal ?: return
+        try {
+            writer.write(line)
+            writer.newLine()
+            if (flush) writer.flush()
+            if (++journalLines > JOURNAL_COMPACT_THRESHOLD && journalLines > entries.size * 2)
+                rewriteJournal()
+        } catch (e: IOException) {
+            Timber.w(e)
+            closeJournal()
+        }
+    }
+
+    private fun closeJournal() {
+        try {
+            journal?.close()
+        } catch (e: IOException) {
+            Timber.w(e)
         }
+        journal = null
     }
-}
\ No newline at end of file
+}
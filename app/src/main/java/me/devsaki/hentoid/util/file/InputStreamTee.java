@@ -0,0 +1,153 @@
+package me.devsaki.hentoid.util.file;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits one InputStream into several InputStreams that can be read independently, at their own pace,
+ * from different threads
+ * <p>
+ * Data is read from the source stream only when a branch needs it, and is kept in a single buffer
+ * shared by all branches; each part of that buffer is released as soon as every branch has read it.
+ * Memory use is thus bounded by the distance between the fastest and the slowest branch,
+ * instead of the whole size of the source stream.
+ * <p>
+ * The source stream is closed when it has been entirely read or when all branches are closed
+ */
+public final class InputStreamTee {
+
+    private static final int CHUNK_SIZE = FileHelper.FILE_IO_BUFFER_SIZE;
+
+    private final InputStream source;
+    // Buffered data, as a list of chunks of CHUNK_SIZE bytes; the last one is being filled
+    private final List<byte[]> chunks = new ArrayList<>();
+    // Position of the 1st byte of the 1st chunk inside the source stream
+    private long start = 0;
+    // Position of the end of the buffered data inside the source stream
+    private long end = 0;
+    private boolean sourceClosed = false;
+    // Position of each branch inside the source stream; -1 if the branch is closed
+    private final long[] positions;
+
+    private InputStreamTee(@NonNull InputStream source, int nbBranches) {
+        this.source = source;
+        positions = new long[nbBranches];
+    }
+
+    /**
+     * Split the given InputStream into the given number of InputStreams
+     *
+     * @param source     Stream to split
+     * @param nbBranches Number of streams to create
+     * @return List containing the given number of InputStreams, all of them giving the data of the given stream
+     */
+    public static List<InputStream> split(@NonNull InputStream source, int nbBranches) {
+        InputStreamTee tee = new InputStreamTee(source, nbBranches);
+        List<InputStream> result = new ArrayList<>(nbBranches);
+        for (int i = 0; i < nbBranches; i++) result.add(tee.new Branch(i));
+        return result;
+    }
+
+    private synchronized int read(int branch, @NonNull byte[] b, int off, int len) throws IOException {
+        long position = positions[branch];
+        if (position < 0) throw new IOException("Stream closed");
+        if (0 == len) return 0;
+        if (position == end) {
+            if (sourceClosed || !fill()) return -1;
+        }
+        long relativePosition = position - start;
+        byte[] chunk = chunks.get((int) (relativePosition / CHUNK_SIZE));
+        int chunkOffset = (int) (relativePosition % CHUNK_SIZE);
+        int result = (int) Math.min(len, Math.min(end - position, CHUNK_SIZE - chunkOffset));
+        System.arraycopy(chunk, chunkOffset, b, off, result);
+        positions[branch] = position + result;
+        release();
+        return result;
+    }
+
+    private synchronized int available(int branch) throws IOException {
+        long position = positions[branch];
+        if (position < 0) throw new IOException("Stream closed");
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    private synchronized void close(int branch) throws IOException {
+        positions[branch] = -1;
+        release();
+    }
+
+    /**
+     * Read the next bytes of the source stream into the buffer
+     *
+     * @return False if the end of the source stream has been reached; true if not
+     */
+    private boolean fill() throws IOException {
+        int chunkOffset = (int) ((end - start) % CHUNK_SIZE);
+        if (0 == chunkOffset) chunks.add(new byte[CHUNK_SIZE]);
+        int read = source.read(chunks.get(chunks.size() - 1), chunkOffset, CHUNK_SIZE - chunkOffset);
+        if (read < 0) {
+            closeSource();
+            return false;
+        }
+        end += read;
+        return true;
+    }
+
+    /**
+     * Free the chunks that have been read by all opened branches
+     */
+    private void release() throws IOException {
+        long minPosition = Long.MAX_VALUE;
+        for (long position : positions) if (position >= 0) minPosition = Math.min(minPosition, position);
+        if (Long.MAX_VALUE == minPosition) { // All branches are closed
+            chunks.clear();
+            closeSource();
+            return;
+        }
+        while (!chunks.isEmpty() && start + CHUNK_SIZE <= minPosition && start + CHUNK_SIZE <= end) {
+            chunks.remove(0);
+            start += CHUNK_SIZE;
+        }
+    }
+
+    private void closeSource() throws IOException {
+        if (sourceClosed) return;
+        sourceClosed = true;
+        source.close();
+    }
+
+    private class Branch extends InputStream {
+        private final int index;
+        private final byte[] single = new byte[1];
+
+        Branch(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = InputStreamTee.this.read(index, single, 0, 1);
+            return (read < 0) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+            return InputStreamTee.this.read(index, b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return InputStreamTee.this.available(index);
+        }
+
+        @Override
+        public void close() throws IOException {
+            InputStreamTee.this.close(index);
+        }
+    }
+}
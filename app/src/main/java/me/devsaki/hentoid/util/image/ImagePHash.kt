@@ -1,10 +1,6 @@
 package me.devsaki.hentoid.util.image
 
 import android.graphics.Bitmap
-import android.graphics.Canvas
-import android.graphics.ColorMatrix
-import android.graphics.ColorMatrixColorFilter
-import android.graphics.Paint
 import kotlin.math.cos
 import kotlin.math.sqrt
 
@@ -15,7 +11,18 @@ import kotlin.math.sqrt
  * Based On: http://www.hackerfactor.com/blog/index.php?/archives/432-Looks-Like-It.html
  */
 class ImagePHash(val size: Int, private val smallerSize: Int) {
-    private lateinit var c: DoubleArray
+    // Normalization coefficients
+    private val c = DoubleArray(size)
+
+    // Precomputed DCT cosines : cosines[u * size + i] = cos((2i+1) / 2n * u * PI)
+    // Only the lowest frequencies are needed as the DCT is reduced afterwards
+    private val cosines = DoubleArray(smallerSize * size)
+
+    // Reusable work buffers
+    private val pixels = IntArray(size * size)
+    private val vals = DoubleArray(size * size)
+    private val rowDct = DoubleArray(smallerSize * size)
+    private val dctVals = DoubleArray(smallerSize * smallerSize)
 
     init {
         initCoefficients()
@@ -31,33 +38,39 @@ class ImagePHash(val size: Int, private val smallerSize: Int) {
             val similarityMask = (hash1 or hash2 and (hash1 and hash2).inv()).inv()
             return java.lang.Long.bitCount(similarityMask) * 1f / java.lang.Long.SIZE
         }
-    }
 
+        // Luminance coefficients used by ColorMatrix.setSaturation(0)
+        private const val LUM_R = 0.213f
+        private const val LUM_G = 0.715f
+        private const val LUM_B = 0.072f
 
-    fun calcPHash(imgIn: Bitmap): Long {
+        // Factor used by Skia to normalize 8-bit channels
+        private const val INV_255 = 1 / 255f
+    }
 
-        // Initializing coefficients
-        var img = imgIn
-        initCoefficients()
 
+    /**
+     * NB : Uses internal buffers; not thread-safe
+     */
+    fun calcPHash(imgIn: Bitmap): Long {
         /* 1. Reduce size.
          * Like Average Hash, pHash starts with a small image.
          * However, the image is larger than 8x8; 32x32 is a good size.
          * This is really done to simplify the DCT computation and not
          * because it is needed to reduce the high frequencies.
          */
-        img = resize(img, size, size)
+        val img = resize(imgIn, size, size)
+        img.getPixels(pixels, 0, size, 0, 0, size, size)
+        if (img != imgIn) img.recycle()
 
         /* 2. Reduce color.
          * The image is reduced to a grayscale just to further simplify
          * the number of computations.
          */
         var hash: Long = 0
-        img = grayscale(img)
-        val vals = Array(size) { DoubleArray(size) }
-        for (x in 0 until img.width) {
-            for (y in 0 until img.height) {
-                vals[x][y] = getBlue(img, x, y).toDouble()
+        for (x in 0 until size) {
+            for (y in 0 until size) {
+                vals[x * size + y] = luminance(pixels[y * size + x]).toDouble()
             }
         }
 
@@ -66,7 +79,7 @@ class ImagePHash(val size: Int, private val smallerSize: Int) {
      * and scalars. While JPEG uses an 8x8 DCT, this algorithm uses
      * a 32x32 DCT.
      */
-        val dctVals = applyDCT(vals)
+        applyDCT()
 
         /* 4. Reduce the DCT.
      * This is the magic step. While the DCT is 32x32, just keep the
@@ -82,10 +95,10 @@ class ImagePHash(val size: Int, private val smallerSize: Int) {
         var total = 0.0
         for (x in 0 until smallerSize) {
             for (y in 0 until smallerSize) {
-                total += dctVals[x][y]
+                total += dctVals[x * smallerSize + y]
             }
         }
-        total -= dctVals[0][0]
+        total -= dctVals[0]
         val avg = total / (smallerSize * smallerSize - 1).toDouble()
 
         /* 6. Further reduce the DCT.
@@ -102,11 +115,10 @@ class ImagePHash(val size: Int, private val smallerSize: Int) {
             for (y in 0 until smallerSize) {
                 if (x != 0 && y != 0) {
                     hash *= 2
-                    if (dctVals[x][y] > avg) hash++
+                    if (dctVals[x * smallerSize + y] > avg) hash++
                 }
             } // Inner loop
         } // Outer Loop
-        // img not null
         return hash
     }
 
@@ -115,49 +127,59 @@ class ImagePHash(val size: Int, private val smallerSize: Int) {
         return Bitmap.createScaledBitmap(bm, newWidth, newHeight, false)
     }
 
-    // TODO optimize by using OpenGL
-    private fun grayscale(orginalBitmap: Bitmap): Bitmap {
-        val colorMatrix = ColorMatrix()
-        colorMatrix.setSaturation(0f)
-        val colorMatrixFilter = ColorMatrixColorFilter(colorMatrix)
-        val blackAndWhiteBitmap = orginalBitmap.copy(Bitmap.Config.ARGB_8888, true)
-        val paint = Paint()
-        paint.colorFilter = colorMatrixFilter
-        val canvas = Canvas(blackAndWhiteBitmap)
-        canvas.drawBitmap(blackAndWhiteBitmap, 0f, 0f, paint)
-        return blackAndWhiteBitmap
-    }
-
-    // TODO optimize by using OpenGL
-    private fun getBlue(img: Bitmap, x: Int, y: Int): Int {
-        return img.getPixel(x, y) and 0xff
+    /**
+     * Compute the grayscale value of the given ARGB pixel the same way
+     * a desaturating ColorMatrix does, without having to copy the bitmap
+     * NB : Follows Skia's float pipeline : normalized channels, matrix rows evaluated
+     * from the last column to the first, clamping and rounding half to even
+     */
+    private fun luminance(pixel: Int): Int {
+        val r = ((pixel shr 16) and 0xff) * INV_255
+        val g = ((pixel shr 8) and 0xff) * INV_255
+        val b = (pixel and 0xff) * INV_255
+        val lum = (r * LUM_R + (g * LUM_G + b * LUM_B)).coerceIn(0f, 1f)
+        return Math.rint((lum * 255f).toDouble()).toInt()
     }
 
     // DCT function stolen from http://stackoverflow.com/questions/4240490/problems-with-dct-and-idct-algorithm-in-java
 
     private fun initCoefficients() {
-        c = DoubleArray(size)
         for (i in 1 until size) {
             c[i] = 1.0
         }
         c[0] = 1 / sqrt(2.0)
+        val n = size
+        for (u in 0 until smallerSize) {
+            for (i in 0 until n) {
+                cosines[u * n + i] = cos((2 * i + 1) / (2.0 * n) * u * Math.PI)
+            }
+        }
     }
 
-    private fun applyDCT(fIn: Array<DoubleArray>): Array<DoubleArray> {
+    /**
+     * Separable DCT of vals into dctVals, restricted to the lowest frequencies
+     * - Rows : rowDct[u][j] = sum_i(cos(u, i) * vals[i][j])
+     * - Columns : dctVals[u][v] = c[u] * c[v] / 4 * sum_j(cos(v, j) * rowDct[u][j])
+     */
+    private fun applyDCT() {
         val n = size
-        val f = Array(n) { DoubleArray(n) }
-        for (u in 0 until n) {
-            for (v in 0 until n) {
+        for (u in 0 until smallerSize) {
+            for (j in 0 until n) {
                 var sum = 0.0
                 for (i in 0 until n) {
-                    for (j in 0 until n) {
-                        sum += cos((2 * i + 1) / (2.0 * n) * u * Math.PI) * cos((2 * j + 1) / (2.0 * n) * v * Math.PI) * fIn[i][j]
-                    }
+                    sum += cosines[u * n + i] * vals[i * n + j]
+                }
+                rowDct[u * n + j] = sum
+            }
+        }
+        for (u in 0 until smallerSize) {
+            for (v in 0 until smallerSize) {
+                var sum = 0.0
+                for (j in 0 until n) {
+                    sum += cosines[v * n + j] * rowDct[u * n + j]
                 }
-                sum *= c[u] * c[v] / 4.0
-                f[u][v] = sum
+                dctVals[u * smallerSize + v] = sum * (c[u] * c[v] / 4.0)
             }
         }
-        return f
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package me.devsaki.hentoid.util.network;
+
+import androidx.annotation.NonNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+
+import me.devsaki.hentoid.util.MaxSizeHashMap;
+import okhttp3.Dns;
+
+/**
+ * DNS resolver that keeps the results of another resolver in memory for a given time
+ * <p>
+ * Avoids querying the underlying resolver (e.g. a DNS over HTTPS provider) each time
+ * a new connection is opened to the same host. Failed lookups aren't kept.
+ * <p>
+ * Thread-safe
+ */
+public final class CachingDns implements Dns {
+
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long expiry;
+
+        Entry(@NonNull List<InetAddress> addresses, long expiry) {
+            this.addresses = addresses;
+            this.expiry = expiry;
+        }
+    }
+
+    private final Dns delegate;
+    private final long ttlMs;
+    // Entries are ordered from oldest to newest
+    private final Map<String, Entry> entries;
+
+
+    /**
+     * @param delegate   Resolver to get the addresses from
+     * @param ttlMs      Time during which resolved addresses are kept, in milliseconds
+     * @param maxEntries Maximum number of hosts to keep; the oldest ones are forgotten first
+     */
+    public CachingDns(@NonNull Dns delegate, long ttlMs, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlMs = ttlMs;
+        entries = new MaxSizeHashMap<>(maxEntries);
+    }
+
+    @NonNull
+    @Override
+    public List<InetAddress> lookup(@NonNull String hostname) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(hostname);
+            if (entry != null && entry.expiry > now) return entry.addresses;
+        }
+        // Don't hold the lock while querying the underlying resolver
+        List<InetAddress> result = delegate.lookup(hostname);
+        synchronized (entries) {
+            // Re-insert to keep entries ordered by age
+            entries.remove(hostname);
+            entries.put(hostname, new Entry(result, now + ttlMs));
+        }
+        return result;
+    }
+
+    /**
+     * Forget all resolved addresses
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package me.devsaki.hentoid.util.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Collects connection usage statistics per host, to tell how well connections are reused
+ * (e.g. multiplexed calls on HTTP/2 connections)
+ * <p>
+ * Thread-safe
+ */
+public final class ConnectionStats extends EventListener {
+
+    /**
+     * Connection usage statistics of a single host
+     */
+    public static final class HostStats {
+        // Number of connections opened to the host
+        final AtomicInteger connections = new AtomicInteger(0);
+        // Number of calls made to the host
+        final AtomicInteger calls = new AtomicInteger(0);
+        // Number of calls made to the host over HTTP/2
+        final AtomicInteger http2Calls = new AtomicInteger(0);
+
+        public int getConnections() {
+            return connections.get();
+        }
+
+        public int getCalls() {
+            return calls.get();
+        }
+
+        public int getHttp2Calls() {
+            return http2Calls.get();
+        }
+
+        /**
+         * @return Number of calls that have reused an already opened connection
+         */
+        public int getReusedCalls() {
+            return Math.max(0, calls.get() - connections.get());
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format("%d calls (%d over HTTP/2, %d reused) on %d connections", getCalls(), getHttp2Calls(), getReusedCalls(), getConnections());
+        }
+    }
+
+    private final Map<String, HostStats> stats = new ConcurrentHashMap<>();
+
+
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy, @Nullable Protocol protocol) {
+        getStats(call).connections.incrementAndGet();
+    }
+
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        HostStats hostStats = getStats(call);
+        hostStats.calls.incrementAndGet();
+        if (Protocol.HTTP_2 == connection.protocol()) hostStats.http2Calls.incrementAndGet();
+    }
+
+    private HostStats getStats(@NonNull Call call) {
+        return stats.computeIfAbsent(call.request().url().host(), h -> new HostStats());
+    }
+
+    /**
+     * @return Statistics of all hosts, indexed by host name
+     */
+    public Map<String, HostStats> getAll() {
+        return new HashMap<>(stats);
+    }
+
+    public void clear() {
+        stats.clear();
+    }
+}
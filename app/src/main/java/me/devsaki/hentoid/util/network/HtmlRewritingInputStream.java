@@ -0,0 +1,1001 @@
+package me.devsaki.hentoid.util.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.jsoup.parser.Parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.devsaki.hentoid.util.UrlSuffixIndex;
+
+/**
+ * InputStream that rewrites the HTML document given by another InputStream as it is being read, without parsing it entirely :
+ * - Removes the elements matching the given CSS selectors
+ * - Removes the scripts containing any of the given sequences
+ * - Adds the given CSS at the end of the document's head
+ * - Marks the book cards whose link leads to a downloaded or merged book
+ * <p>
+ * Only simple CSS selectors are supported (tag, classes, id and attributes, without combinators nor pseudo-classes);
+ * use {@link #isSupported(List)} to check them beforehand.
+ * <p>
+ * The document is processed byte by byte, which works with any ASCII-compatible charset;
+ * everything that isn't rewritten is forwarded as is
+ * <p>
+ * When marking book cards, the elements that may have to be marked are held back until they can't be anymore,
+ * i.e. up to <code>bookCardDepth</code> levels above the link being read
+ */
+public final class HtmlRewritingInputStream extends InputStream {
+
+    // Elements whose contents aren't parsed as HTML
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<>(Arrays.asList("script", "style", "textarea", "title", "iframe", "noembed", "noframes", "xmp"));
+    // Elements that have no contents nor end tag
+    private static final Set<String> VOID_ELEMENTS = new HashSet<>(Arrays.asList("area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr"));
+
+    // Implied end tags, as per the HTML tree construction rules
+    // Elements whose end tag can be omitted
+    private static final Set<String> OPTIONAL_END_TAG_ELEMENTS = new HashSet<>(Arrays.asList("p", "li", "dt", "dd", "option", "optgroup", "tr", "td", "th", "thead", "tbody", "tfoot", "caption", "colgroup", "rt", "rp"));
+    // End tags of the elements that can contain elements whose end tag can be omitted
+    private static final Set<String> PARENT_END_TAGS = new HashSet<>(Arrays.asList("address", "article", "aside", "blockquote", "body", "button", "caption", "center", "datalist", "dd", "details", "dialog", "dir", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hgroup", "html", "li", "listing", "main", "menu", "nav", "ol", "optgroup", "pre", "ruby", "section", "select", "summary", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "ul"));
+    // Start tags that close an open p element
+    private static final Set<String> P_CLOSERS = new HashSet<>(Arrays.asList("address", "article", "aside", "blockquote", "center", "dd", "details", "dialog", "dir", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hgroup", "hr", "li", "listing", "main", "menu", "nav", "ol", "p", "plaintext", "pre", "section", "summary", "table", "ul", "xmp"));
+    private static final Set<String> P = Collections.singleton("p");
+    private static final Set<String> LI = Collections.singleton("li");
+    private static final Set<String> DD_DT = new HashSet<>(Arrays.asList("dd", "dt"));
+    private static final Set<String> CELLS = new HashSet<>(Arrays.asList("td", "th"));
+    private static final Set<String> TR = Collections.singleton("tr");
+    private static final Set<String> TABLE_SECTIONS = new HashSet<>(Arrays.asList("thead", "tbody", "tfoot", "caption", "colgroup"));
+    private static final Set<String> RUBY_TEXT = new HashSet<>(Arrays.asList("rt", "rp"));
+    // Elements that stop the search for the element to close
+    private static final Set<String> TABLE_SCOPE = new HashSet<>(Arrays.asList("html", "table", "template"));
+    private static final Set<String> ROW_SCOPE = new HashSet<>(Arrays.asList("html", "table", "template", "tr"));
+    private static final Set<String> SECTION_SCOPE = new HashSet<>(Arrays.asList("html", "table", "template", "thead", "tbody", "tfoot"));
+    private static final Set<String> RUBY_SCOPE = new HashSet<>(Arrays.asList("applet", "caption", "html", "marquee", "object", "ruby", "table", "td", "template", "th"));
+    private static final Set<String> BUTTON_SCOPE = new HashSet<>(Arrays.asList("applet", "button", "caption", "html", "marquee", "object", "table", "td", "template", "th"));
+    private static final Set<String> LIST_ITEM_SCOPE = new HashSet<>(Arrays.asList("applet", "area", "article", "aside", "base", "basefont", "bgsound", "blockquote", "body", "br", "button", "caption", "center", "col", "colgroup", "dd", "details", "dir", "dl", "dt", "embed", "fieldset", "figcaption", "figure", "footer", "form", "frame", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hgroup", "hr", "html", "iframe", "img", "input", "li", "link", "listing", "main", "marquee", "menu", "meta", "nav", "noembed", "noframes", "noscript", "object", "ol", "param", "plaintext", "pre", "script", "section", "select", "source", "style", "summary", "table", "tbody", "td", "template", "textarea", "tfoot", "th", "thead", "title", "tr", "track", "ul", "wbr", "xmp"));
+
+    private static final Pattern SIMPLE_SELECTOR = Pattern.compile("^([a-zA-Z][\\w-]*|\\*)?((\\.[\\w-]+)|(#[\\w-]+)|(\\[\\s*[\\w-]+\\s*(([~^$*]?=)\\s*('[^']*'|\"[^\"]*\"|[^\\]\\s'\"]+)\\s*)?\\]))*$");
+    private static final Pattern SELECTOR_PART = Pattern.compile("(\\.[\\w-]+)|(#[\\w-]+)|\\[\\s*([\\w-]+)\\s*(?:([~^$*]?=)\\s*('[^']*'|\"[^\"]*\"|[^\\]\\s'\"]+)\\s*)?\\]");
+
+    // Tags that are larger than that are most probably not tags; they are forwarded as text
+    private static final int MAX_TAG_LENGTH = 64 * 1024;
+
+    // Number of bytes to read before looking for a BOM
+    private static final int BOM_DETECTION_LENGTH = 3;
+
+    // Maximum length of the document held back while waiting for a link with an image
+    private static final int MAX_PENDING_LINK_LENGTH = 64 * 1024;
+
+    // CSS classes of marked book cards (see downloaded.css)
+    private static final String DOWNLOADED_CLASS = "watermarked";
+    private static final String MERGED_CLASS = "watermarked-merged";
+
+    private enum State {
+        TEXT, TAG, COMMENT, RAW_TEXT
+    }
+
+    private final InputStream source;
+    private final List<SimpleSelector> removableElements;
+    private final List<String> jsContentBlacklist;
+    private String headCss;
+    @Nullable
+    private final BookCardMarking bookCardMarking;
+
+    private final byte[] readBuffer = new byte[8192];
+    private byte[] output = new byte[16384];
+    private int outputStart = 0;
+    private int outputEnd = 0;
+    // Position of the 1st byte of output in the rewritten document
+    private long outputOffset = 0;
+    // Position of the end of the part of the rewritten document that can be read
+    private long releasedEnd = 0;
+    private boolean isEof = false;
+    private boolean isFirstRead = true;
+    // Number of bytes at the beginning of readBuffer that have been read, but not processed yet
+    private int headLength = 0;
+    // True if the document can't be processed and has to be forwarded as is
+    private boolean isPassthrough = false;
+
+    private State state = State.TEXT;
+    // Tag, comment or raw text element being read
+    private final StringBuilder pending = new StringBuilder();
+    private char quote = 0;
+    private boolean afterEquals = false;
+    // Name of the raw text element being read, and whether it has to be removed
+    private String rawTextName = "";
+    private boolean isRawTextRemoved = false;
+    // Names of the element being removed and of its open descendants, outermost first; empty if none
+    private final List<String> removedElements = new ArrayList<>();
+
+    // Elements that are open at the current position, outermost first (only tracked when marking book cards)
+    private final List<OpenElement> openElements = new ArrayList<>();
+    // Simplified URLs of the links read so far
+    private final Set<String> knownLinkUrls = new HashSet<>();
+    // Simplified URLs of the links whose book card has been marked through a linked image
+    private final Set<String> imageMarkedUrls = new HashSet<>();
+    // Link being read that leads to a book to mark; null if none
+    private MarkedLink markedLink = null;
+    // Links without image that will be marked unless a link to the same book with an image comes first, in reading order
+    private final List<MarkedLink> pendingLinks = new ArrayList<>();
+
+    /**
+     * Book cards to mark, identified by the URL of their link
+     */
+    public static final class BookCardMarking {
+        private final UrlSuffixIndex downloadedUrls;
+        private final UrlSuffixIndex mergedUrls;
+        private final int bookCardDepth;
+        private final Set<String> excludedParentClasses;
+
+        /**
+         * @param downloadedUrls        Urls of the books to mark as downloaded
+         * @param mergedUrls            Urls of the books to mark as merged
+         * @param bookCardDepth         Number of levels above a linked image the book card is
+         * @param excludedParentClasses CSS classes of the elements whose links aren't book cards
+         */
+        public BookCardMarking(
+                @NonNull UrlSuffixIndex downloadedUrls,
+                @NonNull UrlSuffixIndex mergedUrls,
+                int bookCardDepth,
+                @NonNull Set<String> excludedParentClasses) {
+            this.downloadedUrls = downloadedUrls;
+            this.mergedUrls = mergedUrls;
+            this.bookCardDepth = Math.max(1, bookCardDepth);
+            this.excludedParentClasses = excludedParentClasses;
+        }
+    }
+
+    /**
+     * Link that leads to a book to mark
+     */
+    private static class MarkedLink {
+        private final OpenElement link;
+        private final String url;
+        // CSS classes to mark the book card with
+        private final List<String> classes;
+        // True if it's the 1st link to its book
+        private final boolean isFirst;
+        // Element the link belongs to; links to the same book with an image are waited for until it ends
+        @Nullable
+        private final OpenElement container;
+
+        MarkedLink(@NonNull OpenElement link, @NonNull String url, @NonNull List<String> classes, boolean isFirst, @Nullable OpenElement container) {
+            this.link = link;
+            this.url = url;
+            this.classes = classes;
+            this.isFirst = isFirst;
+            this.container = container;
+        }
+    }
+
+    /**
+     * Element whose start tag has been read, but not its end tag
+     */
+    private static class OpenElement {
+        private final String name;
+        private final String classes;
+        // Position of the rewritten document where CSS classes can be added to the element
+        private long classPosition;
+        // True if the element has a class attribute CSS classes can be added to; false if it has to be created
+        private boolean hasClassAttribute;
+        private final Set<String> addedClasses = new HashSet<>();
+
+        OpenElement(@NonNull String name, @Nullable String classes) {
+            this.name = name;
+            this.classes = (null == classes) ? "" : classes;
+        }
+
+        boolean hasAnyClass(@NonNull Set<String> classNames) {
+            if (classes.isEmpty() || classNames.isEmpty()) return false;
+            for (String c : classes.split("\\s+"))
+                if (classNames.contains(c)) return true;
+            return false;
+        }
+    }
+
+
+    /**
+     * Indicate whether the given CSS selectors can be processed by HtmlRewritingInputStream
+     *
+     * @param selectors CSS selectors to test
+     * @return True if the given CSS selectors are all supported
+     */
+    public static boolean isSupported(@Nullable List<String> selectors) {
+        if (null == selectors) return true;
+        for (String s : selectors)
+            for (String part : s.split(","))
+                if (!SIMPLE_SELECTOR.matcher(part.trim()).matches()) return false;
+        return true;
+    }
+
+    /**
+     * @param source             Stream containing the HTML document to rewrite; will be closed along with this stream
+     * @param headCss            CSS to add at the end of the document's head; null if none
+     * @param removableElements  CSS selectors of the elements to remove; null if none
+     * @param jsContentBlacklist Sequences that identify the scripts to remove; null if none
+     */
+    public HtmlRewritingInputStream(
+            @NonNull InputStream source,
+            @Nullable String headCss,
+            @Nullable List<String> removableElements,
+            @Nullable List<String> jsContentBlacklist) {
+        this(source, headCss, removableElements, jsContentBlacklist, null);
+    }
+
+    /**
+     * @param source             Stream containing the HTML document to rewrite; will be closed along with this stream
+     * @param headCss            CSS to add at the end of the document's head; null if none
+     * @param removableElements  CSS selectors of the elements to remove; null if none
+     * @param jsContentBlacklist Sequences that identify the scripts to remove; null if none
+     * @param bookCardMarking    Book cards to mark; null if none
+     */
+    public HtmlRewritingInputStream(
+            @NonNull InputStream source,
+            @Nullable String headCss,
+            @Nullable List<String> removableElements,
+            @Nullable List<String> jsContentBlacklist,
+            @Nullable BookCardMarking bookCardMarking) {
+        if (!isSupported(removableElements))
+            throw new IllegalArgumentException("Unsupported selector in " + removableElements);
+        this.source = source;
+        // Inserted as UTF-8 bytes, each byte being processed as a char
+        if (headCss != null && !headCss.isEmpty())
+            this.headCss = new String(("<style type=\"text/css\">" + headCss + "</style>").getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        this.removableElements = new ArrayList<>();
+        if (removableElements != null)
+            for (String s : removableElements)
+                for (String part : s.split(","))
+                    this.removableElements.add(new SimpleSelector(part.trim()));
+        this.jsContentBlacklist = new ArrayList<>();
+        if (jsContentBlacklist != null)
+            for (String s : jsContentBlacklist) this.jsContentBlacklist.add(s.toLowerCase(Locale.ROOT));
+        this.bookCardMarking = bookCardMarking;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillOutput()) return -1;
+        return output[outputStart++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        if (0 == len) return 0;
+        if (!fillOutput()) return -1;
+        int result = Math.min(len, readableEnd() - outputStart);
+        System.arraycopy(output, outputStart, b, off, result);
+        outputStart += result;
+        return result;
+    }
+
+    @Override
+    public int available() {
+        return readableEnd() - outputStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Process the source stream until there's something to read
+     *
+     * @return False if the end of the rewritten document has been reached; true if not
+     */
+    private boolean fillOutput() throws IOException {
+        while (outputStart == readableEnd() && !isEof) {
+            // Forget what has already been read
+            if (outputStart > 0) {
+                System.arraycopy(output, outputStart, output, 0, outputEnd - outputStart);
+                outputEnd -= outputStart;
+                outputOffset += outputStart;
+                outputStart = 0;
+            }
+            int read = source.read(readBuffer, headLength, readBuffer.length - headLength);
+            if (isFirstRead) {
+                // Wait for the first bytes of the document to look for a BOM
+                if (read > 0) headLength += read;
+                if (read >= 0 && headLength < BOM_DETECTION_LENGTH) continue;
+                detectBom(headLength);
+                processInput(headLength);
+                headLength = 0;
+                if (read < 0) isEof = true;
+            } else if (read < 0) {
+                isEof = true;
+            } else {
+                processInput(read);
+            }
+            if (isEof) flush();
+            releaseOutput();
+        }
+        return outputStart < readableEnd();
+    }
+
+    /**
+     * Set the stream to passthrough mode if the document starts with a BOM of a charset that isn't ASCII-compatible
+     *
+     * @param length Number of bytes available at the beginning of readBuffer
+     */
+    private void detectBom(int length) {
+        isFirstRead = false;
+        if (length < 2) return;
+        // UTF-16 documents aren't ASCII-compatible
+        int bom = ((readBuffer[0] & 0xFF) << 8) | (readBuffer[1] & 0xFF);
+        isPassthrough = (0xFEFF == bom || 0xFFFE == bom);
+    }
+
+    /**
+     * Process the given number of bytes at the beginning of readBuffer
+     */
+    private void processInput(int length) {
+        for (int i = 0; i < length; i++) {
+            char c = (char) (readBuffer[i] & 0xFF);
+            if (isPassthrough) emit(c);
+            else process(c);
+        }
+    }
+
+    private int readableEnd() {
+        return (int) (releasedEnd - outputOffset);
+    }
+
+    /**
+     * Make the output readable up to the 1st element that may still have to be marked
+     */
+    private void releaseOutput() {
+        long end = outputOffset + outputEnd;
+        if (bookCardMarking != null && !isEof && !isPassthrough) {
+            // Elements that may be marked : the ancestors of the link being read,
+            // or the ancestors of the next link to come (it will be a child of the innermost element)
+            int nbAncestors = bookCardMarking.bookCardDepth - 1;
+            int from = (markedLink != null) ? openElements.indexOf(markedLink.link) - nbAncestors : openElements.size() - nbAncestors;
+            // Links waiting for a link with an image come first; stop waiting when too much of the document is held back
+            while (!pendingLinks.isEmpty() && end - pendingLinks.get(0).link.classPosition > MAX_PENDING_LINK_LENGTH) {
+                MarkedLink pending = pendingLinks.remove(0);
+                addClasses(pending.link, pending.classes);
+                end = outputOffset + outputEnd;
+            }
+            if (!pendingLinks.isEmpty()) end = Math.min(end, pendingLinks.get(0).link.classPosition);
+            for (int i = Math.max(0, from); i < openElements.size(); i++) {
+                long position = openElements.get(i).classPosition;
+                if (position >= releasedEnd) {
+                    end = Math.min(end, position);
+                    break;
+                }
+            }
+        }
+        releasedEnd = Math.max(releasedEnd, end);
+    }
+
+    private void process(char c) {
+        switch (state) {
+            case TEXT:
+                if ('<' == c) {
+                    pending.append(c);
+                    state = State.TAG;
+                    quote = 0;
+                    afterEquals = false;
+                } else {
+                    emit(c);
+                }
+                break;
+            case TAG:
+                pending.append(c);
+                if (2 == pending.length() && !isAsciiLetter(c) && c != '/' && c != '!' && c != '?') {
+                    // Not a tag, just text
+                    emitPending();
+                    state = State.TEXT;
+                } else if (4 == pending.length() && pending.toString().equals("<!--")) {
+                    state = State.COMMENT;
+                } else if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if ('>' == c) {
+                    state = State.TEXT;
+                    String tag = pending.toString();
+                    pending.setLength(0);
+                    processTag(tag);
+                    // Done after each tag for the marked elements not to depend on how the source is read
+                    releaseOutput();
+                } else if ('=' == c) {
+                    afterEquals = true;
+                } else if (afterEquals && ('"' == c || '\'' == c)) {
+                    quote = c;
+                    afterEquals = false;
+                } else if (!Character.isWhitespace(c)) {
+                    afterEquals = false;
+                }
+                if (State.TAG == state && pending.length() > MAX_TAG_LENGTH) {
+                    emitPending();
+                    state = State.TEXT;
+                }
+                break;
+            case COMMENT:
+                pending.append(c);
+                int length = pending.length();
+                if ('>' == c && length >= 7 && '-' == pending.charAt(length - 2) && '-' == pending.charAt(length - 3)) {
+                    emitPending();
+                    state = State.TEXT;
+                }
+                break;
+            case RAW_TEXT:
+                pending.append(c);
+                if ('>' == c && isRawTextEnd()) {
+                    processRawText();
+                    state = State.TEXT;
+                }
+                break;
+            default:
+                // Nothing
+        }
+    }
+
+    // Bytes are processed as Latin-1 chars; non-ASCII letters are parts of multi-byte chars
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Process the given complete tag
+     *
+     * @param tag Tag to process, including its delimiters
+     */
+    private void processTag(@NonNull String tag) {
+        // Declarations, processing instructions
+        if (tag.startsWith("<!") || tag.startsWith("<?")) {
+            emit(tag);
+            return;
+        }
+        boolean isEndTag = tag.startsWith("</");
+        int nameStart = isEndTag ? 2 : 1;
+        int nameEnd = nameStart;
+        while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)) && tag.charAt(nameEnd) != '/' && tag.charAt(nameEnd) != '>')
+            nameEnd++;
+        String name = tag.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+        boolean isSelfClosing = !isEndTag && (VOID_ELEMENTS.contains(name) || tag.endsWith("/>"));
+
+        // Inside an element being removed
+        if (!removedElements.isEmpty() && processRemovedTag(tag, name, isEndTag, isSelfClosing)) return;
+
+        // Add custom CSS at the end of the head
+        if (headCss != null && ((isEndTag && name.equals("head")) || (!isEndTag && name.equals("body")))) {
+            emit(headCss);
+            headCss = null;
+        }
+
+        if (isEndTag) {
+            emit(tag);
+            if (bookCardMarking != null) closeElement(name);
+            return;
+        }
+
+        boolean isRemoved = false;
+        Map<String, String> attributes = (!removableElements.isEmpty() || bookCardMarking != null) ? parseAttributes(tag, nameEnd) : null;
+        if (!removableElements.isEmpty()) {
+            for (SimpleSelector selector : removableElements)
+                if (selector.matches(name, attributes)) {
+                    isRemoved = true;
+                    break;
+                }
+        }
+
+        if (RAW_TEXT_ELEMENTS.contains(name) && !isSelfClosing) {
+            startRawText(tag, name, isRemoved);
+        } else if (isRemoved) {
+            if (!isSelfClosing) removedElements.add(name);
+        } else if (bookCardMarking != null) {
+            processMarkableTag(tag, name, nameEnd, isSelfClosing, attributes);
+        } else {
+            emit(tag);
+        }
+    }
+
+    /**
+     * Process the given tag, read inside an element being removed
+     *
+     * @param tag           Tag to process, including its delimiters
+     * @param name          Lowercase name of the element
+     * @param isEndTag      True if the tag is an end tag
+     * @param isSelfClosing True if the element has no contents nor end tag
+     * @return True if the tag belongs to the removed element; false if the removed element has ended before it
+     */
+    private boolean processRemovedTag(@NonNull String tag, @NonNull String name, boolean isEndTag, boolean isSelfClosing) {
+        if (isEndTag) {
+            int index = removedElements.lastIndexOf(name);
+            if (index > -1) {
+                removedElements.subList(index, removedElements.size()).clear();
+                return true;
+            }
+            // Elements whose end tag can be omitted end with their parent
+            if (OPTIONAL_END_TAG_ELEMENTS.contains(removedElements.get(0)) && PARENT_END_TAGS.contains(name)) {
+                removedElements.clear();
+                return false;
+            }
+            return true; // Stray end tag
+        }
+
+        closeImpliedElements(removedElements, name);
+        if (removedElements.isEmpty()) return false;
+        if (RAW_TEXT_ELEMENTS.contains(name)) {
+            if (!isSelfClosing) startRawText(tag, name, true);
+        } else if (!isSelfClosing) {
+            removedElements.add(name);
+        }
+        return true;
+    }
+
+    /**
+     * Close the elements whose end tag is implied by the given start tag
+     *
+     * @param elements Names of the open elements, outermost first
+     * @param name     Lowercase name of the element that starts
+     */
+    private static void closeImpliedElements(@NonNull List<String> elements, @NonNull String name) {
+        if (P_CLOSERS.contains(name)) closeInScope(elements, P, BUTTON_SCOPE);
+        switch (name) {
+            case "li":
+                closeInScope(elements, LI, LIST_ITEM_SCOPE);
+                break;
+            case "dd":
+            case "dt":
+                closeInScope(elements, DD_DT, LIST_ITEM_SCOPE);
+                break;
+            case "td":
+            case "th":
+                closeInScope(elements, CELLS, ROW_SCOPE);
+                break;
+            case "tr":
+                closeInScope(elements, CELLS, ROW_SCOPE);
+                closeInScope(elements, TR, SECTION_SCOPE);
+                break;
+            case "thead":
+            case "tbody":
+            case "tfoot":
+            case "caption":
+            case "colgroup":
+                closeInScope(elements, CELLS, ROW_SCOPE);
+                closeInScope(elements, TR, SECTION_SCOPE);
+                closeInScope(elements, TABLE_SECTIONS, TABLE_SCOPE);
+                break;
+            case "option":
+                closeInnermost(elements, "option");
+                break;
+            case "optgroup":
+                closeInnermost(elements, "option");
+                closeInnermost(elements, "optgroup");
+                break;
+            case "rt":
+            case "rp":
+                closeInScope(elements, RUBY_TEXT, RUBY_SCOPE);
+                break;
+            default:
+                // Nothing
+        }
+    }
+
+    /**
+     * Close the innermost open element that has one of the given names, along with its descendants,
+     * unless an element that has one of the given scope names comes before it
+     *
+     * @param elements Names of the open elements, outermost first
+     * @param names    Names of the element to close
+     * @param scope    Names of the elements that stop the search
+     */
+    private static void closeInScope(@NonNull List<String> elements, @NonNull Set<String> names, @NonNull Set<String> scope) {
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            String e = elements.get(i);
+            if (names.contains(e)) {
+                elements.subList(i, elements.size()).clear();
+                return;
+            }
+            if (scope.contains(e)) return;
+        }
+    }
+
+    /**
+     * Close the innermost open element if it has the given name
+     *
+     * @param elements Names of the open elements, outermost first
+     * @param name     Name of the element to close
+     */
+    private static void closeInnermost(@NonNull List<String> elements, @NonNull String name) {
+        if (!elements.isEmpty() && elements.get(elements.size() - 1).equals(name))
+            elements.remove(elements.size() - 1);
+    }
+
+    /**
+     * Emit the given start tag, keeping track of open elements and marking book cards
+     *
+     * @param tag           Start tag to process, including its delimiters
+     * @param name          Lowercase name of the element
+     * @param nameEnd       Position of the end of the tag name
+     * @param isSelfClosing True if the element has no contents nor end tag
+     * @param attributes    Attributes of the element
+     */
+    private void processMarkableTag(@NonNull String tag, @NonNull String name, int nameEnd, boolean isSelfClosing, @NonNull Map<String, String> attributes) {
+        if (name.equals("a")) closeElement(name); // Links can't be nested
+        if (name.equals("img") && markedLink != null) markLinkedImage();
+        if (isSelfClosing) {
+            emit(tag);
+            return;
+        }
+
+        OpenElement element = new OpenElement(name, attributes.get("class"));
+        // CSS classes are added at the beginning of the class attribute, or right after the tag name if there's none
+        int[] bounds = new int[5];
+        int i = nameEnd;
+        int classPosition = -1;
+        while ((i = nextAttribute(tag, i, bounds)) >= 0) {
+            if (!tag.substring(bounds[0], bounds[1]).equalsIgnoreCase("class")) continue;
+            if (bounds[4] != 0) { // Quoted value
+                classPosition = bounds[2];
+            } else if (bounds[2] == bounds[1]) { // No value
+                tag = tag.substring(0, bounds[1]) + "=\"\"" + tag.substring(bounds[1]);
+                classPosition = bounds[1] + 2;
+            } else { // Unquoted value; quote it so that classes can be added
+                tag = tag.substring(0, bounds[2]) + '"' + tag.substring(bounds[2], bounds[3]) + '"' + tag.substring(bounds[3]);
+                classPosition = bounds[2] + 1;
+            }
+            break;
+        }
+        element.hasClassAttribute = (classPosition > -1);
+        element.classPosition = outputOffset + outputEnd + (element.hasClassAttribute ? classPosition : nameEnd);
+
+        if (name.equals("a")) startLink(element, attributes.get("href"));
+        emit(tag);
+        openElements.add(element);
+    }
+
+    /**
+     * Close the innermost open element with the given name, and all the elements it contains
+     *
+     * @param name Lowercase name of the element to close
+     */
+    private void closeElement(@NonNull String name) {
+        for (int i = openElements.size() - 1; i >= 0; i--) {
+            if (openElements.get(i).name.equals(name)) {
+                while (openElements.size() > i) {
+                    OpenElement element = openElements.remove(openElements.size() - 1);
+                    if (markedLink != null && element == markedLink.link) closeMarkedLink();
+                    markPendingLinks(element);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start reading the given link; it will be marked if it leads to a book to mark
+     *
+     * @param link Link to read
+     * @param href Value of its href attribute
+     */
+    private void startLink(@NonNull OpenElement link, @Nullable String href) {
+        if (null == href || null == bookCardMarking) return;
+        for (OpenElement e : openElements)
+            if (e.hasAnyClass(bookCardMarking.excludedParentClasses)) return;
+
+        String url = HttpHelper.simplifyUrl(decodeAttributeValue(href));
+        // Book card already marked through the image of another link to the same book
+        if (imageMarkedUrls.contains(url)) return;
+        // Only the first link is marked when no link to the same book has an image - usually the cover
+        boolean isFirst = knownLinkUrls.add(url);
+
+        List<String> classes = new ArrayList<>(2);
+        if (bookCardMarking.downloadedUrls.isSuffixed(url)) classes.add(DOWNLOADED_CLASS);
+        if (bookCardMarking.mergedUrls.isSuffixed(url)) classes.add(MERGED_CLASS);
+        if (!classes.isEmpty()) {
+            // Links to the same book are looked for inside the book card the link would belong to if it had an image
+            int containerIndex = openElements.size() - Math.max(1, bookCardMarking.bookCardDepth - 1);
+            OpenElement container = (containerIndex >= 0) ? openElements.get(containerIndex) : null;
+            markedLink = new MarkedLink(link, url, classes, isFirst, container);
+        }
+    }
+
+    /**
+     * Mark the book card of the link being read, as it contains an image
+     */
+    private void markLinkedImage() {
+        // Linked images have priority over plain links : mark <bookCardDepth> levels above the image,
+        // knowing its parent is the innermost open element
+        int target = Math.max(0, openElements.size() - bookCardMarking.bookCardDepth);
+        // Elements that have already been read can't be marked anymore; mark the closest one that still can
+        for (int i = target; i < openElements.size(); i++) {
+            OpenElement element = openElements.get(i);
+            if (element.classPosition >= releasedEnd) {
+                addClasses(element, markedLink.classes);
+                break;
+            }
+        }
+        imageMarkedUrls.add(markedLink.url);
+        // Plain links to the same book don't need to be marked anymore
+        for (int i = pendingLinks.size() - 1; i >= 0; i--)
+            if (pendingLinks.get(i).url.equals(markedLink.url)) pendingLinks.remove(i);
+        markedLink = null;
+    }
+
+    /**
+     * End the link being read, if any, as it doesn't contain any image
+     */
+    private void closeMarkedLink() {
+        if (null == markedLink) return;
+        // Wait for a link to the same book with an image before marking the plain link
+        if (markedLink.isFirst) {
+            if (markedLink.container != null) pendingLinks.add(markedLink);
+            else addClasses(markedLink.link, markedLink.classes);
+        }
+        markedLink = null;
+    }
+
+    /**
+     * Mark the plain links that don't have to wait for a link to the same book with an image anymore
+     *
+     * @param closedElement Element that has just been closed; null to mark all pending links
+     */
+    private void markPendingLinks(@Nullable OpenElement closedElement) {
+        for (int i = 0; i < pendingLinks.size(); i++) {
+            MarkedLink pending = pendingLinks.get(i);
+            if (null == closedElement || pending.container == closedElement) {
+                pendingLinks.remove(i--);
+                addClasses(pending.link, pending.classes);
+            }
+        }
+    }
+
+    /**
+     * Add the given CSS classes to the given element, whose start tag hasn't been read yet
+     *
+     * @param element Element to add CSS classes to
+     * @param classes CSS classes to add
+     */
+    private void addClasses(@NonNull OpenElement element, @NonNull List<String> classes) {
+        StringBuilder sb = new StringBuilder();
+        for (String c : classes)
+            if (element.addedClasses.add(c)) sb.append(c).append(' ');
+        if (0 == sb.length()) return;
+
+        String inserted;
+        if (element.hasClassAttribute) {
+            inserted = sb.toString();
+        } else {
+            inserted = " class=\"" + sb.toString().trim() + "\"";
+        }
+        long position = element.classPosition;
+        int index = (int) (position - outputOffset);
+        ensureOutputCapacity(inserted.length());
+        System.arraycopy(output, index, output, index + inserted.length(), outputEnd - index);
+        for (int i = 0; i < inserted.length(); i++) output[index + i] = (byte) inserted.charAt(i);
+        outputEnd += inserted.length();
+        for (OpenElement e : openElements)
+            if (e.classPosition > position) e.classPosition += inserted.length();
+        for (MarkedLink l : pendingLinks)
+            if (l.link.classPosition > position) l.link.classPosition += inserted.length();
+        if (!element.hasClassAttribute) {
+            element.hasClassAttribute = true;
+            element.classPosition += " class=\"".length();
+        }
+    }
+
+    /**
+     * @return Given attribute value, read byte by byte from a UTF-8 document, as a regular string
+     */
+    private static String decodeAttributeValue(@NonNull String value) {
+        String result = new String(value.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        return (result.indexOf('&') > -1) ? Parser.unescapeEntities(result, true) : result;
+    }
+
+    private void startRawText(@NonNull String tag, @NonNull String name, boolean isRemoved) {
+        pending.append(tag);
+        rawTextName = name;
+        isRawTextRemoved = isRemoved;
+        state = State.RAW_TEXT;
+    }
+
+    /**
+     * @return True if the pending raw text element ends with its end tag
+     */
+    private boolean isRawTextEnd() {
+        int i = pending.length() - 2; // Before the closing '>'
+        while (i >= 0 && Character.isWhitespace(pending.charAt(i))) i--;
+        int nameStart = i - rawTextName.length() + 1;
+        if (nameStart < 2) return false;
+        return '<' == pending.charAt(nameStart - 2) && '/' == pending.charAt(nameStart - 1)
+                && pending.substring(nameStart, i + 1).equalsIgnoreCase(rawTextName);
+    }
+
+    private void processRawText() {
+        boolean isRemoved = isRawTextRemoved;
+        if (!isRemoved && rawTextName.equals("script") && !jsContentBlacklist.isEmpty()) {
+            String script = pending.toString().toLowerCase(Locale.ROOT);
+            for (String s : jsContentBlacklist)
+                if (script.contains(s)) {
+                    isRemoved = true;
+                    break;
+                }
+        }
+        if (isRemoved) pending.setLength(0);
+        else emitPending();
+    }
+
+    /**
+     * Forward what's left of the document once the source has been entirely read
+     */
+    private void flush() {
+        if (State.RAW_TEXT == state && isRawTextRemoved) pending.setLength(0);
+        else emitPending();
+        // Adding ASCII bytes would corrupt documents that aren't ASCII-compatible
+        if (headCss != null && !isPassthrough) {
+            emit(headCss);
+            headCss = null;
+        }
+        closeMarkedLink();
+        markPendingLinks(null);
+    }
+
+    private void emit(char c) {
+        if (!removedElements.isEmpty()) return;
+        ensureOutputCapacity(1);
+        output[outputEnd++] = (byte) c;
+    }
+
+    private void emit(@NonNull CharSequence s) {
+        if (!removedElements.isEmpty()) return;
+        ensureOutputCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) output[outputEnd++] = (byte) s.charAt(i);
+    }
+
+    private void emitPending() {
+        emit(pending);
+        pending.setLength(0);
+    }
+
+    private void ensureOutputCapacity(int length) {
+        if (outputEnd + length > output.length)
+            output = Arrays.copyOf(output, Math.max(output.length * 2, outputEnd + length));
+    }
+
+    /**
+     * Parse the attributes of the given start tag
+     *
+     * @param tag   Start tag to parse
+     * @param start Position of the end of the tag name
+     * @return Attributes of the given tag (key = lowercase name; value = value)
+     */
+    private static Map<String, String> parseAttributes(@NonNull String tag, int start) {
+        Map<String, String> result = new HashMap<>();
+        int[] bounds = new int[5];
+        int i = start;
+        while ((i = nextAttribute(tag, i, bounds)) >= 0) {
+            String name = tag.substring(bounds[0], bounds[1]).toLowerCase(Locale.ROOT);
+            // Only the 1st occurrence of an attribute counts
+            if (!name.isEmpty() && !result.containsKey(name))
+                result.put(name, tag.substring(bounds[2], bounds[3]));
+        }
+        return result;
+    }
+
+    /**
+     * Find the next attribute of the given start tag
+     *
+     * @param tag    Start tag to parse
+     * @param start  Position to start looking from
+     * @param bounds Bounds of the attribute that has been found : name start, name end, value start, value end,
+     *               quote around the value (0 if none)
+     * @return Position right after the attribute that has been found; -1 if there's none
+     */
+    private static int nextAttribute(@NonNull String tag, int start, int[] bounds) {
+        int length = tag.length() - 1; // Ignore the closing '>'
+        int i = start;
+        while (i < length && (Character.isWhitespace(tag.charAt(i)) || '/' == tag.charAt(i))) i++;
+        if (i >= length) return -1;
+
+        bounds[0] = i;
+        while (i < length && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/')
+            i++;
+        bounds[1] = i;
+        bounds[2] = i;
+        bounds[3] = i;
+        bounds[4] = 0;
+        while (i < length && Character.isWhitespace(tag.charAt(i))) i++;
+        if (i < length && '=' == tag.charAt(i)) {
+            i++;
+            while (i < length && Character.isWhitespace(tag.charAt(i))) i++;
+            if (i < length && ('"' == tag.charAt(i) || '\'' == tag.charAt(i))) {
+                char q = tag.charAt(i);
+                int valueEnd = tag.indexOf(q, i + 1);
+                if (valueEnd < 0) valueEnd = length;
+                bounds[2] = i + 1;
+                bounds[3] = valueEnd;
+                bounds[4] = q;
+                i = valueEnd + 1;
+            } else {
+                bounds[2] = i;
+                while (i < length && !Character.isWhitespace(tag.charAt(i))) i++;
+                bounds[3] = i;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Simple CSS selector : optional tag name, followed by any number of class, id and attribute conditions
+     * Matches the same elements as Jsoup does
+     */
+    private static class SimpleSelector {
+        private final String tag;
+        private final List<String[]> conditions = new ArrayList<>(); // {attribute name, operator, value}
+
+        SimpleSelector(@NonNull String selector) {
+            Matcher tagMatcher = Pattern.compile("^[a-zA-Z][\\w-]*").matcher(selector);
+            tag = tagMatcher.find() ? tagMatcher.group().toLowerCase(Locale.ROOT) : null;
+            Matcher m = SELECTOR_PART.matcher(selector);
+            while (m.find()) {
+                if (m.group(1) != null) conditions.add(new String[]{"class", "~=", m.group(1).substring(1)});
+                else if (m.group(2) != null) conditions.add(new String[]{"id", "#", m.group(2).substring(1)});
+                else {
+                    String value = m.group(5);
+                    if (value != null && value.length() > 1 && (value.startsWith("'") || value.startsWith("\"")))
+                        value = value.substring(1, value.length() - 1);
+                    conditions.add(new String[]{m.group(3).toLowerCase(Locale.ROOT), (null == m.group(4)) ? "" : m.group(4), value});
+                }
+            }
+        }
+
+        boolean matches(@NonNull String name, @NonNull Map<String, String> attributes) {
+            if (tag != null && !tag.equals(name)) return false;
+            for (String[] condition : conditions) {
+                String attr = attributes.get(condition[0]);
+                if (null == attr) return false;
+                String value = condition[2];
+                switch (condition[1]) {
+                    case "": // Presence
+                        break;
+                    case "#":
+                        if (!attr.equals(value)) return false;
+                        break;
+                    case "=":
+                        if (!attr.trim().equalsIgnoreCase(value)) return false;
+                        break;
+                    case "~=":
+                        if (!hasWord(attr, value)) return false;
+                        break;
+                    case "^=":
+                        if (!attr.toLowerCase(Locale.ROOT).startsWith(value.toLowerCase(Locale.ROOT)))
+                            return false;
+                        break;
+                    case "$=":
+                        if (!attr.toLowerCase(Locale.ROOT).endsWith(value.toLowerCase(Locale.ROOT)))
+                            return false;
+                        break;
+                    case "*=":
+                        if (!attr.toLowerCase(Locale.ROOT).contains(value.toLowerCase(Locale.ROOT)))
+                            return false;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean hasWord(@NonNull String s, @NonNull String word) {
+            for (String w : s.split("\\s+"))
+                if (w.equalsIgnoreCase(word)) return true;
+            return false;
+        }
+    }
+}
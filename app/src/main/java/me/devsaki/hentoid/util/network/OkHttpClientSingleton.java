@@ -1,16 +1,18 @@
 package me.devsaki.hentoid.util.network;
 
-import android.util.SparseArray;
-
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import me.devsaki.hentoid.core.HentoidApp;
 import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.Preferences;
 import okhttp3.Cache;
+import okhttp3.Dns;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -19,12 +21,24 @@ import timber.log.Timber;
 
 /**
  * Manages a single instance of OkHttpClient per timeout delay
+ * <p>
+ * All instances share the same connection pool, dispatcher, HTTP cache and DNS cache,
+ * so that connections opened by any of them can be reused by the others
  */
-@SuppressWarnings("squid:S3077")
-// https://stackoverflow.com/questions/11639746/what-is-the-point-of-making-the-singleton-instance-volatile-while-using-double-l
 public class OkHttpClientSingleton {
 
-    private static volatile SparseArray<OkHttpClient> instance = new SparseArray<>();
+    private static final long CACHE_SIZE = 5L * 1024 * 1024; // 5 MB
+
+    // Time during which resolved host addresses are kept
+    private static final long DNS_TTL_MS = 5L * 60 * 1000; // 5 minutes
+    private static final int DNS_MAX_ENTRIES = 200;
+
+    private static final Map<Integer, OkHttpClient> instances = new ConcurrentHashMap<>();
+    private static final ConnectionStats connectionStats = new ConnectionStats();
+
+    // Client all instances are derived from; null until first use or after a reset
+    @Nullable
+    private static OkHttpClient baseClient = null;
 
 
     private OkHttpClientSingleton() {
@@ -36,72 +50,77 @@ public class OkHttpClientSingleton {
 
     public static OkHttpClient getInstance(int connectTimeout, int ioTimeout, boolean followRedirects) {
         int key = (connectTimeout * 100) + ioTimeout + (followRedirects ? 1 : 0);
-        if (null == instance.get(key)) {
-            synchronized (OkHttpClientSingleton.class) {
-                if (null == instance.get(key)) {
-                    instance.put(key, buildClient(connectTimeout, ioTimeout, followRedirects));
-                }
-            }
+        OkHttpClient result = instances.get(key);
+        if (result != null) return result;
+        synchronized (OkHttpClientSingleton.class) {
+            // Build the client while holding the lock, so that a concurrent reset can't interleave
+            return instances.computeIfAbsent(key, k -> buildClient(connectTimeout, ioTimeout, followRedirects));
         }
-        return OkHttpClientSingleton.instance.get(key);
+    }
+
+    /**
+     * @return Connection usage statistics of all instances, indexed by host name
+     */
+    public static Map<String, ConnectionStats.HostStats> getConnectionStats() {
+        return connectionStats.getAll();
     }
 
     public static void reset() {
         Helper.assertNonUiThread(); // Closing network operations shouldn't happen on the UI thread
         synchronized (OkHttpClientSingleton.class) {
-            int size = instance.size();
-            for (int i = 0; i < size; i++) {
-                instance.valueAt(i).dispatcher().executorService().shutdown();
-                instance.valueAt(i).connectionPool().evictAll();
-                try {
-                    Cache cache = instance.valueAt(i).cache();
-                    if (cache != null) cache.close();
-                } catch (IOException e) {
-                    Timber.i(e);
-                }
+            instances.clear();
+            if (null == baseClient) return;
+            // Connection pool, dispatcher and cache are shared by all instances => close them once
+            baseClient.dispatcher().executorService().shutdown();
+            baseClient.connectionPool().evictAll();
+            try {
+                Cache cache = baseClient.cache();
+                if (cache != null) cache.close();
+            } catch (IOException e) {
+                Timber.i(e);
             }
-            instance.clear();
+            // DNS settings may have changed
+            baseClient = null;
+            connectionStats.clear();
         }
     }
 
-    private static OkHttpClient buildBootstrapClient() {
-        long CACHE_SIZE = 5L * 1024 * 1024; // 5 MB
-
-        return new OkHttpClient.Builder()
-                .addInterceptor(OkHttpClientSingleton::rewriteUserAgentInterceptor)
-                .cache(new Cache(HentoidApp.Companion.getInstance().getCacheDir(), CACHE_SIZE))
-                .build();
-    }
+    // Must be called while holding the class lock
+    private static OkHttpClient getBaseClient() {
+        if (null == baseClient) {
+            OkHttpClient bootstrapClient = new OkHttpClient.Builder()
+                    .addInterceptor(OkHttpClientSingleton::rewriteUserAgentInterceptor)
+                    .cache(new Cache(HentoidApp.Companion.getInstance().getCacheDir(), CACHE_SIZE))
+                    .eventListener(connectionStats)
+                    .build();
 
-    private static OkHttpClient buildClient(int connectTimeout, int ioTimeout, boolean followRedirects) {
-        if (null == instance.get(0)) {
-            synchronized (OkHttpClientSingleton.class) {
-                if (null == instance.get(0)) {
-                    instance.put(0, buildBootstrapClient());
-                }
+            // Add DNS over HTTPS if needed
+            Dns dns = Dns.SYSTEM;
+            @DnsOverHttpsProviders.Source int doHSource = Preferences.getDnsOverHttps();
+            if (doHSource != DnsOverHttpsProviders.Source.NONE) {
+                dns = new DnsOverHttps.Builder()
+                        .client(bootstrapClient)
+                        .url(DnsOverHttpsProviders.getPrimaryUrl(doHSource))
+                        .bootstrapDnsHosts(DnsOverHttpsProviders.getHosts(doHSource))
+                        .build();
             }
+
+            baseClient = bootstrapClient.newBuilder()
+                    .dns(new CachingDns(dns, DNS_TTL_MS, DNS_MAX_ENTRIES))
+                    .build();
         }
-        OkHttpClient primaryClient = instance.get(0);
+        return baseClient;
+    }
 
-        // Set custom delays
-        OkHttpClient.Builder result = primaryClient.newBuilder()
+    // Must be called while holding the class lock
+    private static OkHttpClient buildClient(int connectTimeout, int ioTimeout, boolean followRedirects) {
+        // Set custom delays; everything else is shared with the base client
+        return getBaseClient().newBuilder()
                 .followRedirects(followRedirects)
                 .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
                 .readTimeout(ioTimeout, TimeUnit.MILLISECONDS)
-                .writeTimeout(ioTimeout, TimeUnit.MILLISECONDS);
-
-        // Add DNS over HTTPS if needed
-        @DnsOverHttpsProviders.Source int doHSource = Preferences.getDnsOverHttps();
-        if (doHSource != DnsOverHttpsProviders.Source.NONE) {
-            DnsOverHttps dns = new DnsOverHttps.Builder()
-                    .client(primaryClient)
-                    .url(DnsOverHttpsProviders.getPrimaryUrl(doHSource))
-                    .bootstrapDnsHosts(DnsOverHttpsProviders.getHosts(doHSource))
-                    .build();
-            result.dns(dns);
-        }
-
-        return result.build();
+                .writeTimeout(ioTimeout, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     @NonNull
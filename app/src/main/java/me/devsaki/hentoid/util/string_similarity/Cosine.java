@@ -127,4 +127,32 @@ public class Cosine extends ShingleBased implements StringSimilarity {
                 / (norm(profile1) * norm(profile2));
     }
 
+    /**
+     * Compute the cosine similarity between precomputed shingle profiles,
+     * without any allocation. Gives the same result as similarity(String, String)
+     * called on the profiles' source strings.
+     *
+     * @param profile1 Profile of the first string to compare.
+     * @param profile2 Profile of the second string to compare.
+     * @return The cosine similarity in the range [0, 1]
+     * @throws IllegalArgumentException if the profiles haven't been computed with the same k.
+     */
+    public final double similarity(
+            final ShingleProfile profile1,
+            final ShingleProfile profile2) {
+        if (profile1.getK() != getK() || profile2.getK() != getK()) {
+            throw new IllegalArgumentException("profiles must be computed with k=" + getK());
+        }
+
+        if (profile1.getSource().equals(profile2.getSource())) {
+            return 1;
+        }
+
+        if (profile1.getSource().length() < getK() || profile2.getSource().length() < getK()) {
+            return 0;
+        }
+
+        return profile1.dotProduct(profile2)
+                / (profile1.getNorm() * profile2.getNorm());
+    }
 }
@@ -1,5 +1,6 @@
 package me.devsaki.hentoid.util.string_similarity;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -86,4 +87,52 @@ public abstract class ShingleBased {
 
         return Collections.unmodifiableMap(shingles);
     }
+
+    /**
+     * Compute and return the profile of s as a ShingleProfile, which is more
+     * compact than the Map returned by getProfile and can be compared without
+     * any allocation
+     *
+     * @param string
+     * @return the profile of this string, as a ShingleProfile
+     */
+    public final ShingleProfile getShingleProfile(final String string) {
+        String string_no_space = StringHelper.cleanMultipleSpaces(string);
+        int nbShingles = Math.max(0, string_no_space.length() - k + 1);
+        long[] shingles = new long[nbShingles];
+        for (int i = 0; i < nbShingles; i++) {
+            shingles[i] = encodeShingle(string_no_space, i);
+        }
+        Arrays.sort(shingles);
+
+        // Count occurrences of each distinct shingle
+        int nbDistinct = 0;
+        for (int i = 0; i < nbShingles; i++) {
+            if (0 == i || shingles[i] != shingles[i - 1]) nbDistinct++;
+        }
+        long[] distinctShingles = new long[nbDistinct];
+        int[] counts = new int[nbDistinct];
+        int index = -1;
+        for (int i = 0; i < nbShingles; i++) {
+            if (0 == i || shingles[i] != shingles[i - 1]) distinctShingles[++index] = shingles[i];
+            counts[index]++;
+        }
+
+        return new ShingleProfile(string, k, distinctShingles, counts);
+    }
+
+    private long encodeShingle(final String s, final int start) {
+        long result;
+        if (k <= 4) { // Pack characters
+            result = 0;
+            for (int i = start; i < start + k; i++) result = (result << 16) | s.charAt(i);
+        } else { // FNV-1a hash
+            result = 0xcbf29ce484222325L;
+            for (int i = start; i < start + k; i++) {
+                result ^= s.charAt(i);
+                result *= 0x100000001b3L;
+            }
+        }
+        return result;
+    }
 }
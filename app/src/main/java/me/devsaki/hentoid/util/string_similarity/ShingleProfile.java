@@ -0,0 +1,102 @@
+package me.devsaki.hentoid.util.string_similarity;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Precomputed k-shingle profile of a string, stored as primitive arrays
+ * to allow comparing profiles without any allocation.
+ * <p>
+ * Shingles are encoded as longs : for k &lt;= 4, the characters of the shingle
+ * are packed together (no collision possible); for larger values of k, a 64-bit
+ * hash of the shingle is used instead.
+ */
+public final class ShingleProfile {
+
+    private final String source;
+    private final int k;
+    // Encoded shingles, in ascending order
+    private final long[] shingles;
+    // Number of occurrences of each shingle
+    private final int[] counts;
+    // L2 norm of the profile
+    private final double norm;
+
+    ShingleProfile(@NonNull String source, int k, long[] shingles, int[] counts) {
+        this.source = source;
+        this.k = k;
+        this.shingles = shingles;
+        this.counts = counts;
+        double agg = 0;
+        for (int count : counts) agg += 1.0 * count * count;
+        this.norm = Math.sqrt(agg);
+    }
+
+    /**
+     * @return String the profile has been computed from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Length of the shingles of the profile
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return Number of distinct shingles of the profile
+     */
+    public int size() {
+        return shingles.length;
+    }
+
+    public boolean isEmpty() {
+        return 0 == shingles.length;
+    }
+
+    /**
+     * @param index Index of the distinct shingle to get, in ascending order
+     * @return Encoded shingle at the given index
+     */
+    public long getShingle(int index) {
+        return shingles[index];
+    }
+
+    /**
+     * @param index Index of the distinct shingle to get the count of, in ascending order
+     * @return Number of occurrences of the shingle at the given index
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    public double getNorm() {
+        return norm;
+    }
+
+    /**
+     * Compute the dot product between this profile and the given profile
+     *
+     * @param other Profile to compute the dot product with
+     * @return Dot product between both profiles
+     */
+    double dotProduct(@NonNull ShingleProfile other) {
+        final long[] s1 = shingles;
+        final long[] s2 = other.shingles;
+        double agg = 0;
+        int i = 0;
+        int j = 0;
+        while (i < s1.length && j < s2.length) {
+            if (s1[i] < s2[j]) i++;
+            else if (s1[i] > s2[j]) j++;
+            else {
+                agg += 1.0 * counts[i] * other.counts[j];
+                i++;
+                j++;
+            }
+        }
+        return agg;
+    }
+}
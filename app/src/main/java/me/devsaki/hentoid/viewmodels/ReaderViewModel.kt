@@ -15,6 +15,7 @@ import androidx.lifecycle.viewModelScope
 import com.annimon.stream.Optional
 import com.bumptech.glide.Glide
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import me.devsaki.hentoid.R
@@ -36,6 +37,7 @@ import me.devsaki.hentoid.util.RandomSeedSingleton
 import me.devsaki.hentoid.util.download.ContentQueueManager.isQueueActive
 import me.devsaki.hentoid.util.download.ContentQueueManager.resumeQueue
 import me.devsaki.hentoid.util.download.DownloadHelper
+import me.devsaki.hentoid.util.download.DownloadSpeedLimiter
 import me.devsaki.hentoid.util.exception.DownloadInterruptedException
 import me.devsaki.hentoid.util.exception.EmptyResultException
 import me.devsaki.hentoid.util.exception.LimitReachedException
@@ -53,14 +55,15 @@ import org.greenrobot.eventbus.EventBus
 import timber.log.Timber
 import java.io.File
 import java.io.IOException
+import java.util.BitSet
 import java.util.Collections
-import java.util.Queue
 import java.util.Random
-import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.regex.Pattern
 import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
 import kotlin.math.roundToInt
 
 
@@ -110,14 +113,30 @@ class ReaderViewModel(
     // Kill switch to interrupt extracting when leaving the activity
     private val archiveExtractKillSwitch = AtomicBoolean(false)
 
-    // Page indexes that are being downloaded
-    private val indexDlInProgress = Collections.synchronizedSet(HashSet<Int>())
+    // Downloads of online pages that are scheduled or in progress; key = viewer index
+    // Guards all download scheduling properties below
+    private val pageDownloads = HashMap<Int, PageDownload>()
+
+    // Downloads waiting for a worker
+    private val pageDownloadQueue = ArrayList<PageDownload>()
+
+    // Viewer index and reading direction downloads are prioritized around
+    private var downloadFocusIndex = 0
+    private var downloadFocusDirection = 1
+
+    // Number of running download workers
+    private var nbDownloadWorkers = 0
 
     // Page indexes that are being extracted
     private val indexExtractInProgress = Collections.synchronizedSet(HashSet<Int>())
 
-    // FIFO kill switches to interrupt downloads when browsing the book
-    private val downloadKillSwitches: Queue<AtomicBoolean> = ConcurrentLinkedQueue()
+
+    // Viewer indexes of the pages that may still have to be downloaded or extracted; guarded by itself
+    // NB : Pages are only checked against the disk cache when they're needed
+    private val pagesLeftToProcess = BitSet()
+
+    // True if a refresh of the viewer images has been scheduled
+    private val viewerImagesRefreshPending = AtomicBoolean(false)
 
 
     init {
@@ -126,6 +145,7 @@ class ReaderViewModel(
     }
 
     override fun onCleared() {
+        ArchiveHelper.closeArchives()
         dao.cleanup()
         super.onCleared()
     }
@@ -462,6 +482,13 @@ class ReaderViewModel(
                 viewerImagesInternal.clear()
                 viewerImagesInternal.addAll(imgs)
             }
+            synchronized(pagesLeftToProcess) {
+                pagesLeftToProcess.clear()
+                imgs.forEachIndexed { index, img ->
+                    if (img.status == StatusContent.ONLINE || img.isArchived)
+                        pagesLeftToProcess.set(index)
+                }
+            }
             viewerImages.postValue(viewerImagesInternal.toList())
         }
     }
@@ -475,9 +502,10 @@ class ReaderViewModel(
         if (Preferences.Constant.VIEWER_DELETE_ASK_BOOK == Preferences.getReaderDeleteAskMode()) Preferences.setReaderDeleteAskMode(
             Preferences.Constant.VIEWER_DELETE_ASK_AGAIN
         )
-        indexDlInProgress.clear()
+        cancelDownloads()
         indexExtractInProgress.clear()
         archiveExtractKillSwitch.set(true)
+        ArchiveHelper.closeArchives()
 
         // Don't do anything if the Content hasn't even been loaded
         if (-1L == loadedContentId) return
@@ -944,10 +972,6 @@ class ReaderViewModel(
         if (viewerImagesInternal.size <= viewerIndex) return
         val theContent = getContent().value ?: return
         val isArchive = theContent.isArchive
-        val picturesLeftToProcess = IntRange(0, viewerImagesInternal.size - 1)
-            .filter { i -> isPictureNeedsProcessing(i, viewerImagesInternal) }
-            .toSet()
-        if (picturesLeftToProcess.isEmpty()) return
 
         // Identify pages to be loaded
         val indexesToLoad: MutableList<Int> = ArrayList()
@@ -961,9 +985,21 @@ class ReaderViewModel(
                 (viewerImagesInternal.size - 1).toFloat()
             )
         ).toInt()
-        for (i in 0 until quantity)
-            if (picturesLeftToProcess.contains(initialIndex + increment * i))
-                indexesToLoad.add(initialIndex + increment * i)
+        for (i in 0 until quantity) {
+            val index = initialIndex + increment * i
+            if (isPageLeftToProcess(index, true)) indexesToLoad.add(index)
+        }
+
+        // Downloads are re-prioritized at every page change
+        val lastIndex = initialIndex + increment * (quantity - 1)
+        val onlineIndexes =
+            indexesToLoad.filter { viewerImagesInternal[it].status.equals(StatusContent.ONLINE) }
+        downloadPics(
+            onlineIndexes,
+            viewerIndex,
+            increment,
+            min(initialIndex, lastIndex)..max(initialIndex, lastIndex)
+        )
 
         // Only run extraction when there's at least 1/3rd of the extract range to fetch
         // (prevents calling extraction for one single picture at every page turn)
@@ -971,26 +1007,82 @@ class ReaderViewModel(
         if (isArchive) {
             greenlight = indexesToLoad.size >= EXTRACT_RANGE / 3f
             if (!greenlight) {
-                val from = if (increment > 0) initialIndex else 0
-                val to = if (increment > 0) viewerImagesInternal.size else initialIndex + 1
-                val leftToProcessDirection =
-                    IntRange(from, to - 1).count { o: Int -> picturesLeftToProcess.contains(o) }
-                greenlight = indexesToLoad.size == leftToProcessDirection
+                // Greenlight anyway if there's nothing else left to process in that direction
+                val from = if (increment > 0) initialIndex + quantity else 0
+                val to =
+                    if (increment > 0) viewerImagesInternal.size else initialIndex - quantity + 1
+                greenlight = !hasPagesLeftToProcess(from, to)
             }
         }
         if (indexesToLoad.isEmpty() || !greenlight) return
 
         // Group by archive for efficiency
         val indexesByArchive = indexesToLoad.filter { viewerImagesInternal[it].isArchived }
-            .groupBy { viewerImagesInternal[it].content.target.storageUri }.toMap()
-        indexesByArchive.keys.forEach {
-            val archiveFile = FileHelper.getFileFromSingleUriString(getApplication(), it)
-            if (archiveFile != null) extractPics(indexesByArchive[it]!!, archiveFile)
+            .groupBy { viewerImagesInternal[it].content.target.storageUri }
+        if (indexesByArchive.isNotEmpty()) extractPics(indexesByArchive)
+    }
+
+    /**
+     * Indicate if the picture at the given page index still needs processing
+     * (i.e. downloading or extracting)
+     *
+     * @param pageIndex Index to test
+     * @param recheck   True to check the picture against the disk cache even if it has already been
+     *                  processed (e.g. the cache may have been cleared since)
+     * @return True if the picture at the given index needs processing; false if not
+     */
+    private fun isPageLeftToProcess(pageIndex: Int, recheck: Boolean): Boolean {
+        if (pageIndex < 0 || viewerImagesInternal.size <= pageIndex) return false
+        if (!recheck) synchronized(pagesLeftToProcess) {
+            if (!pagesLeftToProcess.get(pageIndex)) return false
+        }
+        val result = isPictureNeedsProcessing(pageIndex, viewerImagesInternal)
+        synchronized(pagesLeftToProcess) {
+            pagesLeftToProcess.set(pageIndex, result)
         }
+        return result
+    }
 
-        val onlineIndexes =
-            indexesToLoad.filter { viewerImagesInternal[it].status.equals(StatusContent.ONLINE) }
-        downloadPics(onlineIndexes)
+    /**
+     * Indicate if any picture between the given page indexes still needs processing
+     *
+     * @param from Index to start searching from (inclusive)
+     * @param to   Index to stop searching at (exclusive)
+     * @return True if at least one picture between the given indexes needs processing
+     */
+    private fun hasPagesLeftToProcess(from: Int, to: Int): Boolean {
+        var index = from.coerceAtLeast(0)
+        while (index < to) {
+            index = synchronized(pagesLeftToProcess) { pagesLeftToProcess.nextSetBit(index) }
+            if (index < 0 || index >= to) return false
+            if (isPageLeftToProcess(index, false)) return true
+            index++
+        }
+        return false
+    }
+
+    /**
+     * Mark the picture at the given page index as processed
+     */
+    private fun onPageProcessed(pageIndex: Int) {
+        synchronized(pagesLeftToProcess) {
+            pagesLeftToProcess.clear(pageIndex)
+        }
+    }
+
+    /**
+     * Post the current viewer images to the UI
+     * NB : Calls made while a refresh is pending are merged into that refresh
+     */
+    private fun refreshViewerImages() {
+        if (!viewerImagesRefreshPending.compareAndSet(false, true)) return
+        viewModelScope.launch {
+            delay(VIEWER_REFRESH_DELAY_MS)
+            viewerImagesRefreshPending.set(false)
+            // Instanciate a new list to trigger an actual Adapter UI refresh
+            viewerImages.value =
+                synchronized(viewerImagesInternal) { ArrayList(viewerImagesInternal) }
+        }
     }
 
     /**
@@ -1010,76 +1102,147 @@ class ReaderViewModel(
     }
 
     /**
-     * Download the pictures at the given indexes to the given folder
-     * NB : loading happens in the background but is sequential
+     * Schedule the download of the pictures at the given indexes
+     * NB : Pictures are downloaded in the background by a few workers, closest pages to the
+     * current page first; downloads of pages that have left the prefetch window are cancelled
      *
-     * @param indexesToLoad DB indexes of the pictures to download
+     * @param indexesToLoad Viewer indexes of the pictures to download
+     * @param viewerIndex   Viewer index of the current page
+     * @param direction     Reading direction (1 : forward; -1 : backward)
+     * @param window        Viewer indexes of the current prefetch window
      */
-    private fun downloadPics(indexesToLoad: List<Int>) {
-        for (index in indexesToLoad) {
-            if (indexDlInProgress.contains(index)) continue
-            indexDlInProgress.add(index)
-
-            // Adjust the current queue
-            while (downloadKillSwitches.size >= DOWNLOAD_RANGE) {
-                val stopDownload = downloadKillSwitches.poll()
-                stopDownload?.set(true)
-                Timber.d("Aborting a download")
+    private fun downloadPics(
+        indexesToLoad: List<Int>,
+        viewerIndex: Int,
+        direction: Int,
+        window: IntRange
+    ) {
+        val nbNewWorkers: Int
+        synchronized(pageDownloads) {
+            downloadFocusIndex = viewerIndex
+            downloadFocusDirection = direction
+
+            // Cancel work that has left the window
+            val iterator = pageDownloads.values.iterator()
+            while (iterator.hasNext()) {
+                val download = iterator.next()
+                if (download.index in window) continue
+                download.killSwitch.set(true)
+                iterator.remove()
+                pageDownloadQueue.remove(download)
+                Timber.d("Aborting download of page %d", download.index)
             }
-            // Schedule a new download
-            val stopDownload = AtomicBoolean(false)
-            downloadKillSwitches.add(stopDownload)
+
+            for (index in indexesToLoad) {
+                if (pageDownloads.containsKey(index)) continue
+                val download = PageDownload(index)
+                pageDownloads[index] = download
+                pageDownloadQueue.add(download)
+            }
+
+            nbNewWorkers =
+                min(DOWNLOAD_WORKERS - nbDownloadWorkers, pageDownloadQueue.size).coerceAtLeast(0)
+            nbDownloadWorkers += nbNewWorkers
+        }
+        repeat(nbNewWorkers) {
             viewModelScope.launch {
                 withContext(Dispatchers.IO) {
-                    try {
-                        val resultOpt = downloadPic(index, stopDownload)
-                        indexDlInProgress.remove(index)
-                        if (resultOpt.isEmpty) { // Nothing to download
-                            Timber.d("NO IMAGE FOUND AT INDEX %d", index)
-                            notifyDownloadProgress(-1f, index)
-                            return@withContext
-                        }
-                        val downloadedPageIndex = resultOpt.get().left
-                        synchronized(viewerImagesInternal) {
-                            if (viewerImagesInternal.size <= downloadedPageIndex) return@withContext
-
-                            // Instanciate a new ImageFile not to modify the one used by the UI
-                            val downloadedPic = ImageFile(viewerImagesInternal[downloadedPageIndex])
-                            downloadedPic.fileUri = resultOpt.get().middle
-                            downloadedPic.mimeType = resultOpt.get().right
-                            viewerImagesInternal.removeAt(downloadedPageIndex)
-                            viewerImagesInternal.add(downloadedPageIndex, downloadedPic)
-                            Timber.d(
-                                "REPLACING INDEX %d - ORDER %d -> %s",
-                                downloadedPageIndex,
-                                downloadedPic.order,
-                                downloadedPic.fileUri
-                            )
-
-                            // Instanciate a new list to trigger an actual Adapter UI refresh
-                            viewerImages.postValue(ArrayList(viewerImagesInternal))
-                        }
-                    } catch (t: Throwable) {
-                        Timber.w(t)
-                    }
+                    runDownloadWorker()
                 }
             }
         }
     }
 
     /**
-     * Extract the picture files at the given indexes from the given archive to the given folder
+     * Download queued pictures until the queue is empty
+     */
+    private fun runDownloadWorker() {
+        while (true) {
+            val download = synchronized(pageDownloads) {
+                val next = pageDownloadQueue.minByOrNull { getDownloadPriority(it.index) }
+                if (null == next) nbDownloadWorkers--
+                else pageDownloadQueue.remove(next)
+                next
+            } ?: return
+
+            try {
+                downloadPage(download.index, download.killSwitch)
+            } catch (t: Throwable) {
+                Timber.w(t)
+            } finally {
+                synchronized(pageDownloads) {
+                    if (pageDownloads[download.index] === download)
+                        pageDownloads.remove(download.index)
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the download priority of the picture at the given index; the lower the sooner
+     * Pages ahead of the current page in reading direction come before pages behind it
+     * NB : Must be called while holding pageDownloads
+     */
+    private fun getDownloadPriority(index: Int): Int {
+        val delta = (index - downloadFocusIndex) * downloadFocusDirection
+        return if (delta >= 0) 2 * delta else -2 * delta + 1
+    }
+
+    /**
+     * Cancel all scheduled and ongoing downloads
+     */
+    private fun cancelDownloads() {
+        synchronized(pageDownloads) {
+            pageDownloads.values.forEach { it.killSwitch.set(true) }
+            pageDownloads.clear()
+            pageDownloadQueue.clear()
+        }
+    }
+
+    /**
+     * Download the picture at the given index and display it
      *
-     * @param indexesToLoad DB indexes of the pictures to download
-     * @param archiveFile   Archive file to extract from
+     * @param index        Viewer index of the picture to download
+     * @param stopDownload Switch to interrupt the download
      */
-    private fun extractPics(
-        indexesToLoad: List<Int>, archiveFile: DocumentFile
-    ) {
+    private fun downloadPage(index: Int, stopDownload: AtomicBoolean) {
+        val resultOpt = downloadPic(index, stopDownload)
+        if (resultOpt.isEmpty) { // Nothing to download
+            Timber.d("NO IMAGE FOUND AT INDEX %d", index)
+            notifyDownloadProgress(-1f, index)
+            return
+        }
+        val downloadedPageIndex = resultOpt.get().left
+        synchronized(viewerImagesInternal) {
+            if (viewerImagesInternal.size <= downloadedPageIndex) return
+
+            // Instanciate a new ImageFile not to modify the one used by the UI
+            val downloadedPic = ImageFile(viewerImagesInternal[downloadedPageIndex])
+            downloadedPic.fileUri = resultOpt.get().middle
+            downloadedPic.mimeType = resultOpt.get().right
+            viewerImagesInternal.removeAt(downloadedPageIndex)
+            viewerImagesInternal.add(downloadedPageIndex, downloadedPic)
+            onPageProcessed(downloadedPageIndex)
+            Timber.d(
+                "REPLACING INDEX %d - ORDER %d -> %s",
+                downloadedPageIndex,
+                downloadedPic.order,
+                downloadedPic.fileUri
+            )
+        }
+        refreshViewerImages()
+    }
+
+    /**
+     * Extract the picture files at the given indexes from the given archives
+     *
+     * @param indexesByArchive DB indexes of the pictures to extract, grouped by archive Uri
+     */
+    private fun extractPics(indexesByArchive: Map<String, List<Int>>) {
         viewModelScope.launch {
             try {
                 withContext(Dispatchers.IO) {
-                    doExtractPics(indexesToLoad, archiveFile)
+                    doExtractPics(indexesByArchive)
                 }
             } catch (t: Throwable) {
                 Timber.e(t)
@@ -1087,7 +1250,7 @@ class ReaderViewModel(
         }
     }
 
-    private fun doExtractPics(indexesToLoad: List<Int>, archiveFile: DocumentFile) {
+    private fun doExtractPics(indexesByArchive: Map<String, List<Int>>) {
         Helper.assertNonUiThread()
         // Interrupt current extracting process, if any
         if (indexExtractInProgress.isNotEmpty()) {
@@ -1103,66 +1266,100 @@ class ReaderViewModel(
         // Reset interrupt state to make sure extraction runs
         archiveExtractKillSwitch.set(false)
 
-        // Build extraction instructions, ignoring already extracted items
-        val extractInstructions: MutableList<Pair<String, String>> = ArrayList()
+        // Build extraction instructions for each archive, ignoring already extracted items
+        val instructionsByArchive = LinkedHashMap<DocumentFile, List<Pair<String, String>>>()
         var hasExistingUris = false
-        for (index in indexesToLoad) {
-            if (index < 0 || index >= viewerImagesInternal.size) continue
-            val img = viewerImagesInternal[index]
-            val c = img.content.target
-            val identifier = formatCacheKey(img)
-
-            val existingUri = DiskCache.getFile(identifier)
-            if (existingUri != null) {
-                updateImgWithExtractedUri(img, index, existingUri, false)
-                hasExistingUris = true
-            } else {
-                extractInstructions.add(
-                    Pair(
-                        img.url.replace(c.storageUri + File.separator, ""),
-                        identifier
+        var nbIndexes = 0
+        // Key = identifier of the picture to extract; value = its viewer index
+        val indexesByIdentifier = HashMap<String, Int>()
+        for ((archiveUri, indexesToLoad) in indexesByArchive) {
+            val archiveFile =
+                FileHelper.getFileFromSingleUriString(getApplication(), archiveUri) ?: continue
+            nbIndexes += indexesToLoad.size
+            val extractInstructions: MutableList<Pair<String, String>> = ArrayList()
+            for (index in indexesToLoad) {
+                if (index < 0 || index >= viewerImagesInternal.size) continue
+                val img = viewerImagesInternal[index]
+                val c = img.content.target
+                val identifier = formatCacheKey(img)
+
+                val existingUri = DiskCache.getFile(identifier)
+                if (existingUri != null) {
+                    updateImgWithExtractedUri(img, index, existingUri, false)
+                    hasExistingUris = true
+                } else {
+                    extractInstructions.add(
+                        Pair(
+                            img.url.replace(c.storageUri + File.separator, ""),
+                            identifier
+                        )
                     )
-                )
-                indexExtractInProgress.add(index)
+                    indexExtractInProgress.add(index)
+                    indexesByIdentifier[identifier] = index
+                }
             }
+            if (extractInstructions.isNotEmpty())
+                instructionsByArchive[archiveFile] = extractInstructions
         }
-        if (hasExistingUris) viewerImages.postValue(ArrayList(viewerImagesInternal))
-        if (extractInstructions.isEmpty()) return
+        if (hasExistingUris) refreshViewerImages()
+        if (instructionsByArchive.isEmpty()) return
 
         Timber.d(
-            "Extracting %d files starting from index %s", extractInstructions.size, indexesToLoad[0]
+            "Extracting %d files from %d archives",
+            instructionsByArchive.values.sumOf { it.size },
+            instructionsByArchive.size
         )
 
         val nbProcessed = AtomicInteger()
+        var isComplete = false
 
         try {
-            ArchiveHelper.extractArchiveEntriesCached(
-                getApplication(),
-                archiveFile.uri,
-                extractInstructions,
-                archiveExtractKillSwitch,
-                { id, uri -> onResourceExtracted(id, uri, nbProcessed, indexesToLoad.size) },
-                { onExtractionComplete(nbProcessed, indexesToLoad.size) }
-            )
+            // Archives are extracted one after the other, with the same interruption switch
+            instructionsByArchive.entries.forEachIndexed { index, (archiveFile, extractInstructions) ->
+                if (archiveExtractKillSwitch.get()) return@forEachIndexed
+                val isLast = (index == instructionsByArchive.size - 1)
+                ArchiveHelper.extractArchiveEntriesCached(
+                    getApplication(),
+                    archiveFile.uri,
+                    extractInstructions,
+                    archiveExtractKillSwitch,
+                    { id, uri ->
+                        onResourceExtracted(id, uri, indexesByIdentifier, nbProcessed, nbIndexes)
+                    },
+                    if (isLast) {
+                        {
+                            isComplete = true
+                            onExtractionComplete(nbProcessed, nbIndexes)
+                        }
+                    } else null
+                )
+            }
         } catch (e: Exception) {
-            EventBus.getDefault().post(
-                ProcessEvent(
-                    ProcessEvent.EventType.COMPLETE,
-                    R.id.viewer_load,
-                    0,
-                    nbProcessed.get(),
-                    0,
-                    indexesToLoad.size
+            Timber.w(e)
+        } finally {
+            // Interrupted or failed extractions don't call onExtractionComplete; release the loading state anyway
+            // so that the next extraction doesn't wait for indexes that will never be extracted
+            if (!isComplete) {
+                EventBus.getDefault().post(
+                    ProcessEvent(
+                        ProcessEvent.EventType.COMPLETE,
+                        R.id.viewer_load,
+                        0,
+                        nbProcessed.get(),
+                        0,
+                        nbIndexes
+                    )
                 )
-            )
-            indexExtractInProgress.clear()
-            archiveExtractKillSwitch.set(false)
+                indexExtractInProgress.clear()
+                archiveExtractKillSwitch.set(false)
+            }
         }
     }
 
     private fun onResourceExtracted(
         identifier: String,
         uri: Uri,
+        indexesByIdentifier: Map<String, Int>,
         nbProcessed: AtomicInteger,
         maxElements: Int
     ) {
@@ -1183,25 +1380,24 @@ class ReaderViewModel(
                 maxElements
             )
         )
-        var idx: Int? = null
-        var img: ImageFile? = null
-        for ((index, image) in viewerImagesInternal.withIndex()) {
-            if (formatCacheKey(image) == identifier) {
-                idx = index
-                img = image
-                break
+        var idx: Int? = indexesByIdentifier[identifier]
+        var img: ImageFile? = idx?.let { viewerImagesInternal.getOrNull(it) }
+        // Images may have been reloaded since extraction has started
+        if (img == null || formatCacheKey(img) != identifier) {
+            idx = null
+            img = null
+            for ((index, image) in viewerImagesInternal.withIndex()) {
+                if (formatCacheKey(image) == identifier) {
+                    idx = index
+                    img = image
+                    break
+                }
             }
         }
 
         if (img != null && idx != null) {
             indexExtractInProgress.remove(idx)
-            // Instanciate a new list to trigger an actual Adapter UI refresh every 4 iterations
-            updateImgWithExtractedUri(
-                img,
-                idx,
-                uri,
-                0 == nbProcessed.get() % 4 || nbProcessed.get() == maxElements
-            )
+            updateImgWithExtractedUri(img, idx, uri, true)
         }
     }
 
@@ -1215,6 +1411,7 @@ class ReaderViewModel(
         synchronized(viewerImagesInternal) {
             viewerImagesInternal.removeAt(idx)
             viewerImagesInternal.add(idx, extractedPic)
+            onPageProcessed(idx)
             Timber.v(
                 "Extracting : replacing index %d - order %d -> %s (%s)",
                 idx,
@@ -1222,9 +1419,8 @@ class ReaderViewModel(
                 extractedPic.fileUri,
                 extractedPic.mimeType
             )
-
-            if (refresh) viewerImages.postValue(ArrayList(viewerImagesInternal))
         }
+        if (refresh) refreshViewerImages()
     }
 
     private fun onExtractionComplete(
@@ -1313,7 +1509,8 @@ class ReaderViewModel(
                     headers,
                     stopDownload,
                     formatCacheKey(img),
-                    resourceId = pageIndex
+                    resourceId = pageIndex,
+                    bandwidthFlow = DownloadSpeedLimiter.READER_FLOW
                 ) { f: Float ->
                     notifyDownloadProgress(f, pageIndex)
                 }
@@ -1375,7 +1572,8 @@ class ReaderViewModel(
                 requestHeaders,
                 interruptDownload,
                 formatCacheKey(img),
-                resourceId = pageIndex
+                resourceId = pageIndex,
+                bandwidthFlow = DownloadSpeedLimiter.READER_FLOW
             ) { f: Float ->
                 notifyDownloadProgress(f, pageIndex)
             }
@@ -1391,7 +1589,8 @@ class ReaderViewModel(
             requestHeaders,
             interruptDownload,
             formatCacheKey(img),
-            resourceId = pageIndex
+            resourceId = pageIndex,
+            bandwidthFlow = DownloadSpeedLimiter.READER_FLOW
         ) { f: Float ->
             notifyDownloadProgress(f, pageIndex)
         }
@@ -1908,9 +2107,19 @@ class ReaderViewModel(
     }
 
     companion object {
-        const val DOWNLOAD_RANGE = 6 // Sequential download; not concurrent
+        const val DOWNLOAD_RANGE = 6
+
+        // Maximum number of pages downloaded at the same time
+        private const val DOWNLOAD_WORKERS = 3
         const val EXTRACT_RANGE = 35
 
+        // Delay during which updates of the viewer images are merged into a single UI refresh
+        private const val VIEWER_REFRESH_DELAY_MS = 100L
+
         private var VANILLA_CHAPTERNAME_PATTERN: Pattern? = null
     }
-}
\ No newline at end of file
+
+    private class PageDownload(val index: Int) {
+        val killSwitch = AtomicBoolean(false)
+    }
+}
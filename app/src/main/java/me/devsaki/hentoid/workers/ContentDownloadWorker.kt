@@ -42,6 +42,7 @@ import me.devsaki.hentoid.notification.download.DownloadSuccessNotification
 import me.devsaki.hentoid.notification.download.DownloadWarningNotification
 import me.devsaki.hentoid.notification.userAction.UserActionNotification
 import me.devsaki.hentoid.parsers.ContentParserFactory
+import me.devsaki.hentoid.parsers.images.ImageListParser
 import me.devsaki.hentoid.util.ContentHelper
 import me.devsaki.hentoid.util.GroupHelper
 import me.devsaki.hentoid.util.Helper
@@ -52,6 +53,7 @@ import me.devsaki.hentoid.util.download.ContentQueueManager
 import me.devsaki.hentoid.util.download.ContentQueueManager.isQueuePaused
 import me.devsaki.hentoid.util.download.ContentQueueManager.pauseQueue
 import me.devsaki.hentoid.util.download.DownloadHelper
+import me.devsaki.hentoid.util.download.DownloadSpeedLimiter
 import me.devsaki.hentoid.util.download.DownloadSpeedLimiter.prefsSpeedCapToKbps
 import me.devsaki.hentoid.util.download.DownloadSpeedLimiter.setSpeedLimitKbps
 import me.devsaki.hentoid.util.download.RequestOrder
@@ -76,6 +78,7 @@ import me.devsaki.hentoid.util.network.DownloadSpeedCalculator.getAvgSpeedKbps
 import me.devsaki.hentoid.util.network.HttpHelper
 import me.devsaki.hentoid.util.network.NetworkHelper
 import me.devsaki.hentoid.util.network.NetworkHelper.Connectivity
+import me.devsaki.hentoid.util.network.OkHttpClientSingleton
 import me.devsaki.hentoid.util.notification.BaseNotification
 import me.devsaki.hentoid.util.notification.NotificationManager
 import org.apache.commons.lang3.tuple.ImmutablePair
@@ -86,7 +89,14 @@ import java.io.File
 import java.io.FileFilter
 import java.io.IOException
 import java.time.Instant
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 import kotlin.math.abs
 
 class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
@@ -99,6 +109,10 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
         // KBps
         private const val LOW_NETWORK_THRESHOLD = 10
 
+        // Min and max delay between two progress notifications (ms)
+        private const val PROGRESS_MIN_INTERVAL = 250L
+        private const val PROGRESS_MAX_INTERVAL = 1000L
+
         fun isRunning(context: Context): Boolean {
             return isRunning(context, R.id.download_service)
         }
@@ -121,6 +135,16 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
     private val downloadInterrupted = AtomicBoolean(false)
     private var isCloudFlareBlocked = false
 
+    // Progress of the book being downloaded, updated as pages are processed
+    @Volatile
+    private var progressContentId = -1L
+    private val progressPagesOK = AtomicInteger(0)
+    private val progressPagesKO = AtomicInteger(0)
+    private val progressBytes = AtomicLong(0)
+    private val progressLock = ReentrantLock()
+    private val progressCondition = progressLock.newCondition()
+    private var progressPending = false
+
     private val userActionNotificationManager: NotificationManager
     private val requestQueueManager: RequestQueueManager
 
@@ -283,11 +307,39 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
         for (img in images) if (img.status == StatusContent.ERROR) nbErrors++
         val targetImageStatus =
             if (downloadMode == DownloadMode.DOWNLOAD) StatusContent.SAVED else StatusContent.ONLINE
+        // Pages whose download has been queued while the image list was being parsed
+        val streamedImages: MutableSet<ImageFile> = Collections.newSetFromMap(IdentityHashMap())
+        var streamedFolder: DocumentFile? = null
         if (images.isEmpty() || nbErrors == images.size || nbErrors > 0 && content.site.hasBackupURLs()) {
             EventBus.getDefault()
                 .post(DownloadEvent.fromPreparationStep(DownloadEvent.Step.FETCH_IMG, content))
+            // Start downloading pages as soon as they are parsed when downloading a new book
+            var pageListener: ImageListParser.PageListener? = null
+            if (images.isEmpty() && downloadMode == DownloadMode.DOWNLOAD && !content.isBeingProcessed) {
+                val parsedContent: Content = content
+                val parsedDir = dir
+                pageListener = ImageListParser.PageListener { pages ->
+                    if (downloadInterrupted.get()) return@PageListener
+                    val folder = streamedFolder
+                        ?: startStreamedDownload(parsedContent, parsedDir, location)
+                        ?: return@PageListener
+                    streamedFolder = folder
+                    dao.insertImageFiles(pages)
+                    streamedImages.addAll(pages)
+                    val pagesToParse: MutableList<ImageFile> = ArrayList()
+                    val ugoirasToDownload: MutableList<ImageFile> = ArrayList()
+                    for (img in pages) {
+                        if (img.status != StatusContent.SAVED || img.isCover) continue
+                        enrichImageDownloadParams(img, parsedContent)
+                        dispatchImage(img, folder, parsedContent, pagesToParse, ugoirasToDownload)
+                    }
+                    parsePagesForImages(pagesToParse, folder, parsedContent)
+                    downloadUgoiras(ugoirasToDownload, folder, parsedContent.site)
+                }
+            }
             try {
-                val newImages = ContentHelper.fetchImageURLs(content, targetImageStatus)
+                val newImages =
+                    ContentHelper.fetchImageURLs(content, targetImageStatus, pageListener)
                 // Cases 1 and 2 : Replace existing images with the parsed images
                 if (images.isEmpty() || nbErrors == images.size) images = newImages
                 // Case 3 : Replace images in ERROR state with the parsed images at the same position
@@ -303,7 +355,8 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
                 if (content.isUpdatedProperties) dao.insertContent(content)
 
                 // Manually insert new images (without using insertContent)
-                dao.replaceImageList(content.id, images)
+                if (streamedImages.isEmpty()) dao.replaceImageList(content.id, images)
+                else dao.insertImageFiles(images.filterNot { streamedImages.contains(it) })
             } catch (cpe: CaptchaException) {
                 Timber.i(
                     cpe,
@@ -393,6 +446,9 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
             )
         }
 
+        // Stop downloading streamed pages if parsing has failed
+        if (hasError && streamedImages.isNotEmpty()) requestQueueManager.cancelQueue()
+
         // Get updated Content with the udpated ID and status of new images
         content = dao.selectContent(content.id)
         if (null == content) return ImmutablePair(QueuingResult.CONTENT_SKIPPED, null)
@@ -410,6 +466,7 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
             .post(DownloadEvent.fromPreparationStep(DownloadEvent.Step.PREPARE_FOLDER, content))
 
         // Create destination folder for images to be downloaded
+        if (null == dir) dir = streamedFolder
         if (null == dir) dir = ContentHelper.getOrCreateContentDownloadDir(
             applicationContext, content,
             location, false
@@ -462,24 +519,17 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
         EventBus.getDefault()
             .post(DownloadEvent.fromPreparationStep(DownloadEvent.Step.PREPARE_DOWNLOAD, content))
 
-        // Set up downloader constraints
-        if (content.site.parallelDownloadCap > 0 &&
-            (requestQueueManager.downloadThreadCap > content.site.parallelDownloadCap
-                    || -1 == requestQueueManager.downloadThreadCap)
-        ) {
-            Timber.d("Setting parallel downloads count to %s", content.site.parallelDownloadCap)
-            requestQueueManager.initUsingDownloadThreadCount(
-                applicationContext,
-                content.site.parallelDownloadCap,
-                true
-            )
-        }
-        if (0 == content.site.parallelDownloadCap && requestQueueManager.downloadThreadCap > -1) {
-            Timber.d("Resetting parallel downloads count to default")
-            requestQueueManager.initUsingDownloadThreadCount(applicationContext, -1, true)
+        // Already done if pages have been streamed
+        if (null == streamedFolder) {
+            // Initialize progress with the pages that have already been processed
+            // NB : Must be done before queuing any request for that book
+            initProgress(content.id)
+
+            // Set up downloader constraints
+            // NB : Parallel downloads caps are applied per site by the request queue itself
+            requestQueueManager.setNbRequestsPerSecond(content.site.requestsCapPerSecond)
+            requestQueueManager.start()
         }
-        requestQueueManager.setNbRequestsPerSecond(content.site.requestsCapPerSecond)
-        requestQueueManager.start()
 
         // In case the download has been canceled while in preparation phase
         // NB : No log of any sort because this is normal behaviour
@@ -503,6 +553,8 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
             var cover: ImageFile? = null
             // Queue image download requests
             for (img in images) {
+                // Already queued while parsing the image list
+                if (streamedImages.contains(img)) continue
                 if (img.status == StatusContent.SAVED) {
                     enrichImageDownloadParams(img, content)
 
@@ -511,15 +563,7 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
                         img.backupUrl = images[1].url
                         cover = img
                     }
-                    if (img.needsPageParsing()) pagesToParse.add(img) else if (img.downloadParams.contains(
-                            ContentHelper.KEY_DL_PARAMS_UGOIRA_FRAMES
-                        )
-                    ) ugoirasToDownload.add(img) else if (!img.isCover) requestQueueManager.queueRequest(
-                        buildImageDownloadRequest(
-                            img, targetFolder,
-                            content
-                        )
-                    )
+                    dispatchImage(img, targetFolder, content, pagesToParse, ugoirasToDownload)
                 }
             }
 
@@ -532,26 +576,10 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
             )
 
             // Parse pages for images
-            if (pagesToParse.isNotEmpty()) {
-                CoroutineScope(Dispatchers.Default).launch {
-                    withContext(Dispatchers.IO) {
-                        pagesToParse.forEach {
-                            parsePageforImage(it, targetFolder, content)
-                        }
-                    }
-                }
-            }
+            parsePagesForImages(pagesToParse, targetFolder, content)
 
             // Parse ugoiras for images
-            if (ugoirasToDownload.isNotEmpty()) {
-                CoroutineScope(Dispatchers.Default).launch {
-                    withContext(Dispatchers.IO) {
-                        ugoirasToDownload.forEach {
-                            downloadAndUnzipUgoira(it, targetFolder, content.site)
-                        }
-                    }
-                }
-            }
+            downloadUgoiras(ugoirasToDownload, targetFolder, content.site)
         }
         EventBus.getDefault()
             .post(DownloadEvent.fromPreparationStep(DownloadEvent.Step.SAVE_QUEUE, content))
@@ -564,6 +592,94 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
         return ImmutablePair(QueuingResult.CONTENT_FOUND, content)
     }
 
+    /**
+     * Start downloading the given book while its image list is still being parsed
+     *
+     * @param content  Book to download
+     * @param dir      Folder of the book, if already known; null if it has to be created
+     * @param location Location to create the book's folder in
+     * @return Folder of the book; null if it couldn't be created
+     */
+    private fun startStreamedDownload(
+        content: Content,
+        dir: DocumentFile?,
+        location: StorageLocation
+    ): DocumentFile? {
+        val folder = dir ?: ContentHelper.getOrCreateContentDownloadDir(
+            applicationContext, content,
+            location, false
+        )
+        // Folder creation errors are handled once the image list has been parsed
+        if (null == folder || !folder.exists()) return null
+        content.storageUri = folder.uri.toString()
+        content.status = StatusContent.DOWNLOADING
+        dao.insertContent(content)
+
+        // NB : Must be done before queuing any request for that book
+        initProgress(content.id)
+        requestQueueManager.setNbRequestsPerSecond(content.site.requestsCapPerSecond)
+        requestQueueManager.start()
+        return folder
+    }
+
+    /**
+     * Queue the download of the given page, or put it aside if it needs more processing
+     * NB : Covers aren't queued
+     *
+     * @param img               Page to download
+     * @param targetFolder      Folder to save the page to
+     * @param content           Book the page belongs to
+     * @param pagesToParse      Pages that need their page to be parsed; the page is added to it if needed
+     * @param ugoirasToDownload Ugoiras to download; the page is added to it if needed
+     */
+    private fun dispatchImage(
+        img: ImageFile,
+        targetFolder: DocumentFile,
+        content: Content,
+        pagesToParse: MutableList<ImageFile>,
+        ugoirasToDownload: MutableList<ImageFile>
+    ) {
+        if (img.needsPageParsing()) pagesToParse.add(img)
+        else if (img.downloadParams.contains(ContentHelper.KEY_DL_PARAMS_UGOIRA_FRAMES))
+            ugoirasToDownload.add(img)
+        else if (!img.isCover) requestQueueManager.queueRequest(
+            buildImageDownloadRequest(
+                img, targetFolder,
+                content
+            )
+        )
+    }
+
+    private fun parsePagesForImages(
+        pagesToParse: List<ImageFile>,
+        targetFolder: DocumentFile,
+        content: Content
+    ) {
+        if (pagesToParse.isEmpty()) return
+        CoroutineScope(Dispatchers.Default).launch {
+            withContext(Dispatchers.IO) {
+                pagesToParse.forEach {
+                    parsePageforImage(it, targetFolder, content)
+                }
+            }
+        }
+    }
+
+    private fun downloadUgoiras(
+        ugoirasToDownload: List<ImageFile>,
+        targetFolder: DocumentFile,
+        site: Site
+    ) {
+        if (ugoirasToDownload.isEmpty()) return
+        CoroutineScope(Dispatchers.Default).launch {
+            withContext(Dispatchers.IO) {
+                ugoirasToDownload.forEach {
+                    downloadAndUnzipUgoira(it, targetFolder, site)
+                }
+            }
+        }
+    }
+
     private fun enrichImageDownloadParams(img: ImageFile, content: Content) {
         // Enrich download params just in case
         val downloadParams: MutableMap<String, String> =
@@ -590,40 +706,40 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
      * @param content Content to watch (1st book of the download queue)
      */
     private fun watchProgress(content: Content) {
-        val refreshDelayMs = 500
         var isDone: Boolean
         var pagesOK = 0
-        var pagesKO = 0
-        var downloadedBytes: Long = 0
+        var pagesKO: Int
+        var downloadedBytes: Long
         var firstPageDownloaded = false
-        var deltaPages = 0
-        var nbDeltaZeroPages = 0
-        var networkBytes: Long = 0
+        var lastPageTimestamp = Instant.now().toEpochMilli()
+        var lowNetworkTimestamp = -1L
+        var networkBytes: Long = NetworkHelper.getIncomingNetworkUsage(applicationContext)
+        var networkTimestamp = Instant.now().toEpochMilli()
         var deltaNetworkBytes: Long
-        var nbDeltaLowNetwork = 0
+        var lastPublish = 0L
         val images = content.imageList
         // Compute total downloadable pages; online (stream) pages do not count
         val totalPages = images.count { i: ImageFile -> i.status != StatusContent.ONLINE }
         val contentQueueManager = ContentQueueManager
         do {
-            val statuses = dao.countProcessedImagesById(content.id)
-            var status = statuses[StatusContent.DOWNLOADED]
-
-            // Measure idle time since last iteration
-            if (status != null) {
-                deltaPages = status.left - pagesOK
-                if (deltaPages == 0) nbDeltaZeroPages++ else {
-                    firstPageDownloaded = true
-                    nbDeltaZeroPages = 0
-                }
-                pagesOK = status.left
-                downloadedBytes = status.right
+            // Wait for pages to be processed, without publishing progress more than necessary
+            awaitProgress(lastPublish, totalPages)
+            val now = Instant.now().toEpochMilli()
+            lastPublish = now
+
+            // Measure idle time since last page
+            val newPagesOK = progressPagesOK.get()
+            val deltaPages = newPagesOK - pagesOK
+            if (deltaPages != 0) {
+                firstPageDownloaded = true
+                lastPageTimestamp = now
             }
-            status = statuses[StatusContent.ERROR]
-            if (status != null) pagesKO = status.left
+            pagesOK = newPagesOK
+            pagesKO = progressPagesKO.get()
+            downloadedBytes = progressBytes.get()
             val downloadedMB = downloadedBytes / (1024.0 * 1024)
             val progress = pagesOK + pagesKO
-            isDone = progress == totalPages
+            isDone = progress >= totalPages
             Timber.d(
                 "Progress: OK:%d size:%dMB - KO:%d - Total:%d",
                 pagesOK,
@@ -635,9 +751,12 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
             // Download speed and size estimation
             val networkBytesNow = NetworkHelper.getIncomingNetworkUsage(applicationContext)
             deltaNetworkBytes = networkBytesNow - networkBytes
-            if (deltaNetworkBytes < 1024 * LOW_NETWORK_THRESHOLD * refreshDelayMs / 1000f && firstPageDownloaded) nbDeltaLowNetwork++ // LOW_NETWORK_THRESHOLD KBps threshold once download has started
-            else nbDeltaLowNetwork = 0
+            val deltaNetworkMs = (now - networkTimestamp).coerceAtLeast(1)
+            if (deltaNetworkBytes < 1024 * LOW_NETWORK_THRESHOLD * deltaNetworkMs / 1000f && firstPageDownloaded) { // LOW_NETWORK_THRESHOLD KBps threshold once download has started
+                if (lowNetworkTimestamp < 0) lowNetworkTimestamp = now
+            } else lowNetworkTimestamp = -1
             networkBytes = networkBytesNow
+            networkTimestamp = now
             addSampleNow(networkBytes)
             val avgSpeedKbps = getAvgSpeedKbps().toInt()
             Timber.d(
@@ -648,17 +767,12 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
                     applicationContext.resources
                 )
             )
-            Timber.d(
-                "nbDeltaZeroPages: %d / nbDeltaLowNetwork: %d",
-                nbDeltaZeroPages,
-                nbDeltaLowNetwork
-            )
 
             // Restart request queue when the queue has idled for too long
             // Idle = very low download speed _AND_ no new pages downloaded
-            if (nbDeltaLowNetwork > IDLE_THRESHOLD * 1000f / refreshDelayMs && nbDeltaZeroPages > IDLE_THRESHOLD * 1000f / refreshDelayMs) {
-                nbDeltaLowNetwork = 0
-                nbDeltaZeroPages = 0
+            if (lowNetworkTimestamp > -1 && now - lowNetworkTimestamp > IDLE_THRESHOLD * 1000L && now - lastPageTimestamp > IDLE_THRESHOLD * 1000L) {
+                lowNetworkTimestamp = -1
+                lastPageTimestamp = now
                 Timber.d("Inactivity detected ====> restarting request queue")
                 requestQueueManager.resetRequestQueue(false)
             }
@@ -707,11 +821,16 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
                         .post(DownloadCommandEvent(DownloadCommandEvent.Type.EV_SKIP))
                 }
             }
-
-            // We're polling the DB because we can't observe LiveData from a background service
-            Helper.pause(refreshDelayMs)
         } while (!isDone && !downloadInterrupted.get() && !contentQueueManager.isQueuePaused)
+        progressContentId = -1
         if (isDone && !downloadInterrupted.get()) {
+            // The DB is the reference for the final figures
+            val statuses = dao.countProcessedImagesById(content.id)
+            statuses[StatusContent.DOWNLOADED]?.let {
+                pagesOK = it.left
+                downloadedBytes = it.right
+            }
+            pagesKO = statuses[StatusContent.ERROR]?.left ?: 0
             // NB : no need to supply the Content itself as it has not been updated during the loop
             completeDownload(content.id, content.title, pagesOK, pagesKO, downloadedBytes)
         } else {
@@ -720,6 +839,80 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
         }
     }
 
+    /**
+     * Initialize the in-memory progress of the given book with its pages that have already been processed
+     *
+     * @param contentId ID of the book that is about to be downloaded
+     */
+    private fun initProgress(contentId: Long) {
+        val statuses = dao.countProcessedImagesById(contentId)
+        progressPagesOK.set(statuses[StatusContent.DOWNLOADED]?.left ?: 0)
+        progressBytes.set(statuses[StatusContent.DOWNLOADED]?.right ?: 0)
+        progressPagesKO.set(statuses[StatusContent.ERROR]?.left ?: 0)
+        progressContentId = contentId
+    }
+
+    /**
+     * Record the processing of the given page in the in-memory progress and signal it
+     * NB : Counts pages the same way as DAO.countProcessedImagesById, i.e. by their current status
+     *
+     * @param img            Processed page, with its updated status
+     * @param previousStatus Status of the page before it has been processed
+     */
+    private fun recordProgress(img: ImageFile, previousStatus: StatusContent) {
+        // Only pages stored in the DB are taken into account, as the final figures come from the DB
+        if (img.id < 1 || img.contentId != progressContentId) return
+        if (previousStatus == img.status) return
+        when (previousStatus) {
+            StatusContent.DOWNLOADED -> {
+                progressPagesOK.decrementAndGet()
+                // NB : Failed pages keep the size of their previous download
+                progressBytes.addAndGet(-img.size)
+            }
+
+            StatusContent.ERROR -> progressPagesKO.decrementAndGet()
+            else -> {}
+        }
+        if (StatusContent.DOWNLOADED == img.status) {
+            progressPagesOK.incrementAndGet()
+            progressBytes.addAndGet(img.size)
+        } else {
+            progressPagesKO.incrementAndGet()
+        }
+        signalProgress()
+    }
+
+    private fun signalProgress() {
+        progressLock.withLock {
+            progressPending = true
+            progressCondition.signalAll()
+        }
+    }
+
+    /**
+     * Wait until new progress has to be published, i.e. whichever comes first
+     * - Some pages have been processed, and at least PROGRESS_MIN_INTERVAL ms have passed since the last publication
+     * - All pages have been processed or the download has been interrupted
+     * - PROGRESS_MAX_INTERVAL ms have passed since the last publication
+     *
+     * @param lastPublish Timestamp of the last publication
+     * @param totalPages  Number of pages to process
+     */
+    private fun awaitProgress(lastPublish: Long, totalPages: Int) {
+        progressLock.withLock {
+            while (!downloadInterrupted.get() && !ContentQueueManager.isQueuePaused) {
+                if (progressPagesOK.get() + progressPagesKO.get() >= totalPages) break
+                val now = Instant.now().toEpochMilli()
+                if (now >= lastPublish + PROGRESS_MAX_INTERVAL) break
+                if (progressPending && now >= lastPublish + PROGRESS_MIN_INTERVAL) break
+                val wakeAt =
+                    if (progressPending) lastPublish + PROGRESS_MIN_INTERVAL else lastPublish + PROGRESS_MAX_INTERVAL
+                progressCondition.await(wakeAt - now, TimeUnit.MILLISECONDS)
+            }
+            progressPending = false
+        }
+    }
+
     /**
      * Completes the download of a book when all images have been processed
      * Then launches a new IntentService
@@ -920,6 +1113,9 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
                     }
                 }
                 Timber.i("Content download finished: %s [%s]", title, contentId)
+                // Tells how well connections are reused since the last reset of the network stack
+                OkHttpClientSingleton.getConnectionStats()
+                    .forEach { (host, stats) -> Timber.d("Connections to %s : %s", host, stats) }
 
                 // Delete book from queue
                 dao.deleteQueue(content)
@@ -1251,7 +1447,8 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
                     targetFileName,
                     downloadInterrupted,
                     ArchiveHelper.ZIP_MIME_TYPE,
-                    resourceId = img.order
+                    resourceId = img.order,
+                    bandwidthFlow = DownloadSpeedLimiter.contentFlow(img.contentId)
                 )
 
                 // == Extract all frames
@@ -1347,10 +1544,12 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
         img: ImageFile, success: Boolean,
         uriStr: String
     ) {
+        val previousStatus = img.status
         img.status = if (success) StatusContent.DOWNLOADED else StatusContent.ERROR
         img.fileUri = uriStr
         if (success) img.downloadParams = ""
         if (img.id > 0) dao.updateImageFileStatusParamsMimeTypeUriSize(img) // because thumb image isn't in the DB
+        recordProgress(img, previousStatus)
     }
 
     /**
@@ -1388,6 +1587,8 @@ class ContentDownloadWorker(context: Context, parameters: WorkerParameters) :
             DownloadCommandEvent.Type.EV_INTERRUPT_CONTENT, DownloadCommandEvent.Type.EV_UNPAUSE -> {}
             else -> {}
         }
+        // Wake progress watching up to take the command into account
+        signalProgress()
         EventBus.getDefault().post(DownloadEvent(event))
     }
 
@@ -6,7 +6,10 @@ import androidx.work.Data
 import androidx.work.WorkerParameters
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withContext
 import me.devsaki.hentoid.BuildConfig
 import me.devsaki.hentoid.R
@@ -20,18 +23,19 @@ import me.devsaki.hentoid.notification.duplicates.DuplicateCompleteNotification
 import me.devsaki.hentoid.notification.duplicates.DuplicateProgressNotification
 import me.devsaki.hentoid.notification.duplicates.DuplicateStartNotification
 import me.devsaki.hentoid.util.ContentHelper
+import me.devsaki.hentoid.util.DuplicateCandidateIndex
 import me.devsaki.hentoid.util.DuplicateHelper.DuplicateCandidate
 import me.devsaki.hentoid.util.DuplicateHelper.indexCovers
 import me.devsaki.hentoid.util.DuplicateHelper.processContent
 import me.devsaki.hentoid.util.Preferences
 import me.devsaki.hentoid.util.notification.BaseNotification
 import me.devsaki.hentoid.util.string_similarity.Cosine
-import me.devsaki.hentoid.util.string_similarity.StringSimilarity
 import me.devsaki.hentoid.workers.data.DuplicateData
 import org.greenrobot.eventbus.EventBus
 import timber.log.Timber
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.min
 
 class DuplicateDetectorWorker(context: Context, parameters: WorkerParameters) :
     BaseWorker(context, parameters, R.id.duplicate_detector_service, "duplicate_detector") {
@@ -41,6 +45,9 @@ class DuplicateDetectorWorker(context: Context, parameters: WorkerParameters) :
         const val STEP_COVER_INDEX = 0
         const val STEP_DUPLICATES = 1
 
+        // Number of reference rows processed by each worker between two checkpoints
+        private const val ROWS_PER_WORKER = 8
+
         fun isRunning(context: Context): Boolean {
             return isRunning(context, R.id.duplicate_detector_service)
         }
@@ -181,48 +188,101 @@ class DuplicateDetectorWorker(context: Context, parameters: WorkerParameters) :
         sensitivity: Int
     ) {
         val tempResults: MutableList<DuplicateEntry> = ArrayList()
-        val cosine: StringSimilarity = Cosine()
         val max = library.size - 1
-        for (i in startIndex until library.size) {
+        // Only compare pairs that can reach the thresholds instead of all possible pairs
+        val index = DuplicateCandidateIndex(library, useTitle, useCover, sensitivity)
+        trace(Log.DEBUG, "Candidate index built")
+        val nbWorkers = Runtime.getRuntime().availableProcessors().coerceAtLeast(1)
+        val batchSize = nbWorkers * ROWS_PER_WORKER
+        var batchStart = startIndex
+        while (batchStart < library.size) {
             if (isStopped) return
-            val reference = library[i]
-            for (j in i + 1 until library.size) {
-                if (isStopped) return
-                val candidate = library[j]
-                val entry = processContent(
-                    reference,
-                    candidate,
-                    useTitle,
-                    useCover,
-                    useSameArtist,
-                    useSameLanguage,
-                    ignoreChapters,
-                    sensitivity,
-                    cosine
-                )
-                if (entry != null && processEntry(
-                        entry.referenceId,
-                        entry.duplicateId,
-                        matchedIds,
-                        reverseMatchedIds
-                    )
-                ) tempResults.add(entry)
+            val batchEnd = min(batchStart + batchSize, library.size)
+            // Score the rows of the batch in parallel
+            // Rows are interleaved between workers, as the first rows have more candidates
+            val batchResults = arrayOfNulls<List<DuplicateEntry>>(batchEnd - batchStart)
+            runBlocking {
+                (0 until nbWorkers).map { worker ->
+                    async(Dispatchers.Default) {
+                        val cosine = Cosine()
+                        for (i in batchStart + worker until batchEnd step nbWorkers) {
+                            if (isStopped) return@async
+                            batchResults[i - batchStart] = scoreRow(
+                                library,
+                                index,
+                                i,
+                                useTitle,
+                                useCover,
+                                useSameArtist,
+                                useSameLanguage,
+                                ignoreChapters,
+                                sensitivity,
+                                cosine
+                            )
+                        }
+                    }
+                }.awaitAll()
             }
 
-            // Save results for this reference
-            if (tempResults.isNotEmpty()) {
-                duplicatesDao.insertEntries(tempResults)
-                tempResults.clear()
+            // Merge results in row order, as transitive matches depend on processing order
+            for (i in batchStart until batchEnd) {
+                val rowResults = batchResults[i - batchStart] ?: return // Stopped mid-batch
+                rowResults.forEach {
+                    if (processEntry(it.referenceId, it.duplicateId, matchedIds, reverseMatchedIds))
+                        tempResults.add(it)
+                }
+
+                // Save results for this reference
+                if (tempResults.isNotEmpty()) {
+                    duplicatesDao.insertEntries(tempResults)
+                    tempResults.clear()
+                }
+                currentIndex.set(i)
+                if (0 == i % 10) notifyProcessProgress(
+                    i,
+                    max
+                ) // Only update every 10 iterations for performance
             }
-            currentIndex.set(i)
-            if (0 == i % 10) notifyProcessProgress(
-                i,
-                max
-            ) // Only update every 10 iterations for performance
+            batchStart = batchEnd
         }
         notifyProcessProgress(max, max)
     }
 
+    /**
+     * Score the given reference against all its candidates
+     *
+     * @return Matching entries, in candidate order
+     */
+    private fun scoreRow(
+        library: List<DuplicateCandidate>,
+        index: DuplicateCandidateIndex,
+        referenceIndex: Int,
+        useTitle: Boolean,
+        useCover: Boolean,
+        useSameArtist: Boolean,
+        useSameLanguage: Boolean,
+        ignoreChapters: Boolean,
+        sensitivity: Int,
+        textComparator: Cosine
+    ): List<DuplicateEntry> {
+        val result: MutableList<DuplicateEntry> = ArrayList()
+        val reference = library[referenceIndex]
+        for (j in index.getCandidates(referenceIndex)) {
+            processContent(
+                reference,
+                library[j],
+                useTitle,
+                useCover,
+                useSameArtist,
+                useSameLanguage,
+                ignoreChapters,
+                sensitivity,
+                textComparator
+            )?.let { result.add(it) }
+        }
+        return result
+    }
+
     private fun indexContentInfo(c: Content) {
         // No need for that unless we're debugging
         if (BuildConfig.DEBUG) trace(
@@ -195,7 +195,7 @@ public class ExternalImportWorker extends BaseWorker {
             trace(Log.INFO, 2, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", detectedContent.size() + "");
             eventComplete(PrimaryImportWorker.STEP_3_BOOKS, detectedContent.size(), booksOK, booksKO, null);
             // Clear disk cache as import may reuse previous image IDs
-            DiskCache.INSTANCE.init(getApplicationContext());
+            DiskCache.INSTANCE.clear(getApplicationContext());
 
             // Write log in root folder
             logFile = LogHelper.INSTANCE.writeLog(context, buildLogInfo(log));
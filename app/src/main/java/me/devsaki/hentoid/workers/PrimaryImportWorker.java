@@ -257,7 +257,7 @@ public class PrimaryImportWorker extends BaseWorker {
             trace(Log.INFO, STEP_3_BOOKS, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", bookFolders.size() - nbFolders + "");
             eventComplete(STEP_3_BOOKS, bookFolders.size(), booksOK, booksKO, null);
             // Clear disk cache as import may reuse previous image IDs
-            DiskCache.INSTANCE.init(getApplicationContext());
+            DiskCache.INSTANCE.clear(getApplicationContext());
 
             // 4th pass : Import queue, bookmarks and renaming rules JSON
             dao = new ObjectBoxDAO(context);
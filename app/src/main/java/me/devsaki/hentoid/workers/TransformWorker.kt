@@ -12,7 +12,12 @@ import com.squareup.moshi.Moshi
 import com.squareup.moshi.kotlin.reflect.KotlinJsonAdapterFactory
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.withContext
 import me.devsaki.hentoid.R
 import me.devsaki.hentoid.ai_upscale.AiUpscaler
@@ -22,7 +27,6 @@ import me.devsaki.hentoid.database.domains.Content
 import me.devsaki.hentoid.database.domains.ImageFile
 import me.devsaki.hentoid.notification.transform.TransformCompleteNotification
 import me.devsaki.hentoid.notification.transform.TransformProgressNotification
-import me.devsaki.hentoid.util.Helper
 import me.devsaki.hentoid.util.ProgressManager
 import me.devsaki.hentoid.util.file.FileHelper
 import me.devsaki.hentoid.util.image.ImageHelper
@@ -32,18 +36,26 @@ import timber.log.Timber
 import java.io.File
 import java.nio.ByteBuffer
 import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 
 
 class TransformWorker(context: Context, parameters: WorkerParameters) :
     BaseWorker(context, parameters, R.id.transform_service, null) {
 
+    companion object {
+        // Share of the max heap size pictures being transformed can use
+        private const val MEMORY_BUDGET_RATIO = 0.25
+    }
+
     private val dao: CollectionDAO
     private var upscaler: AiUpscaler? = null
 
     private var totalItems = 0
-    private var nbOK = 0
-    private var nbKO = 0
+    private val nbOK = AtomicInteger(0)
+    private val nbKO = AtomicInteger(0)
     private lateinit var globalProgress: ProgressManager
 
     init {
@@ -135,81 +147,154 @@ class TransformWorker(context: Context, parameters: WorkerParameters) :
             content.setIsBeingProcessed(false)
             dao.insertContentCore(content)
         } else {
-            nbKO += images.size
+            nbKO.addAndGet(images.size)
         }
     }
 
+    /**
+     * Transform the given pictures through a pipeline of three stages running concurrently :
+     * read (I/O), transform (CPU; one coroutine per core) and write (I/O)
+     * Stages are linked by bounded channels, which limits the number of pictures held in memory;
+     * pictures enter the transform stage only when their decoded size fits into the memory budget
+     */
     private fun transformChapter(
         imgs: List<ImageFile>, contentFolder: DocumentFile, params: ImageTransform.Params
     ) {
-        val nbManhwa = AtomicInteger(0)
-        params.forceManhwa = false
-
-        imgs.forEach {
-            transformImage(it, contentFolder, params, nbManhwa, imgs.size)
-            if (isStopped) return
+        // AI upscaling runs on a single native engine that writes to a single file
+        val nbWorkers =
+            if (upscaler != null) 1 else Runtime.getRuntime().availableProcessors().coerceAtLeast(1)
+
+        // Memory budget, in KB
+        val budgetKb =
+            (Runtime.getRuntime().maxMemory() * MEMORY_BUDGET_RATIO / 1024).toInt().coerceAtLeast(1)
+        val memoryBudget = Semaphore(budgetKb)
+
+        runBlocking {
+            val toTransform = Channel<TransformInput>(nbWorkers)
+            val toWrite = Channel<TransformOutput>(nbWorkers)
+
+            launch(Dispatchers.IO) {
+                readImages(imgs, params, memoryBudget, budgetKb, toTransform)
+                toTransform.close()
+            }
+            val transformers = (0 until nbWorkers).map {
+                launch(Dispatchers.Default) {
+                    for (input in toTransform) {
+                        val output = try {
+                            // Drain the channel to unblock the read stage
+                            if (isStopped) null else transformImage(input)
+                        } finally {
+                            memoryBudget.release(input.weightKb)
+                        }
+                        output?.let { toWrite.send(it) }
+                    }
+                }
+            }
+            launch {
+                transformers.joinAll()
+                toWrite.close()
+            }
+            withContext(Dispatchers.IO) {
+                for (output in toWrite) {
+                    if (isStopped) continue // Drain the channel to unblock the transform stage
+                    writeImage(output, contentFolder)
+                }
+            }
         }
     }
 
-    @Suppress("ReplaceArrayEqualityOpWithArraysEquals")
-    private fun transformImage(
-        img: ImageFile,
-        contentFolder: DocumentFile,
+    /**
+     * Read stage : read the given pictures and decide which transform parameters apply to each of them
+     * NB : Blocks until the decoded size of each picture fits into the given memory budget
+     */
+    private suspend fun readImages(
+        imgs: List<ImageFile>,
         params: ImageTransform.Params,
-        nbManhwa: AtomicInteger,
-        nbPages: Int
+        memoryBudget: Semaphore,
+        budgetKb: Int,
+        output: SendChannel<TransformInput>
     ) {
-        val sourceFile = FileHelper.getDocumentFromTreeUriString(applicationContext, img.fileUri)
-        if (null == sourceFile) {
-            nextKO()
-            return
-        }
-        val rawData = FileHelper.getInputStream(applicationContext, sourceFile).use {
-            return@use it.readBytes()
-        }
-        val imageId = img.fileUri
+        // Manhwa detection depends on the pictures read so far => it has to be done in order
+        var nbManhwa = 0
         val metadataOpts = BitmapFactory.Options()
         metadataOpts.inJustDecodeBounds = true
 
-        val targetData: ByteArray
-        if (upscaler != null) { // AI upscale
-            targetData = upscale(imageId, rawData)
-        } else { // regular resize
-            BitmapFactory.decodeByteArray(rawData, 0, rawData.size, metadataOpts)
-            val isManhwa = metadataOpts.outHeight * 1.0 / metadataOpts.outWidth > 3
+        imgs.forEach {
+            if (isStopped) return
+            val sourceFile =
+                FileHelper.getDocumentFromTreeUriString(applicationContext, it.fileUri)
+            if (null == sourceFile) {
+                nextKO()
+                return@forEach
+            }
+            val rawData = FileHelper.getInputStream(applicationContext, sourceFile).use { s ->
+                return@use s.readBytes()
+            }
 
-            if (isManhwa) nbManhwa.incrementAndGet()
-            params.forceManhwa = nbManhwa.get() * 1.0 / nbPages > 0.9
+            BitmapFactory.decodeByteArray(rawData, 0, rawData.size, metadataOpts)
+            val imgParams = if (upscaler != null) params else {
+                val isManhwa = metadataOpts.outHeight * 1.0 / metadataOpts.outWidth > 3
+                if (isManhwa) nbManhwa++
+                params.copy(forceManhwa = nbManhwa * 1.0 / imgs.size > 0.9)
+            }
+            // Decoded ARGB_8888 bitmap + raw data; a picture larger than the whole budget is processed alone
+            val decodedSize =
+                metadataOpts.outWidth.coerceAtLeast(0).toLong() * metadataOpts.outHeight.coerceAtLeast(0) * 4
+            val weightKb = ((decodedSize + rawData.size) / 1024).coerceIn(1, budgetKb.toLong()).toInt()
+            runInterruptible { memoryBudget.acquire(weightKb) }
+            output.send(TransformInput(it, sourceFile, rawData, imgParams, weightKb))
+        }
+    }
 
-            targetData = ImageTransform.transform(rawData, params)
+    /**
+     * Transform stage : transform the given picture
+     *
+     * @return Transformed picture; null if it's unchanged
+     */
+    @Suppress("ReplaceArrayEqualityOpWithArraysEquals")
+    private fun transformImage(input: TransformInput): TransformOutput? {
+        val rawData = input.rawData
+        val targetData = if (upscaler != null) { // AI upscale
+            upscale(input.img.fileUri, rawData)
+        } else { // regular resize
+            ImageTransform.transform(rawData, input.params)
         }
-        if (isStopped) return
-        if (targetData == rawData) return // Unchanged picture
+        if (isStopped) return null
+        if (targetData == rawData) return null // Unchanged picture
 
-        // Save transformed image data back to original image file
+        val metadataOpts = BitmapFactory.Options()
+        metadataOpts.inJustDecodeBounds = true
         val isLossless = ImageHelper.isImageLossless(rawData)
-        val sourceName = sourceFile.name ?: ""
-
         BitmapFactory.decodeByteArray(targetData, 0, targetData.size, metadataOpts)
         val targetDims = Point(metadataOpts.outWidth, metadataOpts.outHeight)
         val targetMime =
-            ImageTransform.determineEncoder(isLossless, targetDims, params).mimeType
-        val targetName = img.name + "." + FileHelper.getExtensionFromMimeType(targetMime)
+            ImageTransform.determineEncoder(isLossless, targetDims, input.params).mimeType
+        return TransformOutput(input.img, input.sourceFile, targetData, targetMime)
+    }
+
+    /**
+     * Write stage : save transformed image data back to the original image file
+     */
+    private fun writeImage(output: TransformOutput, contentFolder: DocumentFile) {
+        val img = output.img
+        val imageId = img.fileUri
+        val sourceName = output.sourceFile.name ?: ""
+        val targetName = img.name + "." + FileHelper.getExtensionFromMimeType(output.mimeType)
         val newFile = sourceName != targetName
 
-        val targetUri = if (!newFile) sourceFile.uri
+        val targetUri = if (!newFile) output.sourceFile.uri
         else {
-            val targetFile = contentFolder.createFile(targetMime, targetName)
-            if (targetFile != null) sourceFile.delete()
+            val targetFile = contentFolder.createFile(output.mimeType, targetName)
+            if (targetFile != null) output.sourceFile.delete()
             targetFile?.uri
         }
         if (targetUri != null) {
-            FileHelper.saveBinary(applicationContext, targetUri, targetData)
+            FileHelper.saveBinary(applicationContext, targetUri, output.data)
             // Update image properties
             img.fileUri = targetUri.toString()
-            img.size = targetData.size.toLong()
+            img.size = output.data.size.toLong()
             img.isTransformed = true
-            img.mimeType = targetMime
+            img.mimeType = output.mimeType
 
             nextOK()
             globalProgress.setProgress(imageId, 1f)
@@ -232,23 +317,26 @@ class TransformWorker(context: Context, parameters: WorkerParameters) :
         upscaler?.let {
             try {
                 killSwitch.put(0, 0)
+                // Signalled as soon as the native process is over, whatever its outcome
+                val done = CountDownLatch(1)
+                val result = AtomicInteger(-1)
                 CoroutineScope(Dispatchers.Default).launch {
-                    val res = withContext(Dispatchers.Default) {
-                        it.upscale(
-                            dataIn, outputFile.absolutePath, progress, killSwitch
+                    try {
+                        result.set(
+                            it.upscale(
+                                dataIn, outputFile.absolutePath, progress, killSwitch
+                            )
                         )
+                    } finally {
+                        done.countDown()
                     }
-                    // Fail => exit immediately
-                    if (res != 0) progress.put(0, 100)
                 }
 
-                // Poll while processing
-                val intervalSeconds = 3
+                // Report progress while processing; resume as soon as processing is over
+                val intervalSeconds = 3L
                 var iterations = 0
-                while (iterations < 180 / intervalSeconds) { // max 3 minutes
-                    Helper.pause(intervalSeconds * 1000)
-
-                    if (isStopped) {
+                while (!done.await(intervalSeconds, TimeUnit.SECONDS)) {
+                    if (isStopped || ++iterations >= 180 / intervalSeconds) { // max 3 minutes
                         Timber.d("Kill order sent")
                         killSwitch.put(0, 1)
                         return rawData
@@ -257,10 +345,9 @@ class TransformWorker(context: Context, parameters: WorkerParameters) :
                     val p = progress.get(0)
                     globalProgress.setProgress(imgId, p / 100f)
                     notifyProcessProgress()
-
-                    iterations++
-                    if (p >= 100) break
                 }
+                // Fail => keep the original picture
+                if (result.get() != 0) return rawData
             } finally {
                 // can't recycle ByteBuffer dataIn
             }
@@ -272,17 +359,17 @@ class TransformWorker(context: Context, parameters: WorkerParameters) :
     }
 
     private fun nextOK() {
-        nbOK++
+        nbOK.incrementAndGet()
     }
 
     private fun nextKO() {
-        nbKO++
+        nbKO.incrementAndGet()
     }
 
     private fun notifyProcessProgress() {
         notificationManager.notify(
             TransformProgressNotification(
-                nbOK + nbKO,
+                nbOK.get() + nbKO.get(),
                 totalItems,
                 globalProgress.getGlobalProgress()
             )
@@ -290,6 +377,21 @@ class TransformWorker(context: Context, parameters: WorkerParameters) :
     }
 
     private fun notifyProcessEnd() {
-        notificationManager.notifyLast(TransformCompleteNotification(nbOK, nbKO > 0))
+        notificationManager.notifyLast(TransformCompleteNotification(nbOK.get(), nbKO.get() > 0))
     }
-}
\ No newline at end of file
+
+    private class TransformInput(
+        val img: ImageFile,
+        val sourceFile: DocumentFile,
+        val rawData: ByteArray,
+        val params: ImageTransform.Params,
+        val weightKb: Int
+    )
+
+    private class TransformOutput(
+        val img: ImageFile,
+        val sourceFile: DocumentFile,
+        val data: ByteArray,
+        val mimeType: String
+    )
+}
@@ -0,0 +1,65 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class AdBlockVerdictsTest {
+
+    private static final long TTL = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void persist() throws IOException {
+        File journal = new File(folder.getRoot(), "verdicts");
+        AdBlockVerdicts verdicts = new AdBlockVerdicts(journal, TTL, 100);
+        Assert.assertNull(verdicts.get(1));
+        verdicts.put(1, true);
+        verdicts.put(-2, false);
+        verdicts.put(3, false);
+        verdicts.put(3, true);
+
+        AdBlockVerdicts reloaded = new AdBlockVerdicts(journal, TTL, 100);
+        AdBlockVerdicts.Verdict verdict = reloaded.get(1);
+        Assert.assertNotNull(verdict);
+        Assert.assertTrue(verdict.isBlocked);
+        Assert.assertFalse(reloaded.isOutdated(verdict));
+        verdict = reloaded.get(-2);
+        Assert.assertNotNull(verdict);
+        Assert.assertFalse(verdict.isBlocked);
+        verdict = reloaded.get(3);
+        Assert.assertNotNull(verdict);
+        Assert.assertTrue(verdict.isBlocked);
+    }
+
+    @Test
+    public void outdated() {
+        AdBlockVerdicts verdicts = new AdBlockVerdicts(new File(folder.getRoot(), "verdicts"), TTL, 100);
+        verdicts.put(1, true, System.currentTimeMillis() - 2 * TTL);
+        AdBlockVerdicts.Verdict verdict = verdicts.get(1);
+        Assert.assertNotNull(verdict);
+        Assert.assertTrue(verdicts.isOutdated(verdict));
+    }
+
+    @Test
+    public void sizeLimitAndCompaction() {
+        File journal = new File(folder.getRoot(), "verdicts");
+        AdBlockVerdicts verdicts = new AdBlockVerdicts(journal, TTL, 10);
+        for (int i = 0; i < 2000; i++) verdicts.put(i, 0 == i % 2);
+        // Only the 10 latest verdicts are kept
+        Assert.assertNull(verdicts.get(0));
+        Assert.assertNotNull(verdicts.get(1999));
+
+        AdBlockVerdicts reloaded = new AdBlockVerdicts(journal, TTL, 10);
+        Assert.assertNull(reloaded.get(1989));
+        for (int i = 1990; i < 2000; i++) Assert.assertNotNull(reloaded.get(i));
+        // Journal has been compacted along the way
+        Assert.assertTrue(journal.length() < 2000 * 10);
+    }
+}
@@ -0,0 +1,91 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.devsaki.hentoid.util.network.CachingDns;
+import okhttp3.Dns;
+
+public class CachingDnsTest {
+
+    private static final class CountingDns implements Dns {
+        final AtomicInteger lookups = new AtomicInteger(0);
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (hostname.startsWith("unknown")) throw new UnknownHostException(hostname);
+            return Collections.singletonList(InetAddress.getByAddress(hostname, new byte[]{10, 0, 0, (byte) hostname.length()}));
+        }
+    }
+
+    @Test
+    public void lookup() throws UnknownHostException {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60_000, 10);
+
+        List<InetAddress> first = dns.lookup("site.com");
+        List<InetAddress> second = dns.lookup("site.com");
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(1, delegate.lookups.get());
+
+        dns.lookup("other-site.com");
+        Assert.assertEquals(2, delegate.lookups.get());
+        Assert.assertEquals(2, dns.size());
+
+        dns.clear();
+        dns.lookup("site.com");
+        Assert.assertEquals(3, delegate.lookups.get());
+    }
+
+    @Test
+    public void failuresAreNotKept() {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60_000, 10);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                dns.lookup("unknown.com");
+                Assert.fail("Lookup should have failed");
+            } catch (UnknownHostException e) {
+                // Expected
+            }
+        }
+        Assert.assertEquals(2, delegate.lookups.get());
+        Assert.assertEquals(0, dns.size());
+    }
+
+    @Test
+    public void expiry() throws UnknownHostException, InterruptedException {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 50, 10);
+
+        dns.lookup("site.com");
+        Thread.sleep(100);
+        dns.lookup("site.com");
+        Assert.assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void maxEntries() throws UnknownHostException {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60_000, 2);
+
+        dns.lookup("a.com");
+        dns.lookup("b.com");
+        dns.lookup("c.com");
+        Assert.assertEquals(2, dns.size());
+
+        // Oldest entry has been forgotten
+        dns.lookup("a.com");
+        Assert.assertEquals(4, delegate.lookups.get());
+        dns.lookup("c.com");
+        Assert.assertEquals(4, delegate.lookups.get());
+    }
+}
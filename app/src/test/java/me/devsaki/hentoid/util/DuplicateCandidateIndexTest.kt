@@ -0,0 +1,119 @@
+package me.devsaki.hentoid.util
+
+import me.devsaki.hentoid.database.domains.Content
+import me.devsaki.hentoid.util.DuplicateHelper.DuplicateCandidate
+import me.devsaki.hentoid.util.string_similarity.Cosine
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class DuplicateCandidateIndexTest {
+
+    private val baseTitles = listOf(
+        "My Neighbor Is a Vampire",
+        "The Summer Festival Night",
+        "[Circle Name (Artist)] Secret Afterschool Lessons (Original) [English]",
+        "Magical Girl Training Camp",
+        "A Day at the Beach House",
+        "Rainy Season Romance",
+        "Office Lady Overtime",
+        "Kitsune Shrine Maiden Story",
+        "Winter Onsen Trip",
+        "ab",
+        "x",
+        ""
+    )
+
+    private fun buildCorpus(random: Random): List<Pair<String, Long>> {
+        val result = ArrayList<Pair<String, Long>>()
+        baseTitles.forEach { title ->
+            val coverHash = random.nextLong()
+            for (variant in 0 until 12) {
+                val variantTitle = when (variant % 6) {
+                    0 -> title
+                    1 -> "$title ${variant + 1}"
+                    2 -> "$title Ch. $variant-${variant + 2}"
+                    3 -> if (title.length > 3) title.substring(0, title.length - 2) else title
+                    4 -> if (title.isNotEmpty()) title.replaceFirst(title[title.length / 2], 'z') else title
+                    else -> "[Tag] $title (Sequel) ${random.nextInt(5)}"
+                }
+                // Covers within a family differ by a random number of bits
+                var variantHash = coverHash
+                repeat(random.nextInt(20)) { variantHash = variantHash xor (1L shl random.nextInt(64)) }
+                if (0 == random.nextInt(15)) variantHash = 0L // Not hashed yet
+                if (0 == random.nextInt(15)) variantHash = Long.MIN_VALUE // Unhashable
+                result.add(Pair(variantTitle, variantHash))
+            }
+        }
+        result.shuffle(random)
+        return result
+    }
+
+    @Test
+    fun sameResultsAsBruteForce() {
+        val corpus = buildCorpus(Random(12345))
+        val cosine = Cosine()
+        for (sensitivity in 0..2) {
+            for ((useTitle, useCover) in listOf(Pair(true, false), Pair(false, true), Pair(true, true))) {
+                for (ignoreChapters in listOf(false, true)) {
+                    val library = corpus.map { (title, hash) ->
+                        DuplicateCandidate(
+                            Content().setTitle(title),
+                            useTitle,
+                            false,
+                            false,
+                            useCover,
+                            ignoreChapters,
+                            hash
+                        )
+                    }
+                    val bruteForce = HashSet<Pair<Int, Int>>()
+                    for (i in library.indices) {
+                        for (j in i + 1 until library.size) {
+                            if (isDuplicate(library, i, j, useTitle, useCover, ignoreChapters, sensitivity, cosine))
+                                bruteForce.add(Pair(i, j))
+                        }
+                    }
+                    val index = DuplicateCandidateIndex(library, useTitle, useCover, sensitivity)
+                    val indexed = HashSet<Pair<Int, Int>>()
+                    for (i in library.indices) {
+                        for (j in index.getCandidates(i)) {
+                            if (isDuplicate(library, i, j, useTitle, useCover, ignoreChapters, sensitivity, cosine))
+                                indexed.add(Pair(i, j))
+                        }
+                    }
+                    val label = "sensitivity=$sensitivity title=$useTitle cover=$useCover ignoreChapters=$ignoreChapters"
+                    // Make sure the corpus actually contains duplicates
+                    Assert.assertTrue(label, bruteForce.isNotEmpty())
+                    Assert.assertEquals(label, bruteForce, indexed)
+                }
+            }
+        }
+    }
+
+    private fun isDuplicate(
+        library: List<DuplicateCandidate>,
+        i: Int,
+        j: Int,
+        useTitle: Boolean,
+        useCover: Boolean,
+        ignoreChapters: Boolean,
+        sensitivity: Int,
+        cosine: Cosine
+    ): Boolean {
+        return DuplicateHelper.processContent(
+            library[i],
+            library[j],
+            useTitle,
+            useCover,
+            false,
+            false,
+            ignoreChapters,
+            sensitivity,
+            cosine
+        ) != null
+    }
+}
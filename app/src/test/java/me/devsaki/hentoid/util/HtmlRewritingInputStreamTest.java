@@ -0,0 +1,169 @@
+package me.devsaki.hentoid.util;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import me.devsaki.hentoid.util.network.HtmlRewritingInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HtmlRewritingInputStreamTest {
+
+    private static String rewrite(String html, String css, List<String> removable, List<String> jsBlacklist) throws IOException {
+        return rewrite(html, css, removable, jsBlacklist, null);
+    }
+
+    private static String rewrite(String html, String css, List<String> removable, List<String> jsBlacklist, HtmlRewritingInputStream.BookCardMarking marking) throws IOException {
+        // Tiny reads to check documents are processed correctly across buffer boundaries
+        InputStream source = new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        try (InputStream stream = new HtmlRewritingInputStream(source, css, removable, jsBlacklist, marking)) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            Helper.copy(stream, result);
+            return new String(result.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void isSupported() {
+        assertTrue(HtmlRewritingInputStream.isSupported(null));
+        assertTrue(HtmlRewritingInputStream.isSupported(Arrays.asList("iframe", ".c-ads", "#slider", "section.advertisement", "div[data-refresh]", "iframe[name^='spot']", "a[rel^='nofollow noopener']", "center.imgtop, .er_container")));
+        assertFalse(HtmlRewritingInputStream.isSupported(Collections.singletonList(".content div[class^=hitomi-]")));
+        assertFalse(HtmlRewritingInputStream.isSupported(Collections.singletonList(".top-content > div:not(.list-title)")));
+    }
+
+    @Test
+    public void passThrough() throws IOException {
+        String html = "<!DOCTYPE html><html><head><title>a < b > c</title></head><body><!-- <div class=\"ad\"> --><p class='x'>\u00fc \u6f22\u5b57 1 < 2</p><img src=\"a.jpg\"/></body></html>";
+        assertEquals(html, rewrite(html, null, null, null));
+    }
+
+    @Test
+    public void nonAsciiAfterLowerThan() throws IOException {
+        // UTF-8 lead bytes are letters once decoded as Latin-1 bytes
+        String html = "<body><div class=\"ad\">1 <\u00e9</div><p>2 <\u00e9 3</p></body>";
+        assertEquals("<body><p>2 <\u00e9 3</p></body>", rewrite(html, null, Collections.singletonList(".ad"), null));
+    }
+
+    @Test
+    public void utf16PassThrough() throws IOException {
+        byte[] html = "\ufeff<body><div class=\"ad\">ad</div></body>".getBytes(StandardCharsets.UTF_16LE);
+        // Single-byte reads to check the BOM is detected whatever the size of the first read
+        InputStream source = new ByteArrayInputStream(html) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        try (InputStream stream = new HtmlRewritingInputStream(source, ".watermarked{}", Collections.singletonList(".ad"), null)) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            Helper.copy(stream, result);
+            assertArrayEquals(html, result.toByteArray());
+        }
+    }
+
+    @Test
+    public void removeElements() throws IOException {
+        String html = "<body><div class=\"a c-ads b\"><div>ad<div>ad</div></div><img src='x'></div><div id=\"slider\">s</div><p>keep</p>"
+                + "<iframe name='spot1' src='x'><p>inside</p></iframe><iframe name='other'></iframe>"
+                + "<a rel=\"nofollow noopener\" href=\"x\">ad</a><a href=\"y\">link</a><br class=\"c-ads\"></body>";
+        String result = rewrite(html, null, Arrays.asList(".c-ads", "#slider", "iframe[name^='spot']", "a[rel^='nofollow noopener']"), null);
+        assertEquals("<body><p>keep</p><iframe name='other'></iframe><a href=\"y\">link</a></body>", result);
+    }
+
+    @Test
+    public void removeElementsWithImpliedEndTags() throws IOException {
+        List<String> removable = Collections.singletonList(".ad");
+        String[] htmls = {
+                "<ul><li class=\"ad\">ad<li>keep</ul><p>after</p>",
+                "<ul><li class=\"ad\">ad<ul><li>ad<li>ad</ul><li>keep</ul>",
+                "<ul><li class=\"ad\"><span>ad</ul><p>after</p>",
+                "<div><p class=\"ad\">ad<div>keep</div></div>",
+                "<div><p class=\"ad\"><b>ad</b></div><p>after</p>",
+                "<p class=\"ad\">ad<p>keep",
+                "<dl><dt class=\"ad\">ad<dd>keep<dt>keep</dl>",
+                "<table><tr><td class=\"ad\">ad<td>keep<tr><td>keep</table><p>after</p>",
+                "<table><tr class=\"ad\"><td>ad<td>ad<tr><td>keep</table>",
+                "<table><tr><td class=\"ad\"><table><tr><td>ad</table><td>keep</table>",
+                "<table><tbody class=\"ad\"><tr><td>ad<tbody><tr><td>keep</table>",
+                "<select><option class=\"ad\">ad<option>keep</select><p>after</p>",
+                "<select><optgroup class=\"ad\"><option>ad<optgroup><option>keep</select>",
+                "<ruby>base<rt class=\"ad\">ad<rt>keep</ruby>",
+                "<div class=\"ad\"><p>ad<li>ad</div><p>after</p>"
+        };
+        for (String html : htmls) {
+            Document expected = Jsoup.parse(html);
+            expected.select(removable.get(0)).remove();
+            Document result = Jsoup.parse(rewrite(html, null, removable, null));
+            assertEquals(html, expected.body().html(), result.body().html());
+        }
+    }
+
+    @Test
+    public void removeScripts() throws IOException {
+        String html = "<head><script>var a = 1 > 0; createElement('iframe');</script><script src=\"ok.js\"></script>"
+                + "<script>if (a</b) closeAd();</SCRIPT ></head>";
+        String result = rewrite(html, null, null, Arrays.asList("'iframe'", "CLOSEAD"));
+        assertEquals("<head><script src=\"ok.js\"></script></head>", result);
+    }
+
+    @Test
+    public void addCss() throws IOException {
+        String css = ".watermarked{}";
+        assertEquals("<html><head><meta charset=\"utf-8\"><style type=\"text/css\">.watermarked{}</style></head><body></body></html>",
+                rewrite("<html><head><meta charset=\"utf-8\"></head><body></body></html>", css, null, null));
+        assertEquals("<html><style type=\"text/css\">.watermarked{}</style><body></body></html>",
+                rewrite("<html><body></body></html>", css, null, null));
+    }
+
+    @Test
+    public void markBookCards() throws IOException {
+        UrlSuffixIndex downloaded = new UrlSuffixIndex(Collections.singletonList("/g/123/"));
+        UrlSuffixIndex merged = new UrlSuffixIndex(Collections.singletonList("/g/456/"));
+        String html = "<body><div class=\"list\"><div class=card><a href=\"https://x.com/g/123?p=1\"><img src=a.jpg></a></div>"
+                + "<div class='card'><a href='/g/456'>text</a></div><div class=\"excluded\"><span><a href=\"/g/456\"><img></a></span></div>"
+                + "<div><a href=\"https://x.com/g/123\"><img></a></div><p><a href=\"/g/789\"><img></a></p></div></body>";
+
+        String result = rewrite(html, null, null, null, new HtmlRewritingInputStream.BookCardMarking(downloaded, merged, 2, Collections.singleton("excluded")));
+        assertEquals("<body><div class=\"list\"><div class=\"watermarked card\"><a href=\"https://x.com/g/123?p=1\"><img src=a.jpg></a></div>"
+                + "<div class='card'><a class=\"watermarked-merged\" href='/g/456'>text</a></div><div class=\"excluded\"><span><a href=\"/g/456\"><img></a></span></div>"
+                + "<div><a href=\"https://x.com/g/123\"><img></a></div><p><a href=\"/g/789\"><img></a></p></div></body>", result);
+
+        // A later link to the same book with an image also marks its card once the plain link has been marked
+        result = rewrite(html, null, null, null, new HtmlRewritingInputStream.BookCardMarking(downloaded, merged, 1, Collections.emptySet()));
+        assertEquals("<body><div class=\"list\"><div class=\"card\"><a class=\"watermarked\" href=\"https://x.com/g/123?p=1\"><img src=a.jpg></a></div>"
+                + "<div class='card'><a class=\"watermarked-merged\" href='/g/456'>text</a></div><div class=\"excluded\"><span><a class=\"watermarked-merged\" href=\"/g/456\"><img></a></span></div>"
+                + "<div><a href=\"https://x.com/g/123\"><img></a></div><p><a href=\"/g/789\"><img></a></p></div></body>", result);
+    }
+
+    @Test
+    public void markBookCardsFromCoverLink() throws IOException {
+        UrlSuffixIndex downloaded = new UrlSuffixIndex(Collections.singletonList("/g/123/"));
+        UrlSuffixIndex merged = new UrlSuffixIndex(Collections.emptyList());
+        HtmlRewritingInputStream.BookCardMarking marking = new HtmlRewritingInputStream.BookCardMarking(downloaded, merged, 2, Collections.emptySet());
+        // Title link followed by the cover link : the book card is marked through the cover
+        String html = "<body><div class=\"card\"><a href=\"/g/123\">Title</a><div><a href=\"/g/123\"><img src=\"c.jpg\"></a></div></div></body>";
+        assertEquals("<body><div class=\"card\"><a href=\"/g/123\">Title</a><div class=\"watermarked\"><a href=\"/g/123\"><img src=\"c.jpg\"></a></div></div></body>",
+                rewrite(html, null, null, null, marking));
+        html = "<body><div class=\"card\"><a href=\"/g/123\">Title</a><a href=\"/g/123\"><img src=\"c.jpg\"></a></div></body>";
+        assertEquals("<body><div class=\"watermarked card\"><a href=\"/g/123\">Title</a><a href=\"/g/123\"><img src=\"c.jpg\"></a></div></body>",
+                rewrite(html, null, null, null, marking));
+    }
+}
@@ -0,0 +1,32 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongSetHelperTest {
+
+    @Test
+    public void fromArray() {
+        Assert.assertArrayEquals(new long[]{1, 2, 5, 9}, LongSetHelper.fromArray(new long[]{5, 1, 9, 2, 5, 1}));
+        Assert.assertArrayEquals(new long[0], LongSetHelper.fromArray(new long[0]));
+    }
+
+    @Test
+    public void intersect() {
+        long[] a = {1, 3, 5, 7, 9};
+        long[] b = {2, 3, 4, 9, 10};
+        Assert.assertArrayEquals(new long[]{3, 9}, LongSetHelper.intersect(a, b));
+        Assert.assertArrayEquals(new long[0], LongSetHelper.intersect(a, new long[0]));
+        Assert.assertArrayEquals(a, LongSetHelper.intersect(a, a));
+    }
+
+    @Test
+    public void subtract() {
+        long[] a = {1, 3, 5, 7, 9};
+        long[] b = {2, 3, 4, 9, 10};
+        Assert.assertArrayEquals(new long[]{1, 5, 7}, LongSetHelper.subtract(a, b));
+        Assert.assertArrayEquals(new long[]{2, 4, 10}, LongSetHelper.subtract(b, a));
+        Assert.assertArrayEquals(a, LongSetHelper.subtract(a, new long[0]));
+        Assert.assertArrayEquals(new long[0], LongSetHelper.subtract(a, a));
+    }
+}
@@ -0,0 +1,120 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class SubstringMatcherTest {
+
+    private static boolean naiveMatches(List<String> patterns, String text) {
+        for (String p : patterns) if (text.contains(p)) return true;
+        return false;
+    }
+
+    @Test
+    public void matches() {
+        SubstringMatcher matcher = new SubstringMatcher(Arrays.asList("he", "she", "his", "hers", "ads.example"));
+        Assert.assertTrue(matcher.matches("ushers"));
+        Assert.assertTrue(matcher.matches("https://ads.example.com/banner.js"));
+        Assert.assertTrue(matcher.matches("ahishers"));
+        Assert.assertFalse(matcher.matches("https://cdn.example.com/page.jpg"));
+        Assert.assertFalse(matcher.matches(""));
+        Assert.assertFalse(matcher.matches("ads.exampl"));
+    }
+
+    @Test
+    public void matchesEdgeCases() {
+        Assert.assertFalse(SubstringMatcher.EMPTY.matches("anything"));
+        Assert.assertTrue(SubstringMatcher.EMPTY.isEmpty());
+        // Same results as String.contains with the empty pattern
+        Assert.assertTrue(new SubstringMatcher(Collections.singletonList("")).matches("anything"));
+        // Patterns included in other patterns
+        SubstringMatcher matcher = new SubstringMatcher(Arrays.asList("abcd", "bc"));
+        Assert.assertTrue(matcher.matches("xbcx"));
+        Assert.assertTrue(matcher.matches("abcx"));
+        Assert.assertFalse(matcher.matches("abdc"));
+    }
+
+    @Test
+    public void matchesReader() throws IOException {
+        SubstringMatcher matcher = new SubstringMatcher(Arrays.asList("closead", "'iframe'"));
+        Assert.assertTrue(matcher.matches(new StringReader("var a = 1; function CloseAd() {}"), true));
+        Assert.assertFalse(matcher.matches(new StringReader("var a = 1; function CloseAd() {}"), false));
+        Assert.assertFalse(matcher.matches(new StringReader("document.createElement(\"iframe\")"), true));
+        // Pattern spanning several reads
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8190; i++) sb.append('x');
+        sb.append("'IFRAME'");
+        Assert.assertTrue(matcher.matches(new StringReader(sb.toString()), true));
+    }
+
+    @Test
+    public void matchesLikeContains() {
+        Random random = new Random(42);
+        String alphabet = "abc./";
+        for (int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            int nbPatterns = 1 + random.nextInt(10);
+            for (int i = 0; i < nbPatterns; i++)
+                patterns.add(randomString(random, alphabet, 1 + random.nextInt(5)));
+            SubstringMatcher matcher = new SubstringMatcher(patterns);
+            for (int i = 0; i < 50; i++) {
+                String text = randomString(random, alphabet, random.nextInt(30));
+                Assert.assertEquals(patterns + " / " + text, naiveMatches(patterns, text), matcher.matches(text));
+            }
+        }
+    }
+
+    /**
+     * Micro-benchmark of the time taken to check one URL against a blocklist
+     * (sized after the app's bundled blocked domains list)
+     * <p>
+     * Timing-dependent => opt-in; timings are given by the failure message when the matcher is slower than the naive loop
+     */
+    @Ignore("Benchmark; run manually")
+    @Test
+    public void benchmark() {
+        Random random = new Random(42);
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789";
+        List<String> domains = new ArrayList<>();
+        for (int i = 0; i < 70; i++)
+            domains.add(randomString(random, alphabet, 5 + random.nextInt(10)) + ".com");
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String host = (0 == i % 10) ? domains.get(random.nextInt(domains.size())) : randomString(random, alphabet, 12) + ".net";
+            urls.add("https://" + host + "/" + randomString(random, alphabet, 40) + ".jpg");
+        }
+        SubstringMatcher matcher = new SubstringMatcher(domains);
+
+        int rounds = 20;
+        // Warm-up
+        for (String url : urls) if (naiveMatches(domains, url) != matcher.matches(url)) Assert.fail();
+
+        int nbBlocked = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) for (String url : urls) if (naiveMatches(domains, url)) nbBlocked++;
+        long naiveNs = (System.nanoTime() - start) / ((long) rounds * urls.size());
+
+        int nbBlockedMatcher = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) for (String url : urls) if (matcher.matches(url)) nbBlockedMatcher++;
+        long matcherNs = (System.nanoTime() - start) / ((long) rounds * urls.size());
+
+        Assert.assertEquals(nbBlocked, nbBlockedMatcher);
+        Assert.assertTrue("Decision time per URL : " + naiveNs + " ns (contains loop) / " + matcherNs + " ns (matcher)", matcherNs <= naiveNs);
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+}
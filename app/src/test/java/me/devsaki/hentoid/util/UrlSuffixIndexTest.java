@@ -0,0 +1,71 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class UrlSuffixIndexTest {
+
+    private static boolean naiveIsSuffixed(List<String> urls, String url) {
+        for (String u : urls) if (url.endsWith(u)) return true;
+        return false;
+    }
+
+    @Test
+    public void isSuffixed() {
+        UrlSuffixIndex index = new UrlSuffixIndex(Arrays.asList("/g/12345", "/g/678", "abc"));
+        Assert.assertTrue(index.isSuffixed("site.com/g/12345"));
+        Assert.assertTrue(index.isSuffixed("/g/678"));
+        Assert.assertTrue(index.isSuffixed("site.com/xyzabc"));
+        Assert.assertFalse(index.isSuffixed("site.com/g/1234"));
+        Assert.assertFalse(index.isSuffixed("site.com/g/6789"));
+        Assert.assertFalse(index.isSuffixed("g/678"));
+        Assert.assertFalse(index.isSuffixed(""));
+
+        Assert.assertTrue(index.contains("abc"));
+        Assert.assertFalse(index.contains("xabc"));
+    }
+
+    @Test
+    public void add() {
+        UrlSuffixIndex index = new UrlSuffixIndex(Collections.emptyList());
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertFalse(index.isSuffixed("site.com/g/12345"));
+
+        index.add("/g/12345");
+        index.add("/g/12345");
+        Assert.assertEquals(1, index.size());
+        Assert.assertTrue(index.isSuffixed("site.com/g/12345"));
+
+        index.add("45");
+        Assert.assertTrue(index.isSuffixed("site.com/g/99945"));
+    }
+
+    @Test
+    public void isSuffixedLikeEndsWith() {
+        Random random = new Random(42);
+        String alphabet = "ab/1";
+        for (int round = 0; round < 200; round++) {
+            List<String> urls = new ArrayList<>();
+            int nbUrls = 1 + random.nextInt(10);
+            for (int i = 0; i < nbUrls; i++)
+                urls.add(randomString(random, alphabet, 1 + random.nextInt(6)));
+            UrlSuffixIndex index = new UrlSuffixIndex(urls);
+            for (int i = 0; i < 50; i++) {
+                String url = randomString(random, alphabet, random.nextInt(12));
+                Assert.assertEquals(urls + " / " + url, naiveIsSuffixed(urls, url), index.isSuffixed(url));
+            }
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package me.devsaki.hentoid.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InputStreamTeeTest {
+
+    private static byte[] randomData(int size) {
+        byte[] result = new byte[size];
+        new Random(42).nextBytes(result);
+        return result;
+    }
+
+    private static byte[] readAll(InputStream stream, int bufferSize) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = stream.read(buffer)) > -1) result.write(buffer, 0, read);
+        stream.close();
+        return result.toByteArray();
+    }
+
+    @Test
+    public void splitSequential() throws IOException {
+        byte[] data = randomData(FileHelper.FILE_IO_BUFFER_SIZE * 5 + 123);
+        List<InputStream> streams = InputStreamTee.split(new ByteArrayInputStream(data), 3);
+        Assert.assertArrayEquals(data, readAll(streams.get(0), 1000));
+        Assert.assertArrayEquals(data, readAll(streams.get(1), 7));
+        // Single-byte reads
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int b;
+        InputStream stream = streams.get(2);
+        while ((b = stream.read()) > -1) result.write(b);
+        Assert.assertArrayEquals(data, result.toByteArray());
+    }
+
+    @Test
+    public void splitConcurrent() throws Exception {
+        byte[] data = randomData(FileHelper.FILE_IO_BUFFER_SIZE * 20 + 5);
+        List<InputStream> streams = InputStreamTee.split(new ByteArrayInputStream(data), 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < streams.size(); i++) {
+                final InputStream stream = streams.get(i);
+                final int bufferSize = 100 + i * 3000;
+                results.add(executor.submit(() -> readAll(stream, bufferSize)));
+            }
+            for (Future<byte[]> result : results) Assert.assertArrayEquals(data, result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void closeSource() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        InputStream source = new ByteArrayInputStream(randomData(100)) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        List<InputStream> streams = InputStreamTee.split(source, 2);
+        Assert.assertEquals(10, streams.get(0).read(new byte[10]));
+        streams.get(0).close();
+        Assert.assertFalse(closed.get());
+        streams.get(1).close();
+        Assert.assertTrue(closed.get());
+        Assert.assertThrows(IOException.class, () -> streams.get(1).read());
+    }
+}
@@ -0,0 +1,87 @@
+package me.devsaki.hentoid.util.image
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.ColorMatrix
+import android.graphics.ColorMatrixColorFilter
+import android.graphics.Paint
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.GraphicsMode
+import kotlin.math.cos
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+// Native graphics are needed to actually apply color filters
+@RunWith(RobolectricTestRunner::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class ImagePHashTest {
+
+    @Test
+    fun sameHashAsColorMatrix() {
+        val size = 32
+        val smallerSize = 8
+        val engine = ImagePHash(size, smallerSize)
+        for (seed in 0 until 20) {
+            val random = Random(seed)
+            // Noisy gradient; every gray level has to be right for the hash to be
+            val pixels = IntArray(size * size) { i ->
+                val x = i % size
+                val y = i / size
+                val r = (x * 8 + random.nextInt(-24, 24)).coerceIn(0, 255)
+                val g = (y * 8 + random.nextInt(-24, 24)).coerceIn(0, 255)
+                val b = random.nextInt(256)
+                (0xFF shl 24) or (r shl 16) or (g shl 8) or b
+            }
+            val bitmap = Bitmap.createBitmap(pixels, size, size, Bitmap.Config.ARGB_8888)
+            Assert.assertEquals(
+                "Seed $seed",
+                colorMatrixHash(bitmap, size, smallerSize),
+                engine.calcPHash(bitmap)
+            )
+        }
+    }
+
+    /**
+     * Hash computed the way ImagePHash used to : grayscale using a desaturating ColorMatrix,
+     * then a direct DCT
+     */
+    private fun colorMatrixHash(bitmap: Bitmap, size: Int, smallerSize: Int): Long {
+        val colorMatrix = ColorMatrix()
+        colorMatrix.setSaturation(0f)
+        val gray = bitmap.copy(Bitmap.Config.ARGB_8888, true)
+        val paint = Paint()
+        paint.colorFilter = ColorMatrixColorFilter(colorMatrix)
+        Canvas(gray).drawBitmap(gray, 0f, 0f, paint)
+
+        val c = DoubleArray(size) { if (0 == it) 1 / sqrt(2.0) else 1.0 }
+        val dctVals = Array(smallerSize) { u ->
+            DoubleArray(smallerSize) { v ->
+                var sum = 0.0
+                for (i in 0 until size) {
+                    for (j in 0 until size) {
+                        sum += cos((2 * i + 1) / (2.0 * size) * u * Math.PI) * cos((2 * j + 1) / (2.0 * size) * v * Math.PI) * (gray.getPixel(i, j) and 0xff)
+                    }
+                }
+                sum * c[u] * c[v] / 4.0
+            }
+        }
+
+        var total = 0.0
+        for (x in 0 until smallerSize) for (y in 0 until smallerSize) total += dctVals[x][y]
+        total -= dctVals[0][0]
+        val avg = total / (smallerSize * smallerSize - 1).toDouble()
+        var hash: Long = 0
+        for (x in 0 until smallerSize) {
+            for (y in 0 until smallerSize) {
+                if (x != 0 && y != 0) {
+                    hash *= 2
+                    if (dctVals[x][y] > avg) hash++
+                }
+            }
+        }
+        return hash
+    }
+}
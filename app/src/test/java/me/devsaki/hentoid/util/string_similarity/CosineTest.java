@@ -0,0 +1,45 @@
+package me.devsaki.hentoid.util.string_similarity;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class CosineTest {
+
+    private final List<String> titles = Stream.of("", "ab", "abc", "   ", "a  b  c",
+            "my little book", "my little book 2", "my  little book", "my big book",
+            "the book of the year", "a completely unrelated title", "ばかりの本", "ばかりの本 2").collect(Collectors.toList());
+
+    @Test
+    public void profileSimilarityMatchesStringSimilarity() {
+        for (int k = 2; k <= 5; k++) {
+            Cosine cosine = new Cosine(k);
+            List<ShingleProfile> profiles = new ArrayList<>();
+            for (String s : titles) profiles.add(cosine.getShingleProfile(s));
+
+            for (int i = 0; i < titles.size(); i++)
+                for (int j = 0; j < titles.size(); j++) {
+                    double expected = cosine.similarity(titles.get(i), titles.get(j));
+                    double actual = cosine.similarity(profiles.get(i), profiles.get(j));
+                    Assert.assertEquals(titles.get(i) + " / " + titles.get(j), expected, actual, 0.0);
+                }
+        }
+    }
+
+    @Test
+    public void profileCountsShingles() {
+        ShingleProfile profile = new Cosine().getShingleProfile("abcabc");
+        // abc x2, bca, cab
+        Assert.assertEquals(3, profile.size());
+        Assert.assertEquals(Math.sqrt(6), profile.getNorm(), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void profilesWithDifferentK() {
+        new Cosine(3).similarity(new Cosine(2).getShingleProfile("abcd"), new Cosine(2).getShingleProfile("abce"));
+    }
+}